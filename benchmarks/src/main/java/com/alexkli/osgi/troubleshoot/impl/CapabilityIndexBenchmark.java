@@ -0,0 +1,81 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Clause;
+import com.alexkli.osgi.troubleshoot.impl.utils.Corpus;
+import com.alexkli.osgi.troubleshoot.impl.utils.Parser;
+
+/**
+ * Building the index of capabilities by namespace, name and version from all capabilities
+ * in the framework, done whenever bundles get installed, resolved or unresolved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CapabilityIndexBenchmark {
+
+    /** number of simulated bundles, each exporting the packages of one of the corpus manifests */
+    @Param({"100", "1000"})
+    public int bundles;
+
+    private List<BundleCapability> allCapabilities;
+
+    @Setup
+    public void setup() {
+        String[] corpora = { "small", "medium", "large", "xlarge" };
+        allCapabilities = new ArrayList<BundleCapability>();
+        for (int b = 0; b < bundles; b++) {
+            Clause[] clauses = Parser.parseHeader(Corpus.header(corpora[b % corpora.length], Corpus.EXPORT_PACKAGE));
+            for (Clause clause : clauses) {
+                // every tenth bundle exports the same packages again, like multiple versions of a library
+                String name = (b % 10 == 0) ? clause.getName() : clause.getName() + ".b" + b;
+                allCapabilities.add(new StaticCapability(name, Version.parseVersion(clause.getAttribute(Constants.VERSION_ATTRIBUTE))));
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, Map<String, BundleCapability[]>> index() {
+        return CapabilityIndex.index(allCapabilities);
+    }
+}
@@ -0,0 +1,119 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Clause;
+import com.alexkli.osgi.troubleshoot.impl.utils.Corpus;
+import com.alexkli.osgi.troubleshoot.impl.utils.Parser;
+import com.alexkli.osgi.troubleshoot.impl.utils.RequirementFilter;
+
+/**
+ * Matching every import requirement of a bundle against the capabilities of the same package,
+ * as done for each unresolved bundle in the Bundles section.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImportCheckBenchmark {
+
+    private static final String PACKAGE = PackageNamespace.PACKAGE_NAMESPACE;
+    private static final String VERSION = PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE;
+
+    @Param({"small", "medium", "large", "xlarge"})
+    public String corpus;
+
+    private BundleRequirement[] requirements;
+
+    /** filter directives as generated by the framework from the imports */
+    private String[] filters;
+
+    private Map<String, BundleCapability[]> capabilities;
+
+    @Setup
+    public void setup() throws InvalidSyntaxException {
+        Clause[] imports = Parser.parseHeader(Corpus.header(corpus, Corpus.IMPORT_PACKAGE));
+        List<BundleCapability> allCapabilities = new ArrayList<BundleCapability>();
+        requirements = new BundleRequirement[imports.length];
+        filters = new String[imports.length];
+        for (int i = 0; i < imports.length; i++) {
+            // mix of satisfied and unsatisfied imports, some packages exported in several versions
+            for (int v = 0; v <= i % 3; v++) {
+                allCapabilities.add(new StaticCapability(imports[i].getName(), new Version(1 + (i + v) % 4, i % 10, 0)));
+            }
+            String versionAttr = imports[i].getAttribute(Constants.VERSION_ATTRIBUTE);
+            String range = versionAttr == null ? "" : new VersionRange(versionAttr).toFilterString(VERSION);
+            filters[i] = "(&(" + PACKAGE + "=" + imports[i].getName() + ")" + range + ")";
+            requirements[i] = new StaticRequirement(filters[i]);
+        }
+        capabilities = CapabilityIndex.index(allCapabilities).get(PACKAGE);
+    }
+
+    @Benchmark
+    public void match(Blackhole bh) {
+        for (int i = 0; i < requirements.length; i++) {
+            RequirementFilter filter = RequirementFilter.get(filters[i], PACKAGE, VERSION);
+            CapabilityMatch match = CapabilityMatch.match(requirements[i], filter.getVersionRange(),
+                capabilities.get(filter.getName()));
+            bh.consume(match.isMatching(match.getCandidates().length - 1));
+            bh.consume(match.getNearestLower());
+            bh.consume(match.getNearestHigher());
+        }
+    }
+
+    @Benchmark
+    public void requirementFilter(Blackhole bh) {
+        for (String filter : filters) {
+            bh.consume(RequirementFilter.parse(filter, PACKAGE, VERSION));
+        }
+    }
+
+    @Benchmark
+    public void requirementFilterInterned(Blackhole bh) {
+        for (String filter : filters) {
+            bh.consume(RequirementFilter.get(filter, PACKAGE, VERSION));
+        }
+    }
+}
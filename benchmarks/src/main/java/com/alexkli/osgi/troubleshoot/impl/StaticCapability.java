@@ -0,0 +1,68 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Detached exported package capability for feeding the benchmarks without a framework.
+ */
+public class StaticCapability implements BundleCapability {
+
+    private final Map<String, Object> attributes;
+
+    public StaticCapability(String packageName, Version version) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(PackageNamespace.PACKAGE_NAMESPACE, packageName);
+        map.put(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE, version);
+        this.attributes = Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public BundleRevision getRevision() {
+        return null;
+    }
+
+    @Override
+    public String getNamespace() {
+        return PackageNamespace.PACKAGE_NAMESPACE;
+    }
+
+    @Override
+    public Map<String, String> getDirectives() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public BundleRevision getResource() {
+        return null;
+    }
+}
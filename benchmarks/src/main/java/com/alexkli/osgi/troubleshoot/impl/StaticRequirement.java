@@ -0,0 +1,75 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Detached package import requirement for feeding the benchmarks without a framework,
+ * matching capabilities with the filter implementation of the OSGi core jar.
+ */
+public class StaticRequirement implements BundleRequirement {
+
+    private final Map<String, String> directives;
+    private final Filter filter;
+
+    public StaticRequirement(String filter) throws InvalidSyntaxException {
+        this.directives = Collections.singletonMap(PackageNamespace.REQUIREMENT_FILTER_DIRECTIVE, filter);
+        this.filter = FrameworkUtil.createFilter(filter);
+    }
+
+    @Override
+    public BundleRevision getRevision() {
+        return null;
+    }
+
+    @Override
+    public boolean matches(BundleCapability capability) {
+        return getNamespace().equals(capability.getNamespace()) && filter.matches(capability.getAttributes());
+    }
+
+    @Override
+    public String getNamespace() {
+        return PackageNamespace.PACKAGE_NAMESPACE;
+    }
+
+    @Override
+    public Map<String, String> getDirectives() {
+        return directives;
+    }
+
+    @Override
+    public Map<String, Object> getAttributes() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public BundleRevision getResource() {
+        return null;
+    }
+}
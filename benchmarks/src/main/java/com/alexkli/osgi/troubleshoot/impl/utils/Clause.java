@@ -22,14 +22,17 @@ public class Clause
 {
 
     private final String name;
-    private final Directive[] directives;
-    private final Attribute[] attributes;
+    private final Parameters parameters;
 
     public Clause(String name, Directive[] directives, Attribute[] attributes)
+    {
+        this(name, new Parameters(directives, attributes));
+    }
+
+    Clause(String name, Parameters parameters)
     {
         this.name = name;
-        this.directives = directives;
-        this.attributes = attributes;
+        this.parameters = parameters;
     }
 
     public String getName()
@@ -39,16 +42,17 @@ public class Clause
 
     public Directive[] getDirectives()
     {
-        return directives;
+        return parameters.getDirectives();
     }
 
     public Attribute[] getAttributes()
     {
-        return attributes;
+        return parameters.getAttributes();
     }
 
     public String getDirective(String name)
     {
+        Directive[] directives = parameters.getDirectives();
         for (int i = 0; i < directives.length; i++)
         {
             if (name.equals(directives[i].getName()))
@@ -61,6 +65,7 @@ public class Clause
 
     public String getAttribute(String name)
     {
+        Attribute[] attributes = parameters.getAttributes();
         for (int i = 0; i < attributes.length; i++)
         {
             if (name.equals(attributes[i].getName()))
@@ -73,6 +78,8 @@ public class Clause
 
     public String toString()
     {
+        Directive[] directives = parameters.getDirectives();
+        Attribute[] attributes = parameters.getAttributes();
         StringBuffer sb = new StringBuffer();
         sb.append(name);
         for (int i = 0; directives != null && i < directives.length; i++)
@@ -0,0 +1,56 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Manifests shipped as benchmark input in /corpus, from a handful of imports ("small")
+ * up to an Import-Package header with 500 clauses ("xlarge").
+ */
+public final class Corpus {
+
+    public static final String IMPORT_PACKAGE = "Import-Package";
+    public static final String EXPORT_PACKAGE = "Export-Package";
+
+    private Corpus() {
+    }
+
+    public static Attributes load(String name) {
+        InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".MF");
+        if (in == null) {
+            throw new IllegalArgumentException("No such corpus: " + name);
+        }
+        try {
+            try {
+                return new Manifest(in).getMainAttributes();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read corpus " + name, e);
+        }
+    }
+
+    public static String header(String name, String header) {
+        return load(name).getValue(header);
+    }
+}
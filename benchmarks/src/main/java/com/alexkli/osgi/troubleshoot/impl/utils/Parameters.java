@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+/**
+ * Directives and attributes of one or more clauses.
+ *
+ * Either created with already parsed arrays or as a reference to the
+ * (already validated) parameter section of a header, in which case the
+ * arrays are only parsed when first needed. Instances are shared by all
+ * clauses of a header that have an identical parameter section.
+ */
+final class Parameters
+{
+
+    static final Parameters EMPTY = new Parameters(new Directive[0], new Attribute[0]);
+
+    private final String source;
+    private final int begin;
+    private final int end;
+    private final int hash;
+
+    private volatile Parsed parsed;
+
+    Parameters(Directive[] directives, Attribute[] attributes)
+    {
+        this.source = null;
+        this.begin = 0;
+        this.end = 0;
+        this.hash = 0;
+        this.parsed = new Parsed(directives, attributes);
+    }
+
+    Parameters(String source, int begin, int end, int hash)
+    {
+        this.source = source;
+        this.begin = begin;
+        this.end = end;
+        this.hash = hash;
+    }
+
+    Directive[] getDirectives()
+    {
+        return parsed().directives;
+    }
+
+    Attribute[] getAttributes()
+    {
+        return parsed().attributes;
+    }
+
+    int hash()
+    {
+        return hash;
+    }
+
+    /** Returns true if this refers to a parameter section with exactly the given characters */
+    boolean matches(String s, int from, int to, int h)
+    {
+        return source != null
+            && hash == h
+            && end - begin == to - from
+            && source.regionMatches(begin, s, from, to - from);
+    }
+
+    static int hash(String s, int from, int to)
+    {
+        int h = 0;
+        for (int i = from; i < to; i++)
+        {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private Parsed parsed()
+    {
+        // racy single-check: parsing twice in parallel yields equal results
+        Parsed p = parsed;
+        if (p == null)
+        {
+            p = parse();
+            parsed = p;
+        }
+        return p;
+    }
+
+    private Parsed parse()
+    {
+        // upper bound: one entry per piece
+        int max = 1;
+        for (int i = begin; i < end; i++)
+        {
+            if (source.charAt(i) == ';')
+            {
+                max++;
+            }
+        }
+        Directive[] dirs = new Directive[max];
+        Attribute[] attrs = new Attribute[max];
+        int dirCount = 0, attrCount = 0;
+
+        boolean quoted = false;
+        int pieceStart = begin;
+        for (int i = begin; i <= end; i++)
+        {
+            char c = (i < end) ? source.charAt(i) : ';';
+            if (c == '"' && i < end)
+            {
+                quoted = !quoted;
+            }
+            else if (c == ';' && (!quoted || i == end))
+            {
+                int from = Parser.trimStart(source, pieceStart, i);
+                int to = Parser.trimEnd(source, from, i);
+                pieceStart = i + 1;
+                if (from == to)
+                {
+                    // only possible for the empty remainder after a trailing ';'
+                    continue;
+                }
+
+                // Check if it is a directive, otherwise it is an attribute (validated by the parser).
+                int idx = source.indexOf(":=", from);
+                int sepLength = 2;
+                if (idx < 0 || idx + 2 > to)
+                {
+                    idx = source.indexOf('=', from);
+                    sepLength = 1;
+                }
+
+                String key = source.substring(from, Parser.trimEnd(source, from, idx));
+                int valueStart = Parser.trimStart(source, idx + sepLength, to);
+                int valueEnd = to;
+
+                // Remove quotes, if value is quoted.
+                if (valueEnd - valueStart >= 2 && source.charAt(valueStart) == '"' && source.charAt(valueEnd - 1) == '"')
+                {
+                    valueStart++;
+                    valueEnd--;
+                }
+                String value = source.substring(valueStart, valueEnd);
+
+                if (sepLength == 2)
+                {
+                    dirs[dirCount++] = new Directive(key, value);
+                }
+                else
+                {
+                    attrs[attrCount++] = new Attribute(key, value);
+                }
+            }
+        }
+
+        return new Parsed(shrink(dirs, dirCount), shrink(attrs, attrCount));
+    }
+
+    private static Directive[] shrink(Directive[] dirs, int count)
+    {
+        if (count == 0)
+        {
+            return EMPTY.getDirectives();
+        }
+        Directive[] result = new Directive[count];
+        System.arraycopy(dirs, 0, result, 0, count);
+        return result;
+    }
+
+    private static Attribute[] shrink(Attribute[] attrs, int count)
+    {
+        if (count == 0)
+        {
+            return EMPTY.getAttributes();
+        }
+        Attribute[] result = new Attribute[count];
+        System.arraycopy(attrs, 0, result, 0, count);
+        return result;
+    }
+
+    private static final class Parsed
+    {
+        final Directive[] directives;
+        final Attribute[] attributes;
+
+        Parsed(Directive[] directives, Attribute[] attributes)
+        {
+            this.directives = directives;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manifest header parser, used to turn the Export-Package and Import-Package headers of the
+ * {@link Corpus} into the capabilities and requirements the framework would provide.
+ */
+public final class Parser
+{
+
+    private Parser() { }
+
+
+    public static Clause[] parseHeader(String header) throws IllegalArgumentException
+    {
+        if (header == null)
+        {
+            return new Clause[0];
+        }
+        if (header.length() == 0)
+        {
+            throw new IllegalArgumentException("The header cannot be an empty string.");
+        }
+        ClauseCollector collector = new ClauseCollector();
+        collector.parse(header, true);
+        return collector.toArray();
+    }
+
+    public static Clause[] parseClauses(String[] ss) throws IllegalArgumentException
+    {
+        if (ss == null)
+        {
+            return null;
+        }
+
+        ClauseCollector collector = new ClauseCollector();
+        for (int ssIdx = 0; ssIdx < ss.length; ssIdx++)
+        {
+            if (ss[ssIdx] == null)
+            {
+                throw new IllegalArgumentException("No path specified on clause: " + ss[ssIdx]);
+            }
+            collector.parse(ss[ssIdx], false);
+        }
+        return collector.toArray();
+    }
+
+    /**
+     * Parses delimited string and returns an array containing the tokens. This
+     * parser obeys quotes, so the delimiter character will be ignored if it is
+     * inside of a quote. This method assumes that the quote character is not
+     * included in the set of delimiter characters.
+     * @param value the delimited string to parse.
+     * @param delim the characters delimiting the tokens.
+     * @return an array of string tokens or null if there were no tokens.
+     **/
+    public static String[] parseDelimitedString(String value, String delim)
+    {
+        if (value == null)
+        {
+            value = "";
+        }
+
+        List<String> list = new ArrayList<String>();
+
+        boolean quoted = false;
+        int start = 0;
+        final int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if (!quoted && delim.indexOf(c) >= 0)
+            {
+                list.add(trimmed(value, start, i));
+                start = i + 1;
+            }
+        }
+
+        if (length > start)
+        {
+            list.add(trimmed(value, start, length));
+        }
+
+        return list.toArray(new String[list.size()]);
+    }
+
+    // ----------------------------------------------< tokenizer helpers >---------------------------------
+
+    /** same as {@link String#trim()}, but on a region and without creating a new string */
+    static int trimStart(String s, int from, int to)
+    {
+        while (from < to && s.charAt(from) <= ' ')
+        {
+            from++;
+        }
+        return from;
+    }
+
+    static int trimEnd(String s, int from, int to)
+    {
+        while (to > from && s.charAt(to - 1) <= ' ')
+        {
+            to--;
+        }
+        return to;
+    }
+
+    private static String trimmed(String s, int from, int to)
+    {
+        from = trimStart(s, from, to);
+        return s.substring(from, trimEnd(s, from, to));
+    }
+
+    /**
+     * Single pass tokenizer that turns comma separated clauses into {@link Clause} objects.
+     *
+     * Only the paths are materialized as strings, the parameter section of a clause is
+     * validated and then kept as a region of the source, parsed lazily by {@link Parameters}.
+     * Clauses with an identical parameter section share the same {@link Parameters} instance.
+     */
+    private static final class ClauseCollector
+    {
+
+        private final List<Clause> clauses = new ArrayList<Clause>();
+
+        // open addressing hash table of the distinct parameter sections seen so far
+        private Parameters[] table = new Parameters[16];
+        private int tableSize;
+
+        // [start, end) offsets of the paths of the current clause
+        private int[] paths = new int[8];
+        private int pathCount;
+
+        private String source;
+        private boolean header;
+        private int clauseStart;
+        private int paramStart;
+        private int paramEnd;
+
+        void parse(String s, boolean splitClauses)
+        {
+            this.source = s;
+            this.header = splitClauses;
+
+            final int length = s.length();
+            boolean quoted = false;
+            boolean equals = false;
+            int pieceStart = 0;
+
+            startClause(0);
+            for (int i = 0; i < length; i++)
+            {
+                char c = s.charAt(i);
+                if (c == '"')
+                {
+                    quoted = !quoted;
+                }
+                else if (c == '=')
+                {
+                    // like indexOf('='), this also counts inside quotes
+                    equals = true;
+                }
+                else if (!quoted && c == ';')
+                {
+                    piece(pieceStart, i, equals, false);
+                    pieceStart = i + 1;
+                    equals = false;
+                }
+                else if (!quoted && c == ',' && splitClauses)
+                {
+                    piece(pieceStart, i, equals, true);
+                    endClause(i);
+                    pieceStart = i + 1;
+                    equals = false;
+                    startClause(pieceStart);
+                }
+            }
+
+            // a trailing delimiter does not start another clause
+            if (!splitClauses || length > clauseStart)
+            {
+                piece(pieceStart, length, equals, true);
+                endClause(length);
+            }
+        }
+
+        Clause[] toArray()
+        {
+            return clauses.toArray(new Clause[clauses.size()]);
+        }
+
+        private void startClause(int start)
+        {
+            clauseStart = start;
+            pathCount = 0;
+            paramStart = -1;
+            paramEnd = -1;
+        }
+
+        private void piece(int start, int end, boolean equals, boolean last)
+        {
+            int from = trimStart(source, start, end);
+            int to = trimEnd(source, from, end);
+
+            if (last)
+            {
+                // a clause split from a header is trimmed first, so a blank last piece disappears,
+                // while parseClauses() keeps any non-empty remainder
+                if (header ? from == to : start == end)
+                {
+                    return;
+                }
+            }
+
+            if (paramStart < 0)
+            {
+                if (!equals)
+                {
+                    addPath(from, to);
+                    return;
+                }
+                // Error if no packages were specified.
+                if (pathCount == 0)
+                {
+                    throw new IllegalArgumentException("No path specified on clause: " + clauseText(end));
+                }
+                paramStart = from;
+            }
+            else if (!equals)
+            {
+                throw new IllegalArgumentException("Not a directive/attribute: " + clauseText(end));
+            }
+            paramEnd = to;
+        }
+
+        private void endClause(int end)
+        {
+            if (pathCount == 0)
+            {
+                throw new IllegalArgumentException("No path specified on clause: " + clauseText(end));
+            }
+
+            Parameters parameters = (paramStart < 0) ? Parameters.EMPTY : parameters(paramStart, paramEnd);
+            for (int i = 0; i < pathCount; i++)
+            {
+                clauses.add(new Clause(source.substring(paths[2 * i], paths[2 * i + 1]), parameters));
+            }
+        }
+
+        private void addPath(int from, int to)
+        {
+            if (2 * pathCount + 2 > paths.length)
+            {
+                int[] newPaths = new int[paths.length * 2];
+                System.arraycopy(paths, 0, newPaths, 0, paths.length);
+                paths = newPaths;
+            }
+            paths[2 * pathCount] = from;
+            paths[2 * pathCount + 1] = to;
+            pathCount++;
+        }
+
+        /** returns the shared instance for this parameter section, creating it if it was not seen yet */
+        private Parameters parameters(int from, int to)
+        {
+            int hash = Parameters.hash(source, from, to);
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (table[slot] != null)
+            {
+                if (table[slot].matches(source, from, to, hash))
+                {
+                    return table[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            Parameters parameters = new Parameters(source, from, to, hash);
+            table[slot] = parameters;
+            if (++tableSize * 2 > table.length)
+            {
+                rehash();
+            }
+            return parameters;
+        }
+
+        private void rehash()
+        {
+            Parameters[] old = table;
+            table = new Parameters[old.length * 2];
+            int mask = table.length - 1;
+            for (Parameters parameters : old)
+            {
+                if (parameters != null)
+                {
+                    int slot = parameters.hash() & mask;
+                    while (table[slot] != null)
+                    {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = parameters;
+                }
+            }
+        }
+
+        /** the full (trimmed) text of the current clause, only used for error messages */
+        private String clauseText(int from)
+        {
+            int end = source.length();
+            if (header)
+            {
+                // find the end of the clause, continuing the scan outside of quotes
+                boolean quoted = false;
+                for (int i = from; i < source.length(); i++)
+                {
+                    char c = source.charAt(i);
+                    if (c == '"')
+                    {
+                        quoted = !quoted;
+                    }
+                    else if (c == ',' && !quoted)
+                    {
+                        end = i;
+                        break;
+                    }
+                }
+                return trimmed(source, clauseStart, end);
+            }
+            return source;
+        }
+    }
+}
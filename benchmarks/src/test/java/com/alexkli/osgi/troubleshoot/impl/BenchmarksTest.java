@@ -0,0 +1,94 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Clause;
+import com.alexkli.osgi.troubleshoot.impl.utils.Corpus;
+import com.alexkli.osgi.troubleshoot.impl.utils.Parser;
+
+/**
+ * The benchmark input, so a broken corpus fails the build rather than the first benchmark run.
+ */
+public class BenchmarksTest {
+
+    private static final String[] CORPORA = { "small", "medium", "large", "xlarge" };
+
+    @Test
+    public void testCorpusHeaders() {
+        int previous = 0;
+        for (String corpus : CORPORA) {
+            Clause[] imports = Parser.parseHeader(Corpus.header(corpus, Corpus.IMPORT_PACKAGE));
+            // ordered by size
+            assertTrue(corpus, imports.length > previous);
+            previous = imports.length;
+            for (Clause clause : imports) {
+                assertFalse(clause.getName().isEmpty());
+                String version = clause.getAttribute(Constants.VERSION_ATTRIBUTE);
+                if (version != null) {
+                    new VersionRange(version);
+                }
+            }
+            assertTrue(corpus, Parser.parseHeader(Corpus.header(corpus, Corpus.EXPORT_PACKAGE)).length > 0);
+        }
+        assertEquals(500, previous);
+    }
+
+    @Test
+    public void testUnknownCorpus() {
+        try {
+            Corpus.load("none");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testImportCheckSetup() throws Exception {
+        for (String corpus : CORPORA) {
+            ImportCheckBenchmark benchmark = new ImportCheckBenchmark();
+            benchmark.corpus = corpus;
+            benchmark.setup();
+        }
+    }
+
+    @Test
+    public void testCapabilityIndex() {
+        CapabilityIndexBenchmark benchmark = new CapabilityIndexBenchmark();
+        benchmark.bundles = 100;
+        benchmark.setup();
+        Map<String, BundleCapability[]> packages = benchmark.index().get(PackageNamespace.PACKAGE_NAMESPACE);
+        assertNotNull(packages);
+        assertFalse(packages.isEmpty());
+    }
+}
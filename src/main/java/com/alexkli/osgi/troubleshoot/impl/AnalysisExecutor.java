@@ -0,0 +1,142 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded thread pool for the analysis phase of a request.
+ *
+ * Tasks must be side effect free, results are always returned in the order of the tasks,
+ * so that rendering afterwards produces exactly the same output as a sequential run.
+ * With a pool size of 0 or 1 all tasks simply run on the calling (request) thread.
+ */
+public class AnalysisExecutor {
+
+    private final ThreadPoolExecutor pool;
+
+    public AnalysisExecutor(int poolSize) {
+        if (poolSize <= 1) {
+            pool = null;
+            return;
+        }
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new AnalysisThreadFactory());
+        // idle most of the time, only busy while a page is rendered
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    public void stop() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /** Splits n items into chunks that give each thread a few tasks, to even out slow items */
+    public int getChunkSize(int n) {
+        if (pool == null) {
+            return Math.max(n, 1);
+        }
+        return Math.max(n / (pool.getMaximumPoolSize() * 4), 1);
+    }
+
+    /**
+     * Runs all tasks and returns their results in task order.
+     * Runtime exceptions of a task are rethrown on the calling thread.
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (pool == null || tasks.size() < 2) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures;
+        try {
+            futures = pool.invokeAll(tasks);
+        } catch (RejectedExecutionException e) {
+            // shutting down, finish this request sequentially
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while analyzing", e);
+        }
+
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while analyzing", e);
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IllegalStateException("Analysis failed", t);
+    }
+
+    private static class AnalysisThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "osgi-troubleshoot-analysis-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.RequirementFilter;
+
+/**
+ * Finds out why bundles are not active by going through their requirements in the wiring
+ * namespaces: imported packages, required bundles and the host of fragments.
+ *
+ * Works on the requirements and capabilities as parsed by the framework. Resolved bundles
+ * have all of them wired, so only the providers can be inactive. Unresolved bundles have their
+ * requirements matched against the {@link CapabilityIndex}. An imported package the bundle
+ * contains itself is not a problem, even if the bundle does not export it.
+ */
+public class BundleAnalyzer {
+
+    private final CapabilityIndex capabilityIndex;
+    private final BundlePackageCache bundlePackageCache;
+    private final AnalysisExecutor executor;
+
+    public BundleAnalyzer(CapabilityIndex capabilityIndex, BundlePackageCache bundlePackageCache, AnalysisExecutor executor) {
+        this.capabilityIndex = capabilityIndex;
+        this.bundlePackageCache = bundlePackageCache;
+        this.executor = executor;
+    }
+
+    /** Returns the indexes of all bundles in the snapshot that are not active (or resolved for fragments) */
+    public int[] getProblematicBundles(FrameworkSnapshot snapshot) {
+        int count = 0;
+        int[] problemBundles = new int[snapshot.size()];
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.isInactive(i)) {
+                problemBundles[count++] = i;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(problemBundles, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Analyzes the given bundles, in parallel if the executor allows.
+     * @return the diagnoses in the same order as the indexes
+     */
+    public List<BundleDiagnosis> analyze(final FrameworkSnapshot snapshot, final int[] indexes) {
+        final int chunkSize = executor.getChunkSize(indexes.length);
+        List<Callable<List<BundleDiagnosis>>> tasks = new ArrayList<Callable<List<BundleDiagnosis>>>();
+        for (int start = 0; start < indexes.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, indexes.length);
+            tasks.add(new Callable<List<BundleDiagnosis>>() {
+                @Override
+                public List<BundleDiagnosis> call() {
+                    List<BundleDiagnosis> result = new ArrayList<BundleDiagnosis>(to - from);
+                    for (int i = from; i < to; i++) {
+                        result.add(analyze(snapshot, indexes[i]));
+                    }
+                    return result;
+                }
+            });
+        }
+
+        List<BundleDiagnosis> diagnoses = new ArrayList<BundleDiagnosis>(indexes.length);
+        for (List<BundleDiagnosis> chunk : executor.invokeAll(tasks)) {
+            diagnoses.addAll(chunk);
+        }
+        return diagnoses;
+    }
+
+    /** Analyzes a single bundle, only reads the snapshot and the (thread safe) index */
+    public BundleDiagnosis analyze(FrameworkSnapshot snapshot, int index) {
+        final BundleRevision revision = snapshot.getRevision(index);
+        final List<ImportProblem> problems = new ArrayList<ImportProblem>();
+        if (revision == null) {
+            // uninstalled
+            return new BundleDiagnosis(index, problems);
+        }
+
+        final BundleWiring wiring = revision.getWiring();
+        if (wiring != null) {
+            // resolved, everything is wired but the providers might not be active
+            for (String namespace : CapabilityIndex.NAMESPACES) {
+                List<BundleWire> wires = wiring.getRequiredWires(namespace);
+                if (wires == null) {
+                    continue;
+                }
+                for (BundleWire wire : wires) {
+                    int provider = indexOf(snapshot, wire.getProvider().getBundle());
+                    if (provider >= 0 && provider != index && snapshot.isInactive(provider)) {
+                        addNotActive(problems, snapshot, provider, wire.getRequirement(), getFilter(wire.getRequirement()));
+                    }
+                }
+            }
+            return new BundleDiagnosis(index, problems);
+        }
+
+        // go through requirements
+        // - other bundle might not be resolved
+        // - something else provides it, but in another (older) version or with other attributes
+        // - nothing provides it
+        for (BundleRequirement requirement : revision.getDeclaredRequirements(null)) {
+            if (!isAnalyzed(requirement)) {
+                continue;
+            }
+            final RequirementFilter filter = getFilter(requirement);
+            if (filter.getName() == null) {
+                // not a name the index can look up
+                continue;
+            }
+            analyze(problems, snapshot, index, requirement, filter);
+        }
+        return new BundleDiagnosis(index, problems);
+    }
+
+    private void analyze(List<ImportProblem> problems, FrameworkSnapshot snapshot, int index,
+                         BundleRequirement requirement, RequirementFilter filter) {
+        final String namespace = requirement.getNamespace();
+        if (PackageNamespace.PACKAGE_NAMESPACE.equals(namespace)
+                && bundlePackageCache.containsPackage(snapshot.getBundle(index), filter.getName())) {
+            // package the bundle contains itself, exported or not
+            return;
+        }
+        final BundleCapability[] candidates = capabilityIndex.getCapabilities(namespace, filter.getName());
+        if (candidates == null) {
+            // not found at all, bundle missing
+            problems.add(new ImportProblem(ImportProblem.Type.NOT_EXPORTED, namespace, filter.getName(),
+                getRangeString(filter), -1, null, null, null, false, false));
+            return;
+        }
+
+        final CapabilityMatch match = CapabilityMatch.match(requirement, filter.getVersionRange(), candidates);
+        int inactiveProvider = -1;
+        for (int c = candidates.length - 1; c >= 0; c--) {
+            int provider = indexOf(snapshot, candidates[c].getRevision().getBundle());
+            if (provider == index) {
+                // package the bundle contains itself
+                return;
+            }
+            if (!match.isMatching(c)) {
+                continue;
+            }
+            if (provider < 0 || !snapshot.isInactive(provider)) {
+                return;
+            }
+            if (inactiveProvider < 0) {
+                // highest version
+                inactiveProvider = provider;
+            }
+        }
+        if (inactiveProvider >= 0) {
+            // not an actual issue, just a chain of dependencies not resolving
+            addNotActive(problems, snapshot, inactiveProvider, requirement, filter);
+            return;
+        }
+
+        // here we have candidates, but in a different version or with different attributes
+        for (int c = 0; c < candidates.length; c++) {
+            final BundleCapability candidate = candidates[c];
+            ImportProblem.Type type;
+            if (match.isEmptyRange()) {
+                type = ImportProblem.Type.DIFFERENT_VERSION;
+            } else if (match.isTooOld(c)) {
+                type = ImportProblem.Type.DEPENDENCY_TOO_OLD;
+            } else if (match.isTooNew(c)) {
+                type = ImportProblem.Type.DEPENDENCY_TOO_NEW;
+            } else {
+                type = ImportProblem.Type.ATTRIBUTE_MISMATCH;
+            }
+            boolean multiple = candidates.length > 1;
+            boolean closest = multiple && (candidate == match.getNearestLower() || candidate == match.getNearestHigher());
+
+            Bundle providingBundle = candidate.getRevision().getBundle();
+            int provider = indexOf(snapshot, providingBundle);
+            long providerId = provider >= 0 ? snapshot.getBundleId(provider) : providingBundle.getBundleId();
+            String providerName = provider >= 0 ? snapshot.getSymbolicName(provider) : providingBundle.getSymbolicName();
+
+            problems.add(new ImportProblem(type, namespace, filter.getName(), getRangeString(filter),
+                providerId, providerName, null, CapabilityIndex.getVersion(candidate), multiple, closest));
+        }
+    }
+
+    private static void addNotActive(List<ImportProblem> problems, FrameworkSnapshot snapshot, int provider,
+                                     BundleRequirement requirement, RequirementFilter filter) {
+        problems.add(new ImportProblem(ImportProblem.Type.DEPENDENCY_NOT_ACTIVE, requirement.getNamespace(),
+            filter.getName(), getRangeString(filter), snapshot.getBundleId(provider), snapshot.getSymbolicName(provider),
+            snapshot.getStatusString(provider), null, false, false));
+    }
+
+    /** Mandatory requirements in the wiring namespaces; dynamic imports are only wired on class loading */
+    private static boolean isAnalyzed(BundleRequirement requirement) {
+        final String namespace = requirement.getNamespace();
+        boolean wiringNamespace = false;
+        for (String analyzed : CapabilityIndex.NAMESPACES) {
+            wiringNamespace |= analyzed.equals(namespace);
+        }
+        if (!wiringNamespace) {
+            return false;
+        }
+        String resolution = requirement.getDirectives().get(PackageNamespace.REQUIREMENT_RESOLUTION_DIRECTIVE);
+        return resolution == null || PackageNamespace.RESOLUTION_MANDATORY.equals(resolution);
+    }
+
+    private static RequirementFilter getFilter(BundleRequirement requirement) {
+        final String namespace = requirement.getNamespace();
+        return RequirementFilter.get(requirement.getDirectives().get(PackageNamespace.REQUIREMENT_FILTER_DIRECTIVE),
+            namespace, CapabilityIndex.getVersionAttribute(namespace));
+    }
+
+    /** The version range for display, null if there is no version constraint */
+    private static String getRangeString(RequirementFilter filter) {
+        return filter.getVersionRange() == null || filter.getVersionRange() == RequirementFilter.ANY
+            ? null : filter.getVersionRange().toString();
+    }
+
+    /** Returns the index of the (providing) bundle in the snapshot, -1 if it is gone or new */
+    private int indexOf(FrameworkSnapshot snapshot, Bundle bundle) {
+        return bundle == null ? -1 : snapshot.indexOf(bundle.getBundleId());
+    }
+}
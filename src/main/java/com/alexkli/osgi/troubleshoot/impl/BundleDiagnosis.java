@@ -15,10 +15,31 @@
  * limitations under the License.
  *
  *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.List;
+
 /**
- * inline script for scrolling to the bottom in the iframe actionLogDialog
+ * Analysis result for one problematic bundle of a {@link FrameworkSnapshot}.
  */
+public class BundleDiagnosis {
+
+    private final int index;
+    private final List<ImportProblem> problems;
+
+    BundleDiagnosis(int index, List<ImportProblem> problems) {
+        this.index = index;
+        this.problems = problems;
+    }
+
+    /** Index of the bundle in the snapshot */
+    public int getIndex() {
+        return index;
+    }
 
-if (!userHasScrolledUp) {
-    window.scrollTo(0, 999999);
-}
\ No newline at end of file
+    /** Problems in order of the imports in the manifest */
+    public List<ImportProblem> getProblems() {
+        return problems;
+    }
+}
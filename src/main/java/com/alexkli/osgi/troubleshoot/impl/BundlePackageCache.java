@@ -0,0 +1,123 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * LRU cache of the packages (directories) contained in a bundle.
+ *
+ * The content of a bundle is listed once per bundle revision (bundle id and last modified
+ * timestamp) using {@link Bundle#getEntryPaths(String)}, which, unlike findEntries(), does not
+ * try to resolve the bundle. Entries are dropped when the bundle is updated or uninstalled.
+ */
+public class BundlePackageCache implements BundleListener {
+
+    private final Map<Long, Entry> entries;
+
+    public BundlePackageCache(BundleContext bundleContext, final int maxSize) {
+        entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        bundleContext.addBundleListener(this);
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeBundleListener(this);
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /** Check if the bundle itself contains the given package */
+    public boolean containsPackage(Bundle bundle, String packageName) {
+        final long lastModified = bundle.getLastModified();
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(bundle.getBundleId());
+        }
+        if (entry == null || entry.lastModified != lastModified) {
+            // list outside the lock, worst case two threads list the same bundle
+            entry = new Entry(lastModified, listPackages(bundle));
+            synchronized (entries) {
+                entries.put(bundle.getBundleId(), entry);
+            }
+        }
+        return entry.packages.contains(packageName);
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        if (event.getType() == BundleEvent.UNINSTALLED || event.getType() == BundleEvent.UPDATED) {
+            synchronized (entries) {
+                entries.remove(event.getBundle().getBundleId());
+            }
+        }
+    }
+
+    private static Set<String> listPackages(Bundle bundle) {
+        Set<String> packages = new HashSet<String>();
+        try {
+            collectPackages(bundle, "/", packages);
+        } catch (IllegalStateException e) {
+            // uninstalled in the meantime
+        }
+        return packages;
+    }
+
+    private static void collectPackages(Bundle bundle, String dir, Set<String> packages) {
+        Enumeration<String> paths = bundle.getEntryPaths(dir);
+        if (paths == null) {
+            return;
+        }
+        while (paths.hasMoreElements()) {
+            String path = paths.nextElement();
+            if (path.endsWith("/")) {
+                // "com/example/" -> "com.example"
+                String pkg = path.substring(path.startsWith("/") ? 1 : 0, path.length() - 1).replace('/', '.');
+                if (packages.add(pkg)) {
+                    collectPackages(bundle, path, packages);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final Set<String> packages;
+
+        Entry(long lastModified, Set<String> packages) {
+            this.lastModified = lastModified;
+            this.packages = packages;
+        }
+    }
+}
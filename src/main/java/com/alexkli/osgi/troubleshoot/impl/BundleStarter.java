@@ -0,0 +1,400 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Graphs;
+
+/**
+ * Starts a set of inactive bundles in dependency order.
+ *
+ * All installed bundles are first resolved in one batch, which lets the framework resolve them
+ * together instead of once per bundle. The bundles are then started in waves: a bundle is only
+ * started in a wave after all bundles it is wired to (imported packages, required bundles),
+ * while bundles of the same wave are independent and started concurrently on a bounded pool.
+ * Bundles wired to each other in a cycle end up in the same wave. Bundles that still could not
+ * be resolved come last, their start attempt reports why.
+ *
+ * Each start has to finish within the timeout, counted from when the wave submitted it. A bundle
+ * still starting by then (e.g. blocking in its activator) is reported and left to finish in the
+ * background; its pool thread is given up and replaced by a new one, so hanging activators cannot
+ * take the whole pool. A start still queued by then is cancelled and reported as not started.
+ */
+public class BundleStarter {
+
+    /** Receives the progress, always called on the thread calling {@link #start(List)} */
+    public interface Log {
+
+        void resolved(int installed, int resolved) throws IOException;
+
+        void wave(int number, int bundles) throws IOException;
+
+        void started(Bundle bundle, int previousState, long millis) throws IOException;
+
+        void failed(Bundle bundle, int previousState, Exception e, long millis) throws IOException;
+
+        void timedOut(Bundle bundle, int previousState, long millis) throws IOException;
+
+        /** the start was still queued when the timeout expired and was cancelled */
+        void notStarted(Bundle bundle, int previousState, long millis) throws IOException;
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int SKIPPED = 2;
+
+    private final BundleContext bundleContext;
+    private final int poolSize;
+    private final long timeoutNanos;
+    private final Log log;
+
+    public BundleStarter(BundleContext bundleContext, int poolSize, long timeoutMillis, Log log) {
+        this.bundleContext = bundleContext;
+        this.poolSize = Math.max(poolSize, 1);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 1));
+        this.log = log;
+    }
+
+    /**
+     * Starts the given (non-fragment) bundles transiently.
+     * @return the number of bundles that started successfully within the timeout
+     */
+    public int start(List<Bundle> bundles) throws IOException {
+        final int n = bundles.size();
+        final int[] previousStates = new int[n];
+        for (int i = 0; i < n; i++) {
+            previousStates[i] = bundles.get(i).getState();
+        }
+
+        resolve(bundles);
+
+        final int[] waves = getWaves(bundles);
+        int waveCount = 0;
+        for (int wave : waves) {
+            waveCount = Math.max(waveCount, wave + 1);
+        }
+
+        final int threads = Math.min(poolSize, Math.max(n, 1));
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new StartThreadFactory());
+        try {
+            int started = 0;
+            for (int wave = 0; wave < waveCount; wave++) {
+                List<Integer> members = new ArrayList<Integer>();
+                for (int i = 0; i < n; i++) {
+                    if (waves[i] == wave) {
+                        members.add(i);
+                    }
+                }
+                log.wave(wave + 1, members.size());
+                started += startWave(pool, bundles, previousStates, members);
+            }
+            return started;
+        } finally {
+            // bundles that timed out keep starting in the background
+            pool.shutdown();
+        }
+    }
+
+    private void resolve(List<Bundle> bundles) throws IOException {
+        List<Bundle> installed = new ArrayList<Bundle>();
+        for (Bundle bundle : bundles) {
+            if (bundle.getState() == Bundle.INSTALLED) {
+                installed.add(bundle);
+            }
+        }
+        if (installed.isEmpty()) {
+            return;
+        }
+        final Bundle systemBundle = bundleContext.getBundle(Constants.SYSTEM_BUNDLE_LOCATION);
+        final FrameworkWiring frameworkWiring = systemBundle == null ? null : systemBundle.adapt(FrameworkWiring.class);
+        if (frameworkWiring != null) {
+            frameworkWiring.resolveBundles(installed);
+        }
+        int resolved = 0;
+        for (Bundle bundle : installed) {
+            if (bundle.getState() != Bundle.INSTALLED) {
+                resolved++;
+            }
+        }
+        log.resolved(installed.size(), resolved);
+    }
+
+    /**
+     * Returns the wave of each bundle: one more than the highest wave of the bundles it is wired to
+     * (outside its own cycle). Unresolved bundles get an extra last wave.
+     */
+    private static int[] getWaves(List<Bundle> bundles) {
+        final int n = bundles.size();
+        final Map<Long, Integer> positions = new HashMap<Long, Integer>();
+        for (int i = 0; i < n; i++) {
+            positions.put(bundles.get(i).getBundleId(), i);
+        }
+
+        // adjacency in compressed form, from each bundle to the bundles it is wired to
+        boolean[] unresolved = new boolean[n];
+        int[] edgeStart = new int[n + 1];
+        int[] edges = new int[16];
+        int edgeCount = 0;
+        for (int v = 0; v < n; v++) {
+            edgeStart[v] = edgeCount;
+            BundleWiring wiring = bundles.get(v).adapt(BundleWiring.class);
+            if (wiring == null) {
+                unresolved[v] = true;
+                continue;
+            }
+            List<BundleWire> wires = wiring.getRequiredWires(null);
+            if (wires == null) {
+                continue;
+            }
+            for (BundleWire wire : wires) {
+                Integer w = positions.get(wire.getProvider().getBundle().getBundleId());
+                if (w == null || w == v) {
+                    // already active or itself
+                    continue;
+                }
+                if (edgeCount == edges.length) {
+                    edges = Arrays.copyOf(edges, edgeCount * 2);
+                }
+                edges[edgeCount++] = w;
+            }
+        }
+        edgeStart[n] = edgeCount;
+
+        // successors of a component have lower numbers, so one pass in component order suffices
+        final int[] component = Graphs.stronglyConnectedComponents(n, edgeStart, edges);
+        final int components = Graphs.componentCount(component);
+        Integer[] order = new Integer[n];
+        for (int v = 0; v < n; v++) {
+            order[v] = v;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return component[o1] - component[o2];
+            }
+        });
+        int[] componentWave = new int[components];
+        for (int v : order) {
+            int c = component[v];
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                int d = component[edges[e]];
+                if (d != c) {
+                    componentWave[c] = Math.max(componentWave[c], componentWave[d] + 1);
+                }
+            }
+        }
+
+        int[] waves = new int[n];
+        int lastWave = -1;
+        for (int v = 0; v < n; v++) {
+            waves[v] = componentWave[component[v]];
+            if (!unresolved[v]) {
+                lastWave = Math.max(lastWave, waves[v]);
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (unresolved[v]) {
+                waves[v] = lastWave + 1;
+            }
+        }
+        return waves;
+    }
+
+    private int startWave(ThreadPoolExecutor pool, List<Bundle> bundles, int[] previousStates, List<Integer> members)
+            throws IOException {
+        final CompletionService<StartResult> completion = new ExecutorCompletionService<StartResult>(pool);
+        final int size = members.size();
+        final List<Future<StartResult>> futures = new ArrayList<Future<StartResult>>(size);
+        // per start: QUEUED, then RUNNING if a thread took it or SKIPPED if the deadline came first
+        final AtomicIntegerArray states = new AtomicIntegerArray(size);
+        // every start has the same deadline, whether it is running or still queued
+        final long submitted = System.nanoTime();
+        for (int m = 0; m < size; m++) {
+            futures.add(completion.submit(new StartTask(m, bundles.get(members.get(m)), states)));
+        }
+
+        int started = 0;
+        boolean[] done = new boolean[size];
+        int pending = size;
+        while (pending > 0) {
+            Future<StartResult> future;
+            try {
+                future = completion.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting bundles");
+            }
+            if (future != null) {
+                if (future.isCancelled()) {
+                    // already reported as not started
+                    continue;
+                }
+                StartResult result = getResult(future);
+                if (result != null && !done[result.member]) {
+                    done[result.member] = true;
+                    pending--;
+                    started += report(bundles, previousStates, members, result);
+                }
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            if (now - submitted <= timeoutNanos) {
+                continue;
+            }
+            final long millis = TimeUnit.NANOSECONDS.toMillis(now - submitted);
+            for (int m = 0; m < size; m++) {
+                if (done[m]) {
+                    continue;
+                }
+                done[m] = true;
+                pending--;
+                final Future<StartResult> start = futures.get(m);
+                final Bundle bundle = bundles.get(members.get(m));
+                final int previousState = previousStates[members.get(m)];
+                if (states.compareAndSet(m, QUEUED, SKIPPED)) {
+                    start.cancel(false);
+                    log.notStarted(bundle, previousState, millis);
+                } else if (start.isDone()) {
+                    // finished since the last poll
+                    started += report(bundles, previousStates, members, getResult(start));
+                } else {
+                    // hanging in start(), give up its thread so the remaining starts still get one
+                    addWorker(pool);
+                    log.timedOut(bundle, previousState, millis);
+                }
+            }
+        }
+        return started;
+    }
+
+    /** Logs the result of a finished start, returns 1 if the bundle started */
+    private int report(List<Bundle> bundles, int[] previousStates, List<Integer> members, StartResult result)
+            throws IOException {
+        final Bundle bundle = bundles.get(members.get(result.member));
+        final int previousState = previousStates[members.get(result.member)];
+        if (result.exception != null) {
+            log.failed(bundle, previousState, result.exception, result.millis);
+            return 0;
+        }
+        log.started(bundle, previousState, result.millis);
+        return 1;
+    }
+
+    private static void addWorker(ThreadPoolExecutor pool) {
+        // grow the maximum first, the core size may not exceed it
+        pool.setMaximumPoolSize(pool.getMaximumPoolSize() + 1);
+        pool.setCorePoolSize(pool.getCorePoolSize() + 1);
+    }
+
+    private static StartResult getResult(Future<StartResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting bundles", e);
+        } catch (ExecutionException e) {
+            // the task catches everything but errors
+            throw new IllegalStateException("Starting bundle failed", e.getCause());
+        }
+    }
+
+    private static class StartResult {
+
+        private final int member;
+        private final Exception exception;
+        private final long millis;
+
+        StartResult(int member, Exception exception, long millis) {
+            this.member = member;
+            this.exception = exception;
+            this.millis = millis;
+        }
+    }
+
+    private static class StartTask implements Callable<StartResult> {
+
+        private final int member;
+        private final Bundle bundle;
+        private final AtomicIntegerArray states;
+
+        StartTask(int member, Bundle bundle, AtomicIntegerArray states) {
+            this.member = member;
+            this.bundle = bundle;
+            this.states = states;
+        }
+
+        /** Returns null if the start was skipped as the deadline passed while it was queued */
+        @Override
+        public StartResult call() {
+            if (!states.compareAndSet(member, QUEUED, RUNNING)) {
+                return null;
+            }
+            final long start = System.nanoTime();
+            Exception exception = null;
+            try {
+                bundle.start(Bundle.START_TRANSIENT);
+            } catch (Exception e) {
+                // BundleException, IllegalStateException or SecurityException
+                exception = e;
+            }
+            return new StartResult(member, exception, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static class StartThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "osgi-troubleshoot-start-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
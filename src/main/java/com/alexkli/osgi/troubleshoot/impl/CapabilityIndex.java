@@ -0,0 +1,193 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the capabilities declared by the current revisions of all bundles in the wiring
+ * namespaces (exported packages, bundles that can be required and hosts for fragments), by
+ * namespace and name and sorted by version.
+ *
+ * Includes the capabilities of bundles that are not resolved, so that a requirement on them is
+ * known to be just a dependency not active. Events that can change the set of revisions (bundles
+ * installed, updated, resolved, unresolved or uninstalled, or packages refreshed) only mark the
+ * index dirty, it is rebuilt once on the next lookup: during startup or a refresh there are
+ * hundreds of such events, but the debounced diagnosis looks up capabilities only after them.
+ * Readers otherwise just pick up the latest immutable map without locking.
+ */
+public class CapabilityIndex implements BundleListener, FrameworkListener {
+
+    private static final Comparator<BundleCapability> BY_VERSION = new Comparator<BundleCapability>() {
+        @Override
+        public int compare(BundleCapability o1, BundleCapability o2) {
+            return getVersion(o1).compareTo(getVersion(o2));
+        }
+    };
+
+    /** the namespaces indexed and analyzed, each has the name of the capability in the attribute named like it */
+    static final String[] NAMESPACES = {
+        PackageNamespace.PACKAGE_NAMESPACE,
+        BundleNamespace.BUNDLE_NAMESPACE,
+        HostNamespace.HOST_NAMESPACE
+    };
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final BundleContext bundleContext;
+
+    /** namespace -> name -> capabilities sorted by version; replaced as a whole, never modified */
+    private volatile Map<String, Map<String, BundleCapability[]>> capabilities = Collections.emptyMap();
+
+    /** set by events, cleared when a rebuild starts so that events during the rebuild are not lost */
+    private volatile boolean dirty = true;
+
+    public CapabilityIndex(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        // built on the first lookup, any change after the registration marks it dirty again
+        bundleContext.addBundleListener(this);
+        bundleContext.addFrameworkListener(this);
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeFrameworkListener(this);
+        bundleContext.removeBundleListener(this);
+    }
+
+    /** Returns all capabilities with this name in the namespace sorted by version, or null if there are none */
+    public BundleCapability[] getCapabilities(String namespace, String name) {
+        Map<String, BundleCapability[]> byName = (dirty ? rebuild() : capabilities).get(namespace);
+        return byName == null ? null : byName.get(name);
+    }
+
+    /** The attribute holding the version of capabilities in one of the {@link #NAMESPACES} */
+    static String getVersionAttribute(String namespace) {
+        return PackageNamespace.PACKAGE_NAMESPACE.equals(namespace)
+            ? PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE
+            : BundleNamespace.CAPABILITY_BUNDLE_VERSION_ATTRIBUTE;
+    }
+
+    /** Version of the capability, 0.0.0 if it has none */
+    static Version getVersion(BundleCapability capability) {
+        Object version = capability.getAttributes().get(getVersionAttribute(capability.getNamespace()));
+        if (version instanceof Version) {
+            return (Version) version;
+        }
+        return version == null ? Version.emptyVersion : Version.parseVersion(version.toString());
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.INSTALLED:
+            case BundleEvent.UPDATED:
+            case BundleEvent.RESOLVED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                dirty = true;
+        }
+    }
+
+    @Override
+    public void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+            dirty = true;
+        }
+    }
+
+    private synchronized Map<String, Map<String, BundleCapability[]>> rebuild() {
+        if (!dirty) {
+            // rebuilt by a concurrent lookup
+            return capabilities;
+        }
+        dirty = false;
+        List<BundleCapability> all = new ArrayList<BundleCapability>();
+        for (Bundle bundle : bundleContext.getBundles()) {
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            if (revision == null) {
+                // uninstalled
+                continue;
+            }
+            for (String namespace : NAMESPACES) {
+                all.addAll(revision.getDeclaredCapabilities(namespace));
+            }
+        }
+        final Map<String, Map<String, BundleCapability[]>> index = index(all);
+        capabilities = index;
+        log.debug("Rebuilt capability index with {} capabilities", all.size());
+        return index;
+    }
+
+    static Map<String, Map<String, BundleCapability[]>> index(List<BundleCapability> allCapabilities) {
+        Map<String, Map<String, List<BundleCapability>>> map = new HashMap<String, Map<String, List<BundleCapability>>>();
+        for (BundleCapability capability : allCapabilities) {
+            final String namespace = capability.getNamespace();
+            Object name = capability.getAttributes().get(namespace);
+            if (name == null) {
+                continue;
+            }
+            Map<String, List<BundleCapability>> byName = map.get(namespace);
+            if (byName == null) {
+                byName = new HashMap<String, List<BundleCapability>>();
+                map.put(namespace, byName);
+            }
+            List<BundleCapability> values = byName.get(name.toString());
+            if (values == null) {
+                values = new ArrayList<BundleCapability>(1);
+                byName.put(name.toString(), values);
+            }
+            values.add(capability);
+        }
+
+        Map<String, Map<String, BundleCapability[]>> index = new HashMap<String, Map<String, BundleCapability[]>>();
+        for (Map.Entry<String, Map<String, List<BundleCapability>>> namespace : map.entrySet()) {
+            Map<String, BundleCapability[]> byName = new HashMap<String, BundleCapability[]>(namespace.getValue().size() * 4 / 3 + 1);
+            for (Map.Entry<String, List<BundleCapability>> entry : namespace.getValue().entrySet()) {
+                BundleCapability[] values = entry.getValue().toArray(new BundleCapability[entry.getValue().size()]);
+                if (values.length > 1) {
+                    Arrays.sort(values, BY_VERSION);
+                }
+                byName.put(entry.getKey(), values);
+            }
+            index.put(namespace.getKey(), byName);
+        }
+        return index;
+    }
+}
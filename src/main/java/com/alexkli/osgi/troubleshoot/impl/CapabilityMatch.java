@@ -0,0 +1,137 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+/**
+ * How the capabilities with the name a requirement asks for relate to it.
+ *
+ * Whether a capability matches is decided by the framework, including attributes other than
+ * the version. For explaining the mismatches, the capabilities are sorted by version, so they
+ * split into three consecutive groups: too old (below the range), in range and too new (above
+ * the range). Finding the group boundaries takes two binary searches.
+ */
+public class CapabilityMatch {
+
+    private final BundleCapability[] candidates;
+
+    private final boolean[] matching;
+
+    /** index of the first candidate that is not too old */
+    private final int lower;
+
+    /** index of the first candidate that is too new */
+    private final int upper;
+
+    private CapabilityMatch(BundleCapability[] candidates, boolean[] matching, int lower, int upper) {
+        this.candidates = candidates;
+        this.matching = matching;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * @param candidates capabilities with the name of the requirement, sorted by version ascending
+     * @param range the version range of the requirement, null if unknown
+     */
+    static CapabilityMatch match(BundleRequirement requirement, VersionRange range, BundleCapability[] candidates) {
+        boolean[] matching = new boolean[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            matching[i] = requirement.matches(candidates[i]);
+        }
+        if (range == null) {
+            return new CapabilityMatch(candidates, matching, 0, candidates.length);
+        }
+
+        final boolean leftOpen = range.getLeftType() == VersionRange.LEFT_OPEN;
+        final boolean rightOpen = range.getRightType() == VersionRange.RIGHT_OPEN;
+        final Version right = range.getRight();
+
+        // first candidate above the left boundary
+        int lo = 0, hi = candidates.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = CapabilityIndex.getVersion(candidates[mid]).compareTo(range.getLeft());
+            if (cmp < 0 || (cmp == 0 && leftOpen)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int lower = lo;
+
+        // first candidate beyond the right boundary
+        int upper = candidates.length;
+        if (right != null) {
+            lo = 0;
+            hi = candidates.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = CapabilityIndex.getVersion(candidates[mid]).compareTo(right);
+                if (cmp < 0 || (cmp == 0 && !rightOpen)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            upper = lo;
+        }
+        return new CapabilityMatch(candidates, matching, lower, upper);
+    }
+
+    public BundleCapability[] getCandidates() {
+        return candidates;
+    }
+
+    /** Whether the candidate at the given position satisfies the requirement */
+    public boolean isMatching(int candidate) {
+        return matching[candidate];
+    }
+
+    /** Returns the highest candidate that is too old, or null */
+    public BundleCapability getNearestLower() {
+        int i = Math.min(lower, upper) - 1;
+        return i >= 0 ? candidates[i] : null;
+    }
+
+    /** Returns the lowest candidate that is too new, or null */
+    public BundleCapability getNearestHigher() {
+        int i = Math.max(lower, upper);
+        return i < candidates.length ? candidates[i] : null;
+    }
+
+    /** Whether the candidate at the given position is below the version range */
+    public boolean isTooOld(int candidate) {
+        return candidate < lower;
+    }
+
+    /** Whether the candidate at the given position is above the version range */
+    public boolean isTooNew(int candidate) {
+        return candidate >= upper;
+    }
+
+    /** Whether the version range is empty, so that no version can be in it */
+    public boolean isEmptyRange() {
+        return upper < lower;
+    }
+}
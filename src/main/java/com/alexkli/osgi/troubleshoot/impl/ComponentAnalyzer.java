@@ -0,0 +1,305 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+import org.osgi.service.component.runtime.dto.ReferenceDTO;
+import org.osgi.service.component.runtime.dto.SatisfiedReferenceDTO;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Graphs;
+
+/**
+ * Finds declarative services components that are blocked by missing services or reference cycles,
+ * directly or because they reference a service of a blocked component.
+ */
+public class ComponentAnalyzer {
+
+    private static final Comparator<ComponentDescriptionDTO> BY_NAME = new Comparator<ComponentDescriptionDTO>() {
+        @Override
+        public int compare(ComponentDescriptionDTO o1, ComponentDescriptionDTO o2) {
+            return o1.name.compareTo(o2.name);
+        }
+    };
+
+    private static final Comparator<ComponentBlocker> MOST_BLOCKED_FIRST = new Comparator<ComponentBlocker>() {
+        @Override
+        public int compare(ComponentBlocker o1, ComponentBlocker o2) {
+            int diff = o2.getBlockedCount() - o1.getBlockedCount();
+            return diff != 0 ? diff : o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final ServiceComponentRuntime scr;
+    private final AnalysisExecutor executor;
+
+    public ComponentAnalyzer(ServiceComponentRuntime scr, AnalysisExecutor executor) {
+        this.scr = scr;
+        this.executor = executor;
+    }
+
+    public ComponentDiagnosis analyze(BundleContext bundleContext) {
+        // the only place talking to scr, fetches everything once
+        final ComponentIndex index = ComponentIndex.capture(scr, executor);
+
+        ComponentDiagnosis diagnosis = new ComponentDiagnosis();
+        countComponents(diagnosis, index);
+
+        try {
+            ServiceReference<?>[] allServiceReferences = bundleContext.getAllServiceReferences(null, null);
+            diagnosis.serviceReferences = allServiceReferences == null ? 0 : allServiceReferences.length;
+        } catch (InvalidSyntaxException ignore) {
+            // filter is null
+        }
+
+        final List<List<String>> unsatisfied = new ArrayList<List<String>>(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            unsatisfied.add(getUnsatisfiedReferences(index, i));
+        }
+
+        analyzeBlockers(diagnosis, index, unsatisfied);
+
+        return diagnosis;
+    }
+
+    /**
+     * Finds what blocks the components: missing services and cycles of components referencing each other.
+     *
+     * The graph has an edge from each unsatisfied component to the blocked components providing an
+     * interface it is missing. Its strongly connected components are the reference cycles, and come in
+     * reverse topological order, so that the blockers reaching each component can be collected in one
+     * pass with a bit set per graph component (one bit per missing service and per cycle), which takes
+     * O((components + edges) * blockers / 64).
+     */
+    private void analyzeBlockers(ComponentDiagnosis diagnosis, ComponentIndex index, List<List<String>> unsatisfied) {
+        final int n = index.size();
+
+        boolean[] blocked = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            blocked[v] = !unsatisfied.get(v).isEmpty();
+        }
+
+        // missing services directly referenced by v: missing[missingStart[v] .. missingStart[v+1])
+        Map<String, Integer> missingIds = new LinkedHashMap<String, Integer>();
+        int[] missingStart = new int[n + 1];
+        int[] missing = new int[16];
+        int missingCount = 0;
+
+        // blocked providers of unsatisfied references of v: edges[edgeStart[v] .. edgeStart[v+1])
+        int[] edgeStart = new int[n + 1];
+        int[] edges = new int[16];
+        int edgeCount = 0;
+        int[] lastTarget = new int[n];
+        Arrays.fill(lastTarget, -1);
+        boolean[] selfReference = new boolean[n];
+
+        for (int v = 0; v < n; v++) {
+            missingStart[v] = missingCount;
+            edgeStart[v] = edgeCount;
+            for (String serviceInterface : unsatisfied.get(v)) {
+                int[] impls = index.getByInterface(serviceInterface);
+                if (impls == null) {
+                    Integer id = missingIds.get(serviceInterface);
+                    if (id == null) {
+                        id = missingIds.size();
+                        missingIds.put(serviceInterface, id);
+                    }
+                    if (!contains(missing, missingStart[v], missingCount, id)) {
+                        if (missingCount == missing.length) {
+                            missing = Arrays.copyOf(missing, missingCount * 2);
+                        }
+                        missing[missingCount++] = id;
+                    }
+                    continue;
+                }
+                for (int w : impls) {
+                    if (!blocked[w] || lastTarget[w] == v) {
+                        continue;
+                    }
+                    lastTarget[w] = v;
+                    selfReference[v] |= w == v;
+                    if (edgeCount == edges.length) {
+                        edges = Arrays.copyOf(edges, edgeCount * 2);
+                    }
+                    edges[edgeCount++] = w;
+                }
+            }
+        }
+        missingStart[n] = missingCount;
+        edgeStart[n] = edgeCount;
+
+        final int[] component = Graphs.stronglyConnectedComponents(n, edgeStart, edges);
+        final int graphComponents = Graphs.componentCount(component);
+        int[] size = new int[graphComponents];
+        for (int v = 0; v < n; v++) {
+            size[component[v]]++;
+        }
+
+        // blocker numbers: missing services first, then cycles
+        final int missingServiceCount = missingIds.size();
+        int[] cycleNumber = new int[graphComponents];
+        int cycleCount = 0;
+        // a cycle is a graph component with several components, or a component referencing itself
+        boolean[] cyclic = new boolean[graphComponents];
+        for (int v = 0; v < n; v++) {
+            cyclic[component[v]] |= selfReference[v] || size[component[v]] > 1;
+        }
+        for (int c = 0; c < graphComponents; c++) {
+            cycleNumber[c] = cyclic[c] ? missingServiceCount + cycleCount++ : -1;
+        }
+        final int blockerCount = missingServiceCount + cycleCount;
+        final int words = (blockerCount + 63) >>> 6;
+
+        // blockers reaching each graph component
+        long[][] reachable = new long[graphComponents][words];
+        for (int v = 0; v < n; v++) {
+            long[] bits = reachable[component[v]];
+            if (cycleNumber[component[v]] >= 0) {
+                bits[cycleNumber[component[v]] >>> 6] |= 1L << cycleNumber[component[v]];
+            }
+            for (int k = missingStart[v]; k < missingStart[v + 1]; k++) {
+                bits[missing[k] >>> 6] |= 1L << missing[k];
+            }
+        }
+        Graphs.reachableMarks(n, edgeStart, edges, component, reachable);
+
+        // split the components reached by each blocker into directly and indirectly blocked
+        List<List<ComponentDescriptionDTO>> direct = new ArrayList<List<ComponentDescriptionDTO>>(blockerCount);
+        List<List<ComponentDescriptionDTO>> indirect = new ArrayList<List<ComponentDescriptionDTO>>(blockerCount);
+        for (int b = 0; b < blockerCount; b++) {
+            direct.add(new ArrayList<ComponentDescriptionDTO>());
+            indirect.add(new ArrayList<ComponentDescriptionDTO>());
+        }
+        for (int v = 0; v < n; v++) {
+            long[] bits = reachable[component[v]];
+            for (int i = 0; i < words; i++) {
+                long word = bits[i];
+                while (word != 0) {
+                    int b = (i << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    boolean isDirect = b < missingServiceCount
+                        ? contains(missing, missingStart[v], missingStart[v + 1], b)
+                        : b == cycleNumber[component[v]];
+                    (isDirect ? direct : indirect).get(b).add(index.getDescription(v));
+                }
+            }
+        }
+
+        List<MissingService> missingServices = new ArrayList<MissingService>(missingServiceCount);
+        for (Map.Entry<String, Integer> entry : missingIds.entrySet()) {
+            int b = entry.getValue();
+            missingServices.add(new MissingService(entry.getKey(), getProblem(entry.getKey(), index),
+                sortByName(direct.get(b)), sortByName(indirect.get(b))));
+        }
+        List<ReferenceCycle> referenceCycles = new ArrayList<ReferenceCycle>(cycleCount);
+        for (int b = missingServiceCount; b < blockerCount; b++) {
+            referenceCycles.add(new ReferenceCycle(sortByName(direct.get(b)), sortByName(indirect.get(b))));
+        }
+
+        // sort by most blocked components first
+        Collections.sort(missingServices, MOST_BLOCKED_FIRST);
+        Collections.sort(referenceCycles, MOST_BLOCKED_FIRST);
+        List<ComponentBlocker> blockers = new ArrayList<ComponentBlocker>(blockerCount);
+        blockers.addAll(missingServices);
+        blockers.addAll(referenceCycles);
+        Collections.sort(blockers, MOST_BLOCKED_FIRST);
+
+        diagnosis.missingServices = missingServices;
+        diagnosis.referenceCycles = referenceCycles;
+        diagnosis.blockers = blockers;
+    }
+
+    private static boolean contains(int[] array, int from, int to, int value) {
+        for (int i = from; i < to; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<ComponentDescriptionDTO> sortByName(List<ComponentDescriptionDTO> list) {
+        // sort alphabetically by component name
+        Collections.sort(list, BY_NAME);
+        return list;
+    }
+
+    private void countComponents(ComponentDiagnosis diagnosis, ComponentIndex index) {
+        diagnosis.components = index.size();
+        for (int i = 0; i < index.size(); i++) {
+            int count = index.getConfigurations(i).length;
+            if (count > 0) {
+                diagnosis.componentsWithActiveInstances += 1;
+            }
+            diagnosis.totalInstances += count;
+            if (index.getDescription(i).factory != null) {
+                diagnosis.factories += 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the interfaces of the unsatisfied references of the first instance of this component,
+     * in reference order. Empty if there is no instance.
+     */
+    private List<String> getUnsatisfiedReferences(ComponentIndex index, int position) {
+        List<String> unsatisfied = Collections.emptyList();
+        ComponentIndex.Configuration[] configurations = index.getConfigurations(position);
+
+        // first instance is enough
+        if (configurations.length > 0) {
+            ComponentIndex.Configuration component = configurations[0];
+
+            for (ReferenceDTO reference : component.getDTO().description.references) {
+                SatisfiedReferenceDTO satisfiedRef = component.getSatisfiedReference(reference.name);
+                if (satisfiedRef == null) {
+                    if (unsatisfied.isEmpty()) {
+                        unsatisfied = new ArrayList<String>(1);
+                    }
+                    unsatisfied.add(reference.interfaceName);
+                }
+            }
+        }
+        return unsatisfied;
+    }
+
+    /** Explains why there is no implementation of the service, assuming the component is named like the interface */
+    private String getProblem(String serviceInterface, ComponentIndex index) {
+        int[] missingComponents = index.getByName(serviceInterface);
+        if (missingComponents.length == 0) {
+            // component not even defined (e.g. bundle missing)
+            return "no component definition in active bundles found";
+        }
+        ComponentDescriptionDTO missingComponentDesc = index.getDescription(missingComponents[0]);
+        if ("require".equals(missingComponentDesc.configurationPolicy)) {
+            return "missing required config";
+        }
+        return "no component instance active";
+    }
+}
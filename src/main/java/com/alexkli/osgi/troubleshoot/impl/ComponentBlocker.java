@@ -0,0 +1,56 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.List;
+
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+/**
+ * Something that keeps components from being satisfied, directly and through the services of
+ * the components it blocks.
+ */
+public abstract class ComponentBlocker {
+
+    private final List<ComponentDescriptionDTO> blockedComponents;
+    private final List<ComponentDescriptionDTO> indirectlyBlockedComponents;
+
+    ComponentBlocker(List<ComponentDescriptionDTO> blockedComponents, List<ComponentDescriptionDTO> indirectlyBlockedComponents) {
+        this.blockedComponents = blockedComponents;
+        this.indirectlyBlockedComponents = indirectlyBlockedComponents;
+    }
+
+    /** Name used for ordering blockers that block the same number of components */
+    abstract String getName();
+
+    /** Components blocked directly, sorted by name */
+    public List<ComponentDescriptionDTO> getBlockedComponents() {
+        return blockedComponents;
+    }
+
+    /** Components only blocked because they reference a service of a blocked component, sorted by name */
+    public List<ComponentDescriptionDTO> getIndirectlyBlockedComponents() {
+        return indirectlyBlockedComponents;
+    }
+
+    /** Number of all components blocked, directly or indirectly */
+    public int getBlockedCount() {
+        return blockedComponents.size() + indirectlyBlockedComponents.size();
+    }
+}
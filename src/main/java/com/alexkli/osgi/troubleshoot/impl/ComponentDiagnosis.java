@@ -0,0 +1,76 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.List;
+
+/**
+ * Analysis result for all declarative services components.
+ */
+public class ComponentDiagnosis {
+
+    int components;
+    int componentsWithActiveInstances;
+    int totalInstances;
+    int factories;
+    int serviceReferences;
+
+    List<MissingService> missingServices;
+    List<ReferenceCycle> referenceCycles;
+    List<ComponentBlocker> blockers;
+
+    ComponentDiagnosis() {
+    }
+
+    /** Number of component descriptions */
+    public int getComponents() {
+        return components;
+    }
+
+    public int getComponentsWithActiveInstances() {
+        return componentsWithActiveInstances;
+    }
+
+    public int getTotalInstances() {
+        return totalInstances;
+    }
+
+    public int getFactories() {
+        return factories;
+    }
+
+    /** Number of registered services, not only those of components */
+    public int getServiceReferences() {
+        return serviceReferences;
+    }
+
+    /** Missing services, the ones blocking the most components first */
+    public List<MissingService> getMissingServices() {
+        return missingServices;
+    }
+
+    /** Cycles of components referencing each other, the ones blocking the most components first */
+    public List<ReferenceCycle> getReferenceCycles() {
+        return referenceCycles;
+    }
+
+    /** Missing services and reference cycles together, the ones blocking the most components first */
+    public List<ComponentBlocker> getBlockers() {
+        return blockers;
+    }
+}
@@ -0,0 +1,168 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Arrays;
+
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+
+/**
+ * State transitions of one component configuration as seen by the {@link ComponentStateSampler}.
+ * Only the last {@link #MAX_TRANSITIONS} transitions are kept, in a ring buffer.
+ */
+public class ComponentHistory {
+
+    public static final int MAX_TRANSITIONS = 16;
+
+    private final String name;
+    private final long id;
+    private final long bundleId;
+    /** when the configuration was first seen, -1 if before sampling started */
+    private final long created;
+
+    private int state;
+    /** when the current state was entered, -1 if before sampling started */
+    private long since;
+    private int transitionCount;
+
+    // ring buffer of the last transitions: state left, state entered, time
+    private final int[] fromStates;
+    private final int[] toStates;
+    private final long[] times;
+    private int head;
+
+    /** number of the last sample that contained this configuration */
+    int seen;
+
+    ComponentHistory(String name, long id, long bundleId, int state, long since) {
+        this(name, id, bundleId, since, state, since, 0, new int[MAX_TRANSITIONS], new int[MAX_TRANSITIONS], new long[MAX_TRANSITIONS], 0);
+    }
+
+    private ComponentHistory(String name, long id, long bundleId, long created, int state, long since, int transitionCount,
+                             int[] fromStates, int[] toStates, long[] times, int head) {
+        this.name = name;
+        this.id = id;
+        this.bundleId = bundleId;
+        this.created = created;
+        this.state = state;
+        this.since = since;
+        this.transitionCount = transitionCount;
+        this.fromStates = fromStates;
+        this.toStates = toStates;
+        this.times = times;
+        this.head = head;
+    }
+
+    void transition(int newState, long time) {
+        fromStates[head] = state;
+        toStates[head] = newState;
+        times[head] = time;
+        head = (head + 1) % MAX_TRANSITIONS;
+        transitionCount++;
+        state = newState;
+        since = time;
+    }
+
+    ComponentHistory copy() {
+        return new ComponentHistory(name, id, bundleId, created, state, since, transitionCount,
+            Arrays.copyOf(fromStates, MAX_TRANSITIONS), Arrays.copyOf(toStates, MAX_TRANSITIONS),
+            Arrays.copyOf(times, MAX_TRANSITIONS), head);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /** When the current state was entered, -1 if it already had it when sampling started */
+    public long getSince() {
+        return since;
+    }
+
+    /** Number of all transitions, including the ones no longer kept */
+    public int getTransitionCount() {
+        return transitionCount;
+    }
+
+    /** Number of kept transitions */
+    public int size() {
+        return Math.min(transitionCount, MAX_TRANSITIONS);
+    }
+
+    /** i-th kept transition, 0 being the oldest */
+    private int slot(int i) {
+        return (head - size() + i + MAX_TRANSITIONS) % MAX_TRANSITIONS;
+    }
+
+    public int getFromState(int i) {
+        return fromStates[slot(i)];
+    }
+
+    public int getToState(int i) {
+        return toStates[slot(i)];
+    }
+
+    public long getTime(int i) {
+        return times[slot(i)];
+    }
+
+    /**
+     * How long the state left with the i-th transition was kept, -1 if unknown because it was
+     * entered before sampling started or its transition is no longer kept.
+     */
+    public long getTimeInFromState(int i) {
+        if (i > 0) {
+            return getTime(i) - getTime(i - 1);
+        }
+        if (transitionCount <= MAX_TRANSITIONS && created >= 0) {
+            // the oldest transition left the initial state
+            return getTime(0) - created;
+        }
+        return -1;
+    }
+
+    public static String getStateName(int state) {
+        switch (state) {
+            case ComponentConfigurationDTO.UNSATISFIED_CONFIGURATION:
+                return "unsatisfied configuration";
+            case ComponentConfigurationDTO.UNSATISFIED_REFERENCE:
+                return "unsatisfied reference";
+            case ComponentConfigurationDTO.SATISFIED:
+                return "satisfied";
+            case ComponentConfigurationDTO.ACTIVE:
+                return "active";
+            case 16:
+                // FAILED_ACTIVATION, added in DS 1.4
+                return "failed activation";
+            default:
+                return "state " + state;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+import org.osgi.service.component.runtime.dto.SatisfiedReferenceDTO;
+
+/**
+ * All component descriptions and their configurations, fetched from the {@link ServiceComponentRuntime}
+ * exactly once per analysis, since it builds new DTOs on every call.
+ *
+ * Components are addressed by their position and indexed by name and by provided service interface.
+ */
+public class ComponentIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final List<ComponentDescriptionDTO> descriptions;
+    private final Configuration[][] configurations;
+    private final Map<String, int[]> byName;
+    private final Map<String, int[]> byInterface;
+
+    private ComponentIndex(List<ComponentDescriptionDTO> descriptions, Configuration[][] configurations) {
+        this.descriptions = descriptions;
+        this.configurations = configurations;
+
+        Map<String, List<Integer>> names = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> interfaces = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < descriptions.size(); i++) {
+            ComponentDescriptionDTO description = descriptions.get(i);
+            addToMultiMap(names, description.name, i);
+            for (String serviceInterface : description.serviceInterfaces) {
+                addToMultiMap(interfaces, serviceInterface, i);
+            }
+        }
+        this.byName = toArrays(names);
+        this.byInterface = toArrays(interfaces);
+    }
+
+    /** Fetches all descriptions and (in parallel, if the executor allows) their configurations */
+    public static ComponentIndex capture(final ServiceComponentRuntime scr, AnalysisExecutor executor) {
+        final List<ComponentDescriptionDTO> descriptions = new ArrayList<ComponentDescriptionDTO>(scr.getComponentDescriptionDTOs());
+
+        final int chunkSize = executor.getChunkSize(descriptions.size());
+        List<Callable<List<Configuration[]>>> tasks = new ArrayList<Callable<List<Configuration[]>>>();
+        for (int start = 0; start < descriptions.size(); start += chunkSize) {
+            final List<ComponentDescriptionDTO> chunk = descriptions.subList(start, Math.min(start + chunkSize, descriptions.size()));
+            tasks.add(new Callable<List<Configuration[]>>() {
+                @Override
+                public List<Configuration[]> call() {
+                    List<Configuration[]> result = new ArrayList<Configuration[]>(chunk.size());
+                    for (ComponentDescriptionDTO description : chunk) {
+                        result.add(fetchConfigurations(scr, description));
+                    }
+                    return result;
+                }
+            });
+        }
+
+        Configuration[][] configurations = new Configuration[descriptions.size()][];
+        int i = 0;
+        for (List<Configuration[]> chunk : executor.invokeAll(tasks)) {
+            for (Configuration[] c : chunk) {
+                configurations[i++] = c;
+            }
+        }
+        return new ComponentIndex(descriptions, configurations);
+    }
+
+    private static Configuration[] fetchConfigurations(ServiceComponentRuntime scr, ComponentDescriptionDTO description) {
+        Collection<ComponentConfigurationDTO> dtos = scr.getComponentConfigurationDTOs(description);
+        Configuration[] result = new Configuration[dtos.size()];
+        int i = 0;
+        for (ComponentConfigurationDTO dto : dtos) {
+            result[i++] = new Configuration(dto);
+        }
+        return result;
+    }
+
+    public int size() {
+        return descriptions.size();
+    }
+
+    public ComponentDescriptionDTO getDescription(int position) {
+        return descriptions.get(position);
+    }
+
+    /** The instances of the component, empty if it has none (e.g. missing required configuration) */
+    public Configuration[] getConfigurations(int position) {
+        return configurations[position];
+    }
+
+    /** Positions of all components with this name (usually one), empty if there is none */
+    public int[] getByName(String name) {
+        int[] positions = byName.get(name);
+        return positions == null ? NONE : positions;
+    }
+
+    /** Positions of all components providing this service interface, null if there is none */
+    public int[] getByInterface(String serviceInterface) {
+        return byInterface.get(serviceInterface);
+    }
+
+    private static <K> void addToMultiMap(Map<K, List<Integer>> map, K key, int value) {
+        List<Integer> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<Integer>(1);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <K> Map<K, int[]> toArrays(Map<K, List<Integer>> map) {
+        Map<K, int[]> result = new HashMap<K, int[]>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<K, List<Integer>> entry : map.entrySet()) {
+            List<Integer> values = entry.getValue();
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            result.put(entry.getKey(), array);
+        }
+        return result;
+    }
+
+    /**
+     * A component configuration with its satisfied references by name.
+     */
+    public static class Configuration {
+
+        private final ComponentConfigurationDTO dto;
+        private final Map<String, SatisfiedReferenceDTO> satisfiedReferences;
+
+        Configuration(ComponentConfigurationDTO dto) {
+            this.dto = dto;
+            if (dto.satisfiedReferences.length == 0) {
+                satisfiedReferences = Collections.emptyMap();
+            } else {
+                satisfiedReferences = new HashMap<String, SatisfiedReferenceDTO>(dto.satisfiedReferences.length * 4 / 3 + 1);
+                for (SatisfiedReferenceDTO ref : dto.satisfiedReferences) {
+                    satisfiedReferences.put(ref.name, ref);
+                }
+            }
+        }
+
+        public ComponentConfigurationDTO getDTO() {
+            return dto;
+        }
+
+        /** Returns the satisfied reference with this name, null if the reference is not satisfied */
+        public SatisfiedReferenceDTO getSatisfiedReference(String name) {
+            return satisfiedReferences.get(name);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the states of all component configurations at a low frequency and keeps a bounded
+ * history of their state transitions, to find components that keep cycling between states or
+ * take long to become satisfied.
+ *
+ * Each sample is diffed against the previous one by configuration id: only configurations whose
+ * state changed get a new transition, unchanged ones are merely marked as still present.
+ * Configurations that disappeared (e.g. disabled components) are dropped.
+ */
+public class ComponentStateSampler {
+
+    /** Notified after a sample found a difference to the previous one */
+    public interface Listener {
+
+        void componentsChanged();
+    }
+
+    private static final Comparator<ComponentHistory> MOST_TRANSITIONS_FIRST = new Comparator<ComponentHistory>() {
+        @Override
+        public int compare(ComponentHistory o1, ComponentHistory o2) {
+            int diff = o2.getTransitionCount() - o1.getTransitionCount();
+            if (diff == 0) {
+                // longest in the current state first
+                diff = o1.getSince() < o2.getSince() ? -1 : (o1.getSince() == o2.getSince() ? 0 : 1);
+            }
+            return diff != 0 ? diff : o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ServiceComponentRuntime scr;
+
+    private final Listener listener;
+
+    private final ScheduledExecutorService scheduler;
+
+    /** by configuration id, guarded by this */
+    private final Map<Long, ComponentHistory> histories = new HashMap<Long, ComponentHistory>();
+
+    private int sample;
+
+    /** incremented whenever a history changes */
+    private long changes;
+
+    /** -1 until the first sample, states before are unknown */
+    private long firstSample = -1;
+
+    public ComponentStateSampler(ServiceComponentRuntime scr, long intervalSeconds, Listener listener) {
+        this.scr = scr;
+        this.listener = listener;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "osgi-troubleshoot-component-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final long interval = Math.max(intervalSeconds, 1);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    // keep sampling, scr might be going away
+                    log.debug("Sampling component states failed", e);
+                }
+            }
+        }, 0, interval, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    void sample() {
+        // fetch outside the lock, scr calls can be slow
+        final List<ComponentConfigurationDTO> configurations = new ArrayList<ComponentConfigurationDTO>();
+        for (ComponentDescriptionDTO description : scr.getComponentDescriptionDTOs()) {
+            configurations.addAll(scr.getComponentConfigurationDTOs(description));
+        }
+        final long now = System.currentTimeMillis();
+
+        final boolean changed;
+        synchronized (this) {
+            final long previousChanges = changes;
+            sample++;
+            final boolean first = firstSample < 0;
+            if (first) {
+                firstSample = now;
+            }
+            for (ComponentConfigurationDTO configuration : configurations) {
+                ComponentHistory history = histories.get(configuration.id);
+                if (history == null) {
+                    // new configurations start now, unless they existed before the first sample
+                    history = new ComponentHistory(configuration.description.name, configuration.id,
+                        configuration.description.bundle.id, configuration.state, first ? -1 : now);
+                    histories.put(configuration.id, history);
+                    changes++;
+                } else if (history.getState() != configuration.state) {
+                    history.transition(configuration.state, now);
+                    changes++;
+                }
+                history.seen = sample;
+            }
+            for (Iterator<ComponentHistory> it = histories.values().iterator(); it.hasNext(); ) {
+                if (it.next().seen != sample) {
+                    it.remove();
+                    changes++;
+                }
+            }
+            // the first sample only finds what was there before
+            changed = !first && changes != previousChanges;
+        }
+        if (changed) {
+            listener.componentsChanged();
+        }
+    }
+
+    /** Changes whenever a sample found a difference */
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    /** Time of the first sample, -1 if there was none yet */
+    public synchronized long getFirstSample() {
+        return firstSample;
+    }
+
+    /**
+     * Returns copies of the histories of the configurations that changed their state at least once,
+     * the ones with the most transitions first.
+     */
+    public synchronized List<ComponentHistory> getChangedComponents(int max) {
+        List<ComponentHistory> result = new ArrayList<ComponentHistory>();
+        for (ComponentHistory history : histories.values()) {
+            if (history.getTransitionCount() > 0) {
+                result.add(history.copy());
+            }
+        }
+        Collections.sort(result, MOST_TRANSITIONS_FIRST);
+        return result.size() > max ? new ArrayList<ComponentHistory>(result.subList(0, max)) : result;
+    }
+}
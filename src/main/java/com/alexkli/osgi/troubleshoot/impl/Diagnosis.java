@@ -0,0 +1,72 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Complete, immutable result of one analysis run of the {@link DiagnosisEngine}.
+ */
+public class Diagnosis {
+
+    private final FrameworkSnapshot snapshot;
+    private final List<BundleDiagnosis> bundles;
+    private final RootCauses rootCauses;
+    private final ComponentDiagnosis components;
+    private final long timestamp;
+    private final long generation;
+
+    Diagnosis(long generation, FrameworkSnapshot snapshot, List<BundleDiagnosis> bundles, ComponentDiagnosis components) {
+        this.generation = generation;
+        this.snapshot = snapshot;
+        this.bundles = Collections.unmodifiableList(bundles);
+        this.rootCauses = RootCauses.analyze(snapshot, bundles);
+        this.components = components;
+        this.timestamp = snapshot.getTimestamp();
+    }
+
+    public FrameworkSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Diagnoses of all problematic bundles in bundle order */
+    public List<BundleDiagnosis> getBundles() {
+        return bundles;
+    }
+
+    /** Which of the {@link #getBundles() problematic bundles} block the others */
+    public RootCauses getRootCauses() {
+        return rootCauses;
+    }
+
+    public ComponentDiagnosis getComponents() {
+        return components;
+    }
+
+    /** Time the analysis started, i.e. the state of the framework it reflects */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** The {@link DiagnosisEngine#getGeneration() framework generation} this diagnosis reflects */
+    public long getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,260 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps an up to date {@link Diagnosis} in the background.
+ *
+ * Bundle, service and framework events, as well as component state changes found by the
+ * {@link ComponentStateSampler}, only mark the diagnosis as outdated. It is recomputed
+ * on a separate thread once no event arrived for the debounce time, or at the latest after
+ * ten times the debounce time during a continuous burst (e.g. at startup). Requests just pick
+ * up the latest published result.
+ *
+ * Every event also increments the framework generation, so a diagnosis of the same generation
+ * is known to be still up to date without asking the framework.
+ *
+ * Service property changes (MODIFIED) are ignored: they are frequent, e.g. with configuration
+ * updates, and the diagnosis only depends on which services exist. References whose target
+ * filter starts or stops matching change the component state, which the sampler notices.
+ */
+public class DiagnosisEngine implements BundleListener, ServiceListener, FrameworkListener {
+
+    private static final int MAX_DELAY_FACTOR = 10;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final BundleContext bundleContext;
+    private final BundleAnalyzer bundleAnalyzer;
+    private final ComponentAnalyzer componentAnalyzer;
+
+    private final long debounceNanos;
+
+    private final ScheduledExecutorService scheduler;
+
+    /** whether a recomputation is scheduled */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** incremented on every relevant event, never decreases */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** distinguishes generations of different activations */
+    private final long startTime = System.currentTimeMillis();
+
+    private volatile long firstEvent;
+    private volatile long lastEvent;
+
+    private volatile Diagnosis latest;
+
+    /** notified whenever a diagnosis is published or the engine stops */
+    private final Object published = new Object();
+
+    private volatile boolean stopped;
+
+    public DiagnosisEngine(BundleContext bundleContext, BundleAnalyzer bundleAnalyzer, ComponentAnalyzer componentAnalyzer,
+                           long debounceMillis) {
+        this.bundleContext = bundleContext;
+        this.bundleAnalyzer = bundleAnalyzer;
+        this.componentAnalyzer = componentAnalyzer;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(debounceMillis, 0));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "osgi-troubleshoot-diagnosis");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        bundleContext.addBundleListener(this);
+        bundleContext.addServiceListener(this);
+        bundleContext.addFrameworkListener(this);
+
+        // initial result in the background as well
+        changed();
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeFrameworkListener(this);
+        bundleContext.removeServiceListener(this);
+        bundleContext.removeBundleListener(this);
+        scheduler.shutdownNow();
+        // the last diagnosis stays, requests that still hold this engine get it instead of a recomputation
+        synchronized (published) {
+            stopped = true;
+            published.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the latest diagnosis. Only computes it on the calling thread if there is none yet,
+     * i.e. right after activation. Once stopped, the last diagnosis is returned as is.
+     * @throws IllegalStateException if the engine was stopped before it had any diagnosis
+     */
+    public Diagnosis getDiagnosis() {
+        Diagnosis diagnosis = latest;
+        if (diagnosis == null) {
+            diagnosis = recompute();
+        }
+        if (diagnosis == null) {
+            throw new IllegalStateException("Diagnosis engine stopped");
+        }
+        return diagnosis;
+    }
+
+    /**
+     * Waits until a diagnosis of a generation other than the given one is published.
+     * @return that diagnosis, the latest one after the timeout, or null if the engine was stopped
+     *         or has no diagnosis yet
+     */
+    public Diagnosis awaitNewer(long generation, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (published) {
+            while (!stopped) {
+                Diagnosis diagnosis = latest;
+                long remaining = deadline - System.nanoTime();
+                if ((diagnosis != null && diagnosis.getGeneration() != generation) || remaining <= 0) {
+                    return diagnosis;
+                }
+                TimeUnit.NANOSECONDS.timedWait(published, remaining);
+            }
+            return null;
+        }
+    }
+
+    /** Current framework generation, changes with every bundle, service (un)registration or framework event */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Marks the diagnosis as outdated after component states changed without a bundle or service
+     * event, e.g. a component without services becoming unsatisfied, or a configuration added.
+     */
+    public void componentsChanged() {
+        changed();
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        changed();
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        if (event.getType() == ServiceEvent.REGISTERED || event.getType() == ServiceEvent.UNREGISTERING) {
+            changed();
+        }
+    }
+
+    @Override
+    public void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED || event.getType() == FrameworkEvent.STARTED) {
+            changed();
+        }
+    }
+
+    private void changed() {
+        generation.incrementAndGet();
+        final long now = System.nanoTime();
+        lastEvent = now;
+        if (scheduled.compareAndSet(false, true)) {
+            firstEvent = now;
+            schedule(debounceNanos);
+        }
+    }
+
+    private void schedule(long delayNanos) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    debounce();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RuntimeException e) {
+            // rejected, shutting down
+            scheduled.set(false);
+        }
+    }
+
+    private void debounce() {
+        final long now = System.nanoTime();
+        final long quiet = now - lastEvent;
+        if (quiet < debounceNanos && now - firstEvent < debounceNanos * MAX_DELAY_FACTOR) {
+            // still busy, wait for the remaining quiet time
+            schedule(debounceNanos - quiet);
+            return;
+        }
+        // events from now on schedule the next run
+        scheduled.set(false);
+        recompute();
+    }
+
+    private synchronized Diagnosis recompute() {
+        if (stopped) {
+            // analyzers and indexes are stopped as well
+            return latest;
+        }
+        try {
+            final long start = System.currentTimeMillis();
+            // read before looking at the framework: later changes will make this diagnosis outdated
+            final long currentGeneration = generation.get();
+            final FrameworkSnapshot snapshot = FrameworkSnapshot.capture(bundleContext.getBundles());
+            Diagnosis diagnosis = new Diagnosis(
+                currentGeneration,
+                snapshot,
+                bundleAnalyzer.analyze(snapshot, bundleAnalyzer.getProblematicBundles(snapshot)),
+                componentAnalyzer.analyze(bundleContext)
+            );
+            latest = diagnosis;
+            synchronized (published) {
+                published.notifyAll();
+            }
+            log.debug("Diagnosis took {} ms", System.currentTimeMillis() - start);
+            return diagnosis;
+        } catch (IllegalStateException e) {
+            // bundle context invalid, we are being stopped
+            log.debug("Diagnosis failed", e);
+            return latest;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Immutable view of all bundles at one point in time.
+ *
+ * Captures state, revision, fragment flag, symbolic name and version of every bundle in a single pass,
+ * so that one rendering only asks the framework once per bundle and all sections agree on
+ * the state even if bundles change in the meantime. Bundles are addressed by their index,
+ * which follows the bundle id order.
+ */
+public class FrameworkSnapshot {
+
+    private static final Comparator<Bundle> BY_ID = new Comparator<Bundle>() {
+        @Override
+        public int compare(Bundle o1, Bundle o2) {
+            return o1.getBundleId() < o2.getBundleId() ? -1 : (o1.getBundleId() == o2.getBundleId() ? 0 : 1);
+        }
+    };
+
+    private final long timestamp;
+
+    private final Bundle[] bundles;
+    private final BundleRevision[] revisions;
+    private final long[] ids;
+    private final int[] states;
+    private final boolean[] fragments;
+    private final String[] symbolicNames;
+    private final Version[] versions;
+
+    private int active, installed, resolved, fragmentsResolved;
+
+    private FrameworkSnapshot(Bundle[] bundles) {
+        this.timestamp = System.currentTimeMillis();
+        this.bundles = bundles;
+        this.revisions = new BundleRevision[bundles.length];
+        this.ids = new long[bundles.length];
+        this.states = new int[bundles.length];
+        this.fragments = new boolean[bundles.length];
+        this.symbolicNames = new String[bundles.length];
+        this.versions = new Version[bundles.length];
+    }
+
+    public static FrameworkSnapshot capture(Bundle[] bundles) {
+        bundles = bundles.clone();
+        Arrays.sort(bundles, BY_ID);
+
+        FrameworkSnapshot snapshot = new FrameworkSnapshot(bundles);
+        for (int i = 0; i < bundles.length; i++) {
+            Bundle bundle = bundles[i];
+            int state = bundle.getState();
+            snapshot.ids[i] = bundle.getBundleId();
+            snapshot.states[i] = state;
+            // null once uninstalled
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            snapshot.revisions[i] = revision;
+            snapshot.fragments[i] = isFragmentBundle(bundle, revision);
+            snapshot.symbolicNames[i] = bundle.getSymbolicName();
+            snapshot.versions[i] = bundle.getVersion();
+            snapshot.count(i);
+        }
+        return snapshot;
+    }
+
+    private void count(int i) {
+        switch (states[i]) {
+            case Bundle.ACTIVE:
+                active++;
+                break;
+            case Bundle.INSTALLED:
+                installed++;
+                break;
+            case Bundle.RESOLVED:
+                if (fragments[i]) {
+                    fragmentsResolved++;
+                } else {
+                    resolved++;
+                }
+                break;
+        }
+    }
+
+    private static boolean isFragmentBundle(Bundle bundle, BundleRevision revision) {
+        if (revision == null) {
+            return bundle.getHeaders().get(Constants.FRAGMENT_HOST) != null;
+        }
+        return (revision.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0;
+    }
+
+    /** Time the snapshot was taken */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int size() {
+        return bundles.length;
+    }
+
+    public int getActiveCount() {
+        return active;
+    }
+
+    public int getInstalledCount() {
+        return installed;
+    }
+
+    /** Resolved bundles that are not fragments */
+    public int getResolvedCount() {
+        return resolved;
+    }
+
+    /** Resolved fragments, which is their final state */
+    public int getFragmentCount() {
+        return fragmentsResolved;
+    }
+
+    /** Returns the index of the bundle with this id, or -1 if the bundle was not present at the time */
+    public int indexOf(long bundleId) {
+        int index = Arrays.binarySearch(ids, bundleId);
+        return index >= 0 ? index : -1;
+    }
+
+    public Bundle getBundle(int index) {
+        return bundles[index];
+    }
+
+    /** The current revision of the bundle, null if it was uninstalled */
+    public BundleRevision getRevision(int index) {
+        return revisions[index];
+    }
+
+    public long getBundleId(int index) {
+        return ids[index];
+    }
+
+    public int getState(int index) {
+        return states[index];
+    }
+
+    public boolean isFragment(int index) {
+        return fragments[index];
+    }
+
+    public String getSymbolicName(int index) {
+        return symbolicNames[index];
+    }
+
+    public Version getVersion(int index) {
+        return versions[index];
+    }
+
+    /** Fragments are fine when resolved, all other bundles need to be active */
+    public boolean isInactive(int index) {
+        if (fragments[index]) {
+            return states[index] != Bundle.RESOLVED;
+        } else {
+            return states[index] != Bundle.ACTIVE;
+        }
+    }
+
+    public String getStatusString(int index) {
+        return getStatusString(states[index], fragments[index]);
+    }
+
+    static String getStatusString(int state, boolean fragment) {
+        switch (state) {
+            case Bundle.INSTALLED:
+                return "Installed";
+            case Bundle.RESOLVED:
+                if (fragment) {
+                    return "Fragment";
+                }
+                return "Resolved";
+            case Bundle.STARTING:
+                return "Starting";
+            case Bundle.ACTIVE:
+                return "Active";
+            case Bundle.STOPPING:
+                return "Stopping";
+            case Bundle.UNINSTALLED:
+                return "Uninstalled";
+            default:
+                return "Unknown: " + state;
+        }
+    }
+}
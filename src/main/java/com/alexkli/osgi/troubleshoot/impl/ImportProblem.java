@@ -0,0 +1,140 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.HostNamespace;
+
+/**
+ * A single reason why a requirement of a bundle is not (or not actively) wired: an imported
+ * package, a required bundle or the host of a fragment.
+ */
+public class ImportProblem {
+
+    public enum Type {
+        /** the exporting bundle exists, but is not active itself - just a chain of dependencies not resolving */
+        DEPENDENCY_NOT_ACTIVE,
+        /** the export (candidate) is below the imported version range */
+        DEPENDENCY_TOO_OLD,
+        /** the export (candidate) is above the imported version range */
+        DEPENDENCY_TOO_NEW,
+        /** no export (candidate) can match, the version range is empty */
+        DIFFERENT_VERSION,
+        /** the export (candidate) is in the version range (or there is none), but differs in other attributes, e.g. bundle-symbolic-name */
+        ATTRIBUTE_MISMATCH,
+        /** nothing exports the package, or provides the required bundle or host */
+        NOT_EXPORTED
+    }
+
+    private final Type type;
+    private final String namespace;
+    private final String name;
+    private final String versionRange;
+
+    private final long exporterId;
+    private final String exporterSymbolicName;
+    private final String exporterStatus;
+    private final Version exportVersion;
+
+    private final boolean candidate;
+    private final boolean closest;
+
+    ImportProblem(Type type, String namespace, String name, String versionRange,
+                  long exporterId, String exporterSymbolicName, String exporterStatus, Version exportVersion,
+                  boolean candidate, boolean closest) {
+        this.type = type;
+        this.namespace = namespace;
+        this.name = name;
+        this.versionRange = versionRange;
+        this.exporterId = exporterId;
+        this.exporterSymbolicName = exporterSymbolicName;
+        this.exporterStatus = exporterStatus;
+        this.exportVersion = exportVersion;
+        this.candidate = candidate;
+        this.closest = closest;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** The namespace of the requirement, osgi.wiring.package, osgi.wiring.bundle or osgi.wiring.host */
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /** Name of the imported package, required bundle or fragment host */
+    public String getName() {
+        return name;
+    }
+
+    /** How the bundle depends on the exporter, e.g. "importing org.example" */
+    public String getRequirementString() {
+        if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
+            return "requiring bundle " + name;
+        } else if (HostNamespace.HOST_NAMESPACE.equals(namespace)) {
+            return "fragment of " + name;
+        }
+        return "importing " + name;
+    }
+
+    /** What is wrong for {@link Type#NOT_EXPORTED} */
+    public String getMissingString() {
+        if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
+            return "required bundle not installed";
+        } else if (HostNamespace.HOST_NAMESPACE.equals(namespace)) {
+            return "fragment host not installed";
+        }
+        return "not exported by any bundle";
+    }
+
+    /** The version range of the requirement, null if there is no version constraint */
+    public String getVersionRange() {
+        return versionRange;
+    }
+
+    /** Id of the exporting bundle, -1 if there is none ({@link Type#NOT_EXPORTED}) */
+    public long getExporterId() {
+        return exporterId;
+    }
+
+    public String getExporterSymbolicName() {
+        return exporterSymbolicName;
+    }
+
+    /** Status of the exporting bundle, only set for {@link Type#DEPENDENCY_NOT_ACTIVE} */
+    public String getExporterStatus() {
+        return exporterStatus;
+    }
+
+    /** Version of the export, only set for version mismatches */
+    public Version getExportVersion() {
+        return exportVersion;
+    }
+
+    /** Whether this is one of several exports of the package (or bundles with the name) */
+    public boolean isCandidate() {
+        return candidate;
+    }
+
+    /** Whether this candidate is the nearest version below or above the imported range */
+    public boolean isClosest() {
+        return closest;
+    }
+}
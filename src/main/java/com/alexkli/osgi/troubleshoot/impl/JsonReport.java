@@ -0,0 +1,199 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.JsonWriter;
+
+/**
+ * Machine readable variant of the troubleshoot page, written straight to the response.
+ */
+public class JsonReport {
+
+    public static final String SECTION_BUNDLES = "bundles";
+    public static final String SECTION_COMPONENTS = "components";
+    public static final String SECTION_FLAPPING = "flapping";
+
+    private final JsonWriter json;
+
+    public JsonReport(PrintWriter out) {
+        this.json = new JsonWriter(out);
+    }
+
+    public void start() {
+        json.object();
+    }
+
+    public void end() {
+        json.endObject();
+    }
+
+    /** Time the diagnosis was taken, in milliseconds since the epoch */
+    public void writeTimestamp(long timestamp) {
+        json.key("timestamp").value(timestamp);
+    }
+
+    public void writeBundles(FrameworkSnapshot snapshot, List<BundleDiagnosis> diagnoses, RootCauses rootCauses) {
+        json.key(SECTION_BUNDLES).object();
+
+        json.key("status").object()
+            .key("total").value(snapshot.size())
+            .key("active").value(snapshot.getActiveCount())
+            .key("fragments").value(snapshot.getFragmentCount())
+            .key("resolved").value(snapshot.getResolvedCount())
+            .key("installed").value(snapshot.getInstalledCount())
+            .endObject();
+
+        json.key("problematic").array();
+        for (int i = 0; i < diagnoses.size(); i++) {
+            writeBundle(snapshot, diagnoses, i, rootCauses);
+        }
+        json.endArray();
+
+        json.endObject();
+    }
+
+    void writeBundle(FrameworkSnapshot snapshot, List<BundleDiagnosis> diagnoses, int position, RootCauses rootCauses) {
+        final BundleDiagnosis diagnosis = diagnoses.get(position);
+        final int index = diagnosis.getIndex();
+        json.object()
+            .key("id").value(snapshot.getBundleId(index))
+            .key("symbolicName").value(snapshot.getSymbolicName(index))
+            .key("version").value(String.valueOf(snapshot.getVersion(index)))
+            .key("state").value(snapshot.getStatusString(index))
+            .key("rootCause").value(rootCauses.isRoot(position));
+
+        // ids of the bundles blocked by this one, or of the root causes blocking it
+        json.key(rootCauses.isRoot(position) ? "blocks" : "blockedBy").array();
+        int[] related = rootCauses.isRoot(position) ? rootCauses.getVictims(position) : rootCauses.getBlockedBy(position);
+        for (int other : related) {
+            json.value(snapshot.getBundleId(diagnoses.get(other).getIndex()));
+        }
+        json.endArray();
+
+        json.key("problems").array();
+        for (ImportProblem problem : diagnosis.getProblems()) {
+            json.object()
+                .key("type").value(problem.getType().name())
+                .key("namespace").value(problem.getNamespace())
+                .key("name").value(problem.getName());
+            if (problem.getVersionRange() != null) {
+                json.key("versionRange").value(problem.getVersionRange());
+            }
+            if (PackageNamespace.PACKAGE_NAMESPACE.equals(problem.getNamespace())) {
+                // kept for readers from before requirements other than imports were analyzed
+                json.key("package").value(problem.getName());
+            }
+            if (problem.getExporterId() >= 0) {
+                json.key("exporter").object()
+                    .key("id").value(problem.getExporterId())
+                    .key("symbolicName").value(problem.getExporterSymbolicName());
+                if (problem.getExporterStatus() != null) {
+                    json.key("state").value(problem.getExporterStatus());
+                }
+                json.endObject();
+            }
+            if (problem.getExportVersion() != null) {
+                json.key("exportVersion").value(problem.getExportVersion().toString())
+                    .key("candidate").value(problem.isCandidate())
+                    .key("closest").value(problem.isClosest());
+            }
+            json.endObject();
+        }
+        json.endArray();
+
+        json.endObject();
+    }
+
+    public void writeComponents(ComponentDiagnosis diagnosis) {
+        json.key(SECTION_COMPONENTS).object();
+
+        json.key("status").object()
+            .key("components").value(diagnosis.getComponents())
+            .key("activeComponents").value(diagnosis.getComponentsWithActiveInstances())
+            .key("activeInstances").value(diagnosis.getTotalInstances())
+            .key("factories").value(diagnosis.getFactories())
+            .key("serviceReferences").value(diagnosis.getServiceReferences())
+            .endObject();
+
+        json.key("missingServices").array();
+        for (MissingService missingService : diagnosis.getMissingServices()) {
+            writeMissingService(missingService);
+        }
+        json.endArray();
+
+        json.key("referenceCycles").array();
+        for (ReferenceCycle referenceCycle : diagnosis.getReferenceCycles()) {
+            json.object();
+            writeComponentList("members", referenceCycle.getMembers());
+            writeComponentList("indirectlyBlockedComponents", referenceCycle.getIndirectlyBlockedComponents());
+            json.endObject();
+        }
+        json.endArray();
+
+        json.endObject();
+    }
+
+    public void writeFlappingServices(List<ServiceChurn> flappingServices, ServiceOriginTracker originTracker) {
+        json.key(SECTION_FLAPPING).array();
+        for (ServiceChurn churn : flappingServices) {
+            json.object()
+                .key("interface").value(churn.getServiceInterface())
+                .key("registrations").value(churn.getRegistrations())
+                .key("unregistrations").value(churn.getUnregistrations())
+                .key("lastBundleId").value(churn.getLastBundleId());
+            json.key("events").object();
+            for (int w = 0; w < ServiceChurnRecorder.WINDOWS.length; w++) {
+                json.key((ServiceChurnRecorder.WINDOWS[w] / 60000) + "m").value(churn.getEvents(w));
+            }
+            json.endObject();
+            json.key("origins").array();
+            for (String origin : originTracker.getOrigins(churn.getServiceInterface())) {
+                json.value(origin);
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    void writeMissingService(MissingService missingService) {
+        json.object()
+            .key("interface").value(missingService.getServiceInterface())
+            .key("problem").value(missingService.getProblem());
+        writeComponentList("blockedComponents", missingService.getBlockedComponents());
+        writeComponentList("indirectlyBlockedComponents", missingService.getIndirectlyBlockedComponents());
+        json.endObject();
+    }
+
+    private void writeComponentList(String key, List<ComponentDescriptionDTO> components) {
+        json.key(key).array();
+        for (ComponentDescriptionDTO component : components) {
+            json.object()
+                .key("name").value(component.name)
+                .key("bundleId").value(component.bundle.id)
+                .endObject();
+        }
+        json.endArray();
+    }
+}
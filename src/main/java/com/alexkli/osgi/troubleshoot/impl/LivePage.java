@@ -0,0 +1,143 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.JsonWriter;
+
+/**
+ * The parts of the troubleshoot page that are updated live: html snippets by element id, and
+ * rows of html in containers, each row with a key and in display order.
+ *
+ * Comparing two of them yields the delta sent to the page, which only contains the snippets
+ * and rows that changed, and the new row order if rows were added, removed or moved.
+ */
+public class LivePage {
+
+    public static final LivePage EMPTY = new LivePage();
+
+    /** element id -> inner html */
+    private final Map<String, String> texts = new LinkedHashMap<String, String>();
+
+    /** container element id -> row key -> row html, in display order */
+    private final Map<String, Map<String, String>> rows = new LinkedHashMap<String, Map<String, String>>();
+
+    public void setText(String id, String html) {
+        texts.put(id, html);
+    }
+
+    public void addRow(String containerId, String key, String html) {
+        Map<String, String> containerRows = rows.get(containerId);
+        if (containerRows == null) {
+            containerRows = new LinkedHashMap<String, String>();
+            rows.put(containerId, containerRows);
+        }
+        containerRows.put(key, html);
+    }
+
+    /** Declares a container, so that it is emptied if it has no rows anymore */
+    public void addContainer(String containerId) {
+        if (!rows.containsKey(containerId)) {
+            rows.put(containerId, new LinkedHashMap<String, String>());
+        }
+    }
+
+    /**
+     * Writes what changed since the previous page as a json object, along with the generation
+     * and age of the diagnosis it reflects.
+     * @return false if nothing changed, in which case nothing was written
+     */
+    public boolean writeDelta(LivePage previous, JsonWriter json, long generation, String age) {
+        Map<String, String> changedTexts = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> text : texts.entrySet()) {
+            if (!text.getValue().equals(previous.texts.get(text.getKey()))) {
+                changedTexts.put(text.getKey(), text.getValue());
+            }
+        }
+
+        Map<String, Map<String, String>> changedRows = new LinkedHashMap<String, Map<String, String>>();
+        Map<String, List<String>> orders = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, Map<String, String>> container : rows.entrySet()) {
+            Map<String, String> previousRows = previous.rows.get(container.getKey());
+            if (previousRows == null) {
+                previousRows = Collections.emptyMap();
+            }
+            Map<String, String> changed = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, String> row : container.getValue().entrySet()) {
+                if (!row.getValue().equals(previousRows.get(row.getKey()))) {
+                    changed.put(row.getKey(), row.getValue());
+                }
+            }
+            if (!changed.isEmpty()) {
+                changedRows.put(container.getKey(), changed);
+            }
+            List<String> order = new ArrayList<String>(container.getValue().keySet());
+            if (!order.equals(new ArrayList<String>(previousRows.keySet())) || previous == EMPTY) {
+                orders.put(container.getKey(), order);
+            }
+        }
+
+        if (changedTexts.isEmpty() && changedRows.isEmpty() && orders.isEmpty()) {
+            return false;
+        }
+
+        json.object();
+        json.key("generation").value(generation);
+        json.key("age").value(age);
+        json.key("texts").object();
+        for (Map.Entry<String, String> text : changedTexts.entrySet()) {
+            json.key(text.getKey()).value(text.getValue());
+        }
+        json.endObject();
+
+        json.key("rows").object();
+        for (String containerId : rows.keySet()) {
+            Map<String, String> changed = changedRows.get(containerId);
+            List<String> order = orders.get(containerId);
+            if (changed == null && order == null) {
+                continue;
+            }
+            json.key(containerId).object();
+            if (changed != null) {
+                json.key("set").object();
+                for (Map.Entry<String, String> row : changed.entrySet()) {
+                    json.key(row.getKey()).value(row.getValue());
+                }
+                json.endObject();
+            }
+            if (order != null) {
+                json.key("order").array();
+                for (String key : order) {
+                    json.value(key);
+                }
+                json.endArray();
+            }
+            json.endObject();
+        }
+        json.endObject();
+
+        json.endObject();
+        return true;
+    }
+}
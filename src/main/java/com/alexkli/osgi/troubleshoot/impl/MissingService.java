@@ -0,0 +1,53 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.List;
+
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+/**
+ * A service referenced by components that is not available, with the components it blocks.
+ */
+public class MissingService extends ComponentBlocker {
+
+    private final String serviceInterface;
+    private final String problem;
+
+    MissingService(String serviceInterface, String problem, List<ComponentDescriptionDTO> blockedComponents,
+                   List<ComponentDescriptionDTO> indirectlyBlockedComponents) {
+        super(blockedComponents, indirectlyBlockedComponents);
+        this.serviceInterface = serviceInterface;
+        this.problem = problem;
+    }
+
+    @Override
+    String getName() {
+        return serviceInterface;
+    }
+
+    public String getServiceInterface() {
+        return serviceInterface;
+    }
+
+    /** Why there is no such service, e.g. "missing required config" */
+    public String getProblem() {
+        return problem;
+    }
+}
@@ -0,0 +1,44 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.List;
+
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+/**
+ * Components that cannot be satisfied because they (transitively) reference each other's services.
+ * The components in the cycle are the directly blocked ones.
+ */
+public class ReferenceCycle extends ComponentBlocker {
+
+    ReferenceCycle(List<ComponentDescriptionDTO> members, List<ComponentDescriptionDTO> indirectlyBlockedComponents) {
+        super(members, indirectlyBlockedComponents);
+    }
+
+    @Override
+    String getName() {
+        return getMembers().get(0).name;
+    }
+
+    /** Components in the cycle, sorted by name */
+    public List<ComponentDescriptionDTO> getMembers() {
+        return getBlockedComponents();
+    }
+}
@@ -0,0 +1,248 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.Graphs;
+
+/**
+ * Separates the problematic bundles that are the root cause of a failure from the ones that
+ * are only inactive because something they import from is inactive.
+ *
+ * The problematic bundles form a graph, with an edge from a bundle to each inactive bundle it
+ * imports from ("dependency not active"). Its strongly connected components (cycles of bundles
+ * importing from each other) are found with Tarjan's algorithm, which also yields them in
+ * reverse topological order. Root causes are all bundles in a component without edges to other
+ * components, or with a problem of their own (e.g. a missing package). Every other bundle is a
+ * victim blocked by the roots it can reach, collected with one bit set per component, which
+ * takes O((bundles + edges) * roots / 64).
+ *
+ * Bundles are addressed by their position in the list of {@link BundleDiagnosis}.
+ */
+public class RootCauses {
+
+    private static final int[] NONE = new int[0];
+
+    /** positions of the root bundles, most blocking first */
+    private final int[] roots;
+
+    /** for each position, the victims blocked by it (empty for victims) */
+    private final int[][] victims;
+
+    /** for each position, the roots blocking it (empty for roots) */
+    private final int[][] blockedBy;
+
+    private RootCauses(int[] roots, int[][] victims, int[][] blockedBy) {
+        this.roots = roots;
+        this.victims = victims;
+        this.blockedBy = blockedBy;
+    }
+
+    public static RootCauses analyze(FrameworkSnapshot snapshot, List<BundleDiagnosis> bundles) {
+        final int n = bundles.size();
+
+        // snapshot index -> position
+        int[] positions = new int[snapshot.size()];
+        Arrays.fill(positions, -1);
+        for (int v = 0; v < n; v++) {
+            positions[bundles.get(v).getIndex()] = v;
+        }
+
+        // adjacency in compressed form: successors of v are edges[edgeStart[v] .. edgeStart[v+1])
+        boolean[] ownProblem = new boolean[n];
+        int[] edgeStart = new int[n + 1];
+        int[] edges = new int[16];
+        int edgeCount = 0;
+        int[] lastTarget = new int[n];
+        Arrays.fill(lastTarget, -1);
+        for (int v = 0; v < n; v++) {
+            edgeStart[v] = edgeCount;
+            for (ImportProblem problem : bundles.get(v).getProblems()) {
+                if (problem.getType() != ImportProblem.Type.DEPENDENCY_NOT_ACTIVE) {
+                    ownProblem[v] = true;
+                    continue;
+                }
+                int exporter = snapshot.indexOf(problem.getExporterId());
+                int w = exporter >= 0 ? positions[exporter] : -1;
+                if (w < 0 || w == v || lastTarget[w] == v) {
+                    // gone, itself or already known
+                    continue;
+                }
+                lastTarget[w] = v;
+                if (edgeCount == edges.length) {
+                    edges = Arrays.copyOf(edges, edgeCount * 2);
+                }
+                edges[edgeCount++] = w;
+            }
+        }
+        edgeStart[n] = edgeCount;
+
+        // strongly connected components, numbered in reverse topological order
+        final int[] component = Graphs.stronglyConnectedComponents(n, edgeStart, edges);
+        final int components = Graphs.componentCount(component);
+
+        // a component is a root if nothing outside blocks it, or if one of its bundles has own problems
+        boolean[] root = new boolean[components];
+        boolean[] outgoing = new boolean[components];
+        for (int v = 0; v < n; v++) {
+            if (ownProblem[v]) {
+                root[component[v]] = true;
+            }
+            for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                if (component[edges[e]] != component[v]) {
+                    outgoing[component[v]] = true;
+                }
+            }
+        }
+        int rootCount = 0;
+        int[] rootNumber = new int[components];
+        for (int c = 0; c < components; c++) {
+            root[c] |= !outgoing[c];
+            rootNumber[c] = root[c] ? rootCount++ : -1;
+        }
+
+        // members of each root component, in bundle order
+        int[] rootMemberStart = new int[rootCount + 1];
+        for (int v = 0; v < n; v++) {
+            if (rootNumber[component[v]] >= 0) {
+                rootMemberStart[rootNumber[component[v]] + 1]++;
+            }
+        }
+        for (int r = 0; r < rootCount; r++) {
+            rootMemberStart[r + 1] += rootMemberStart[r];
+        }
+        int[] rootMembers = new int[rootMemberStart[rootCount]];
+        int[] fill = Arrays.copyOf(rootMemberStart, rootCount);
+        for (int v = 0; v < n; v++) {
+            if (rootNumber[component[v]] >= 0) {
+                rootMembers[fill[rootNumber[component[v]]]++] = v;
+            }
+        }
+
+        // roots reachable from each component
+        final int words = (rootCount + 63) >>> 6;
+        long[][] reachable = new long[components][words];
+        for (int c = 0; c < components; c++) {
+            if (root[c]) {
+                reachable[c][rootNumber[c] >>> 6] |= 1L << rootNumber[c];
+            }
+        }
+        Graphs.reachableMarks(n, edgeStart, edges, component, reachable);
+
+        // victims per root component, in bundle order
+        int[] victimCount = new int[rootCount];
+        for (int v = 0; v < n; v++) {
+            if (!root[component[v]]) {
+                long[] bits = reachable[component[v]];
+                for (int r = 0; r < rootCount; r++) {
+                    if ((bits[r >>> 6] & (1L << r)) != 0) {
+                        victimCount[r]++;
+                    }
+                }
+            }
+        }
+        int[][] rootVictims = new int[rootCount][];
+        int[] victimFill = new int[rootCount];
+        for (int r = 0; r < rootCount; r++) {
+            rootVictims[r] = victimCount[r] == 0 ? NONE : new int[victimCount[r]];
+        }
+        int[][] blockedBy = new int[n][];
+        for (int v = 0; v < n; v++) {
+            if (root[component[v]]) {
+                blockedBy[v] = NONE;
+                continue;
+            }
+            long[] bits = reachable[component[v]];
+            int count = 0;
+            for (int i = 0; i < words; i++) {
+                count += Long.bitCount(bits[i]);
+            }
+            int[] rootsOfVictim = new int[count];
+            count = 0;
+            for (int r = 0; r < rootCount; r++) {
+                if ((bits[r >>> 6] & (1L << r)) != 0) {
+                    rootVictims[r][victimFill[r]++] = v;
+                    // all members of the root component block this bundle
+                    for (int m = rootMemberStart[r]; m < rootMemberStart[r + 1]; m++) {
+                        if (count == rootsOfVictim.length) {
+                            rootsOfVictim = Arrays.copyOf(rootsOfVictim, count * 2);
+                        }
+                        rootsOfVictim[count++] = rootMembers[m];
+                    }
+                }
+            }
+            rootsOfVictim = Arrays.copyOf(rootsOfVictim, count);
+            Arrays.sort(rootsOfVictim);
+            blockedBy[v] = rootsOfVictim;
+        }
+
+        final int[][] victims = new int[n][];
+        int rootBundles = 0;
+        for (int v = 0; v < n; v++) {
+            int r = rootNumber[component[v]];
+            victims[v] = r >= 0 ? rootVictims[r] : NONE;
+            if (r >= 0) {
+                rootBundles++;
+            }
+        }
+
+        // roots sorted by most blocked first, then in bundle order (stable sort)
+        Integer[] order = new Integer[rootBundles];
+        int i = 0;
+        for (int v = 0; v < n; v++) {
+            if (rootNumber[component[v]] >= 0) {
+                order[i++] = v;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return victims[o2].length - victims[o1].length;
+            }
+        });
+        int[] roots = new int[rootBundles];
+        for (i = 0; i < rootBundles; i++) {
+            roots[i] = order[i];
+        }
+
+        return new RootCauses(roots, victims, blockedBy);
+    }
+
+    /** Positions of the root cause bundles, the ones blocking the most bundles first */
+    public int[] getRoots() {
+        return roots;
+    }
+
+    public boolean isRoot(int position) {
+        return blockedBy[position].length == 0;
+    }
+
+    /** Positions of the bundles (transitively) blocked by this root, in bundle order */
+    public int[] getVictims(int position) {
+        return victims[position];
+    }
+
+    /** Positions of the roots blocking this victim, in bundle order */
+    public int[] getBlockedBy(int position) {
+        return blockedBy[position];
+    }
+}
@@ -0,0 +1,73 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+/**
+ * Service events of one service interface within the {@link ServiceChurnRecorder#WINDOWS windows}.
+ */
+public class ServiceChurn {
+
+    private final String serviceInterface;
+    private final int[] events;
+    private final int registrations;
+    private final int unregistrations;
+    private final long lastBundleId;
+
+    ServiceChurn(String serviceInterface, int[] events, int registrations, int unregistrations, long lastBundleId) {
+        this.serviceInterface = serviceInterface;
+        this.events = events;
+        this.registrations = registrations;
+        this.unregistrations = unregistrations;
+        this.lastBundleId = lastBundleId;
+    }
+
+    public String getServiceInterface() {
+        return serviceInterface;
+    }
+
+    /** Number of events (registered, modified, unregistering) in the given window */
+    public int getEvents(int window) {
+        return events[window];
+    }
+
+    /** Events per minute in the given window */
+    public double getRate(int window) {
+        return events[window] * 60000.0 / ServiceChurnRecorder.WINDOWS[window];
+    }
+
+    /** Registrations in the largest window */
+    public int getRegistrations() {
+        return registrations;
+    }
+
+    /** Unregistrations in the largest window */
+    public int getUnregistrations() {
+        return unregistrations;
+    }
+
+    /** Number of times the service went away and came back (or vice versa) in the largest window */
+    public int getCycles() {
+        return Math.min(registrations, unregistrations);
+    }
+
+    /** Bundle that registered the service most recently in the largest window, -1 if none or unknown */
+    public long getLastBundleId() {
+        return lastBundleId;
+    }
+}
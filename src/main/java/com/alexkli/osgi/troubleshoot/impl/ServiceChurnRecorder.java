@@ -0,0 +1,253 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Records service registrations, modifications and unregistrations to find services that
+ * keep coming and going ("flapping").
+ *
+ * Events of all interfaces share one fixed-size ring buffer of primitive arrays, so recording
+ * is cheap and never allocates (except for the first event of a new interface), and the oldest
+ * events are simply overwritten. A single noisy interface can therefore evict the events of all
+ * others, the buffer size should cover the largest window at the expected event rate.
+ */
+public class ServiceChurnRecorder implements ServiceListener {
+
+    /** sliding windows the event counts are computed for */
+    public static final long[] WINDOWS = {
+        TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(15)
+    };
+
+    /** a service is flapping if it was unregistered and registered again that often in the largest window */
+    private static final int MIN_CYCLES = 2;
+
+    private static final byte REGISTERED = 1;
+    private static final byte MODIFIED = 2;
+    private static final byte UNREGISTERING = 3;
+
+    private static final Comparator<ServiceChurn> MOST_CYCLES_FIRST = new Comparator<ServiceChurn>() {
+        @Override
+        public int compare(ServiceChurn o1, ServiceChurn o2) {
+            int diff = o2.getCycles() - o1.getCycles();
+            if (diff == 0) {
+                diff = o2.getEvents(WINDOWS.length - 1) - o1.getEvents(WINDOWS.length - 1);
+            }
+            return diff != 0 ? diff : o1.getServiceInterface().compareTo(o2.getServiceInterface());
+        }
+    };
+
+    // ring buffer, guarded by this
+    private final long[] timestamps;
+    private final int[] interfaceIds;
+    private final byte[] types;
+    private final long[] bundleIds;
+    /** next slot to write */
+    private int head;
+    private int size;
+    /** events recorded since the start, never decreases */
+    private long recorded;
+    /** no later than the actual next expiry, recomputed once it passed */
+    private long nextExpiry = Long.MAX_VALUE;
+
+    // interned interface names
+    private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private String[] names = new String[64];
+
+    public ServiceChurnRecorder(BundleContext bundleContext, int capacity) {
+        timestamps = new long[capacity];
+        interfaceIds = new int[capacity];
+        types = new byte[capacity];
+        bundleIds = new long[capacity];
+        bundleContext.addServiceListener(this);
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeServiceListener(this);
+    }
+
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        final byte type;
+        switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+                type = REGISTERED;
+                break;
+            case ServiceEvent.MODIFIED:
+                type = MODIFIED;
+                break;
+            case ServiceEvent.UNREGISTERING:
+                type = UNREGISTERING;
+                break;
+            default:
+                return;
+        }
+        final long now = System.currentTimeMillis();
+        final ServiceReference<?> ref = event.getServiceReference();
+        final String[] interfaces = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+        final long bundleId = ref.getBundle() == null ? -1 : ref.getBundle().getBundleId();
+        if (interfaces == null) {
+            return;
+        }
+        for (String anInterface : interfaces) {
+            record(now, intern(anInterface), type, bundleId);
+        }
+    }
+
+    private synchronized void record(long timestamp, int interfaceId, byte type, long bundleId) {
+        timestamps[head] = timestamp;
+        interfaceIds[head] = interfaceId;
+        types[head] = type;
+        bundleIds[head] = bundleId;
+        head = (head + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+        recorded++;
+        // the smallest window is the first one a new event leaves
+        nextExpiry = Math.min(nextExpiry, timestamp + WINDOWS[0]);
+    }
+
+    /** Number of events recorded so far, changes with every new event */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Returns the time the next event drops out of one of the {@link #WINDOWS}, i.e. when the
+     * counts change without new events, {@link Long#MAX_VALUE} if none is in a window anymore.
+     * Only scans the buffer once the previous expiry passed.
+     */
+    public synchronized long getNextExpiry() {
+        final long now = System.currentTimeMillis();
+        if (now >= nextExpiry) {
+            nextExpiry = computeNextExpiry(now);
+        }
+        return nextExpiry;
+    }
+
+    private long computeNextExpiry(long now) {
+        long next = Long.MAX_VALUE;
+        // newest to oldest, the last event seen in a window is the first to leave it
+        final long[] oldestInWindow = new long[WINDOWS.length];
+        Arrays.fill(oldestInWindow, -1);
+        for (int i = 0; i < size; i++) {
+            long timestamp = timestamps[(head - 1 - i + timestamps.length) % timestamps.length];
+            if (timestamp < now - WINDOWS[WINDOWS.length - 1]) {
+                break;
+            }
+            for (int w = 0; w < WINDOWS.length; w++) {
+                if (timestamp >= now - WINDOWS[w]) {
+                    oldestInWindow[w] = timestamp;
+                }
+            }
+        }
+        for (int w = 0; w < WINDOWS.length; w++) {
+            if (oldestInWindow[w] >= 0) {
+                next = Math.min(next, oldestInWindow[w] + WINDOWS[w]);
+            }
+        }
+        return next;
+    }
+
+    private int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id == null) {
+                id = ids.size();
+                if (id == names.length) {
+                    names = Arrays.copyOf(names, id * 2);
+                }
+                names[id] = name;
+                ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the services with the most register/unregister cycles in the largest window.
+     * @param max maximum number of services to return
+     */
+    public synchronized List<ServiceChurn> getFlappingServices(int max) {
+        final long now = System.currentTimeMillis();
+        final int interfaces = ids.size();
+        final int[][] events = new int[WINDOWS.length][interfaces];
+        final int[] registrations = new int[interfaces];
+        final int[] unregistrations = new int[interfaces];
+        final long[] lastBundle = new long[interfaces];
+        Arrays.fill(lastBundle, -1);
+
+        // newest to oldest, until outside the largest window
+        final long oldest = now - WINDOWS[WINDOWS.length - 1];
+        for (int i = 0; i < size; i++) {
+            int slot = (head - 1 - i + timestamps.length) % timestamps.length;
+            long timestamp = timestamps[slot];
+            if (timestamp < oldest) {
+                break;
+            }
+            int id = interfaceIds[slot];
+            for (int w = 0; w < WINDOWS.length; w++) {
+                if (timestamp >= now - WINDOWS[w]) {
+                    events[w][id]++;
+                }
+            }
+            if (types[slot] == REGISTERED) {
+                registrations[id]++;
+                if (lastBundle[id] < 0) {
+                    lastBundle[id] = bundleIds[slot];
+                }
+            } else if (types[slot] == UNREGISTERING) {
+                unregistrations[id]++;
+            }
+        }
+
+        List<ServiceChurn> result = new ArrayList<ServiceChurn>();
+        for (int id = 0; id < interfaces; id++) {
+            int cycles = Math.min(registrations[id], unregistrations[id]);
+            if (cycles >= MIN_CYCLES) {
+                int[] counts = new int[WINDOWS.length];
+                for (int w = 0; w < WINDOWS.length; w++) {
+                    counts[w] = events[w][id];
+                }
+                result.add(new ServiceChurn(names[id], counts, registrations[id], unregistrations[id], lastBundle[id]));
+            }
+        }
+        Collections.sort(result, MOST_CYCLES_FIRST);
+        return result.size() > max ? new ArrayList<ServiceChurn>(result.subList(0, max)) : result;
+    }
+}
@@ -19,10 +19,11 @@
 package com.alexkli.osgi.troubleshoot.impl;
 
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -32,25 +33,80 @@ import org.osgi.framework.ServiceReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alexkli.osgi.troubleshoot.impl.utils.CallerFinder;
+
 /**
  * Tracks which packages/classes dynamically register/unregister services.
+ *
+ * Finding the origin means walking the stack, which adds up during a mass deactivation, so
+ * only every n-th event is sampled and each service interface is limited to a number of
+ * captures per minute. Tracking can be switched off completely, which removes the listener.
+ *
+ * Before Java 9 there is no lazy stack walk and every capture builds the full stack trace of
+ * the unregistering thread. To keep that bounded even with many interfaces or without a rate
+ * limit, those captures are additionally limited to {@link #EAGER_CAPTURES_PER_MINUTE} in total.
  */
 public class ServiceOriginTracker implements ServiceListener {
 
+    private static final long RATE_LIMIT_WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    /** max full stack traces per minute, over all interfaces, if the stack can't be walked lazily */
+    static final int EAGER_CAPTURES_PER_MINUTE = 600;
+
     private final Logger log = LoggerFactory.getLogger(getClass());
 
-    private final Map<String, Set<String>> origins = new ConcurrentHashMap<String, Set<String>>();
+    /** concurrent sets, the servlet iterates them while events add to them */
+    private final ConcurrentMap<String, Set<String>> origins = new ConcurrentHashMap<String, Set<String>>();
+
+    /** skip ourselves, then the framework dispatching the event */
+    private final CallerFinder callerFinder = new CallerFinder(
+        ServiceOriginTracker.class.getPackage().getName() + ".",
+        "org.apache.felix.framework."
+    );
+
+    private final BundleContext bundleContext;
+
+    private boolean enabled;
+
+    /** capture every n-th event */
+    private volatile int samplingRate = 1;
 
-    private static String className = ServiceOriginTracker.class.getName();
+    /** max captures per interface and minute, 0 = unlimited */
+    private volatile int rateLimit;
 
-    public ServiceOriginTracker(BundleContext bundleContext) {
-        log.info("Start tracking services");
-        bundleContext.addServiceListener(this);
+    private final AtomicLong events = new AtomicLong();
+
+    private final ConcurrentMap<String, RateLimit> rateLimits = new ConcurrentHashMap<String, RateLimit>();
+
+    private final RateLimit eagerCaptures = new RateLimit();
+
+    public ServiceOriginTracker(BundleContext bundleContext, boolean enabled, int samplingRate, int rateLimit) {
+        this.bundleContext = bundleContext;
+        configure(enabled, samplingRate, rateLimit);
+    }
+
+    /** Changes the settings at runtime, (un)registering the listener as needed */
+    public synchronized void configure(boolean enabled, int samplingRate, int rateLimit) {
+        this.samplingRate = Math.max(samplingRate, 1);
+        this.rateLimit = Math.max(rateLimit, 0);
+        rateLimits.clear();
+
+        if (enabled && !this.enabled) {
+            log.info("Start tracking services (sampling 1/{}, max {} per interface and minute, lazy stack walk: {})",
+                new Object[] { this.samplingRate, this.rateLimit, CallerFinder.isLazy() });
+            if (!CallerFinder.isLazy()) {
+                log.info("Full stack traces limited to {} per minute", EAGER_CAPTURES_PER_MINUTE);
+            }
+            bundleContext.addServiceListener(this);
+        } else if (!enabled && this.enabled) {
+            bundleContext.removeServiceListener(this);
+            log.info("Stopped tracking services");
+        }
+        this.enabled = enabled;
     }
 
     public void stop(BundleContext bundleContext) {
-        bundleContext.removeServiceListener(this);
-        log.info("Stopped tracking services");
+        configure(false, samplingRate, rateLimit);
     }
 
     public Set<String> getOrigins(String serviceInterface) {
@@ -64,57 +120,83 @@ public class ServiceOriginTracker implements ServiceListener {
     @Override
     public void serviceChanged(ServiceEvent event) {
         if (event.getType() == ServiceEvent.UNREGISTERING) {
+            if (events.incrementAndGet() % samplingRate != 0) {
+                return;
+            }
             ServiceReference<?> ref = event.getServiceReference();
 
             String[] interfaces = (String[]) ref.getProperty(Constants.OBJECTCLASS);
-            String origin = getOrigin();
-            synchronized (origins) {
-                for (String anInterface : interfaces) {
-                    log.info("{} -> {}", anInterface, origin);
-                    addToMultiSetMap(origins, anInterface, origin);
-                }
+            if (!acquire(interfaces)) {
+                return;
+            }
+            if (!CallerFinder.isLazy() && !eagerCaptures.acquire(System.currentTimeMillis(), EAGER_CAPTURES_PER_MINUTE)) {
+                return;
+            }
+            String origin = callerFinder.find();
+            if (origin == null) {
+                // only framework frames, nothing to report
+                return;
+            }
+            if (origin.startsWith("org.apache.felix.scr.")) {
+                origin = "scr";
+            }
+            for (String anInterface : interfaces) {
+                log.debug("{} -> {}", anInterface, origin);
+                addToMultiSetMap(origins, anInterface, origin);
             }
         }
     }
 
-    private String getOrigin() {
-        StackTraceElement[] stack = new Throwable().getStackTrace();
-//        for (StackTraceElement stackTraceElement : stack) {
-//            log.info("> {}", stackTraceElement);
-//        }
-        int pos = 0;
-        pos = skip(className, stack, pos);
-        pos = skip("org.apache.felix.framework.", stack, pos);
-        if (pos >= stack.length) {
-            return null;
-        }
-        String origin = stack[pos].getClassName();
-        if (origin.startsWith("org.apache.felix.scr.")) {
-            return "scr";
-//            pos = skip("org.apache.felix.scr.", stack, pos);
-//            if (pos >= stack.length) {
-//                return null;
-//            }
-//            origin = stack[pos].getClassName();
+    /** Whether any of the interfaces is still below its rate limit */
+    private boolean acquire(String[] interfaces) {
+        final int limit = rateLimit;
+        if (limit == 0) {
+            return true;
         }
-        return origin;
-    }
-
-    private int skip(String prefix, StackTraceElement[] stack, int pos) {
-        for (int i = pos; i < stack.length; i++) {
-            if (!stack[i].getClassName().startsWith(prefix)) {
-                return i;
+        final long now = System.currentTimeMillis();
+        boolean acquired = false;
+        for (String anInterface : interfaces) {
+            RateLimit rate = rateLimits.get(anInterface);
+            if (rate == null) {
+                // concurrent events for a new interface share the first one put
+                RateLimit created = new RateLimit();
+                rate = rateLimits.putIfAbsent(anInterface, created);
+                if (rate == null) {
+                    rate = created;
+                }
             }
+            acquired |= rate.acquire(now, limit);
         }
-        return stack.length;
+        return acquired;
     }
 
-    private <K, V> void addToMultiSetMap(Map<K, Set<V>> map, K key, V value) {
+    private <K, V> void addToMultiSetMap(ConcurrentMap<K, Set<V>> map, K key, V value) {
         Set<V> components = map.get(key);
         if (components == null) {
-            components = new HashSet<V>();
-            map.put(key, components);
+            Set<V> created = Collections.newSetFromMap(new ConcurrentHashMap<V, Boolean>());
+            components = map.putIfAbsent(key, created);
+            if (components == null) {
+                components = created;
+            }
         }
         components.add(value);
     }
+
+    /** Fixed one minute window */
+    private static class RateLimit {
+        private long windowStart;
+        private int count;
+
+        synchronized boolean acquire(long now, int limit) {
+            if (now - windowStart >= RATE_LIMIT_WINDOW) {
+                windowStart = now;
+                count = 0;
+            }
+            if (count < limit) {
+                count++;
+                return true;
+            }
+            return false;
+        }
+    }
 }
@@ -0,0 +1,145 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable copy of the records of the {@link StartupProfiler}. All times are milliseconds
+ * since the start of the JVM, records are in the order they began.
+ */
+public class StartupProfile {
+
+    private final long[] bundleIds;
+    private final long[] begins;
+    private final long[] durations;
+    private final boolean[] stops;
+    private final int dropped;
+    private final long recordingStart;
+    private final long ready;
+    private final boolean quietAtStart;
+    private final long frameworkStarted;
+    private final long quietWindow;
+    private final long quietFor;
+
+    StartupProfile(long[] bundleIds, long[] begins, long[] durations, boolean[] stops, int dropped,
+                   long recordingStart, long ready, boolean quietAtStart, long frameworkStarted,
+                   long quietWindow, long quietFor) {
+        this.bundleIds = bundleIds;
+        this.begins = begins;
+        this.durations = durations;
+        this.stops = stops;
+        this.dropped = dropped;
+        this.recordingStart = recordingStart;
+        this.ready = ready;
+        this.quietAtStart = quietAtStart;
+        this.frameworkStarted = frameworkStarted;
+        this.quietWindow = quietWindow;
+        this.quietFor = quietFor;
+    }
+
+    public int size() {
+        return bundleIds.length;
+    }
+
+    public long getBundleId(int i) {
+        return bundleIds[i];
+    }
+
+    public long getBegin(int i) {
+        return begins[i];
+    }
+
+    /** Duration in nanoseconds, -1 if the bundle is still starting or stopping */
+    public long getDuration(int i) {
+        return durations[i];
+    }
+
+    /** Whether the record is a stop rather than a start */
+    public boolean isStop(int i) {
+        return stops[i];
+    }
+
+    /** Number of older records overwritten because the buffer was full */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /** When this plugin started recording, events before are unknown */
+    public long getRecordingStart() {
+        return recordingStart;
+    }
+
+    /** Time of the last bundle event before the framework went quiet, -1 if still busy */
+    public long getTimeToReady() {
+        return ready;
+    }
+
+    /** Whether there was no bundle event at all between the start of recording and the quiet window */
+    public boolean isQuietAtStart() {
+        return quietAtStart;
+    }
+
+    /** Time of the framework STARTED event, -1 if it happened before recording started */
+    public long getFrameworkStarted() {
+        return frameworkStarted;
+    }
+
+    public long getQuietWindow() {
+        return quietWindow;
+    }
+
+    /** Milliseconds since the last bundle event */
+    public long getQuietFor() {
+        return quietFor;
+    }
+
+    /** Indexes of the completed starts, slowest first */
+    public int[] getSlowestStarts(int max) {
+        Integer[] order = new Integer[size()];
+        int count = 0;
+        for (int i = 0; i < size(); i++) {
+            if (!stops[i] && durations[i] >= 0) {
+                order[count++] = i;
+            }
+        }
+        Arrays.sort(order, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long d1 = durations[o1], d2 = durations[o2];
+                return d2 < d1 ? -1 : (d2 == d1 ? 0 : 1);
+            }
+        });
+        int[] result = new int[Math.min(count, max)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+    /** End of the last record, for scaling a timeline */
+    public long getEnd() {
+        long end = recordingStart;
+        for (int i = 0; i < size(); i++) {
+            end = Math.max(end, begins[i] + Math.max(durations[i], 0) / 1000000);
+        }
+        return end;
+    }
+}
@@ -0,0 +1,181 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Records how long each bundle takes to start (STARTING to STARTED) and stop (STOPPING to
+ * STOPPED), to find the slow activators during framework startup.
+ *
+ * As a synchronous listener it is called on the thread starting the bundle, right before and
+ * after the activator, so it measures the activator itself. Records go into a fixed-size ring
+ * buffer of primitive arrays; once it is full, the oldest records are overwritten, so bundles
+ * restarted long after the startup (e.g. by package refreshes) are still recorded.
+ *
+ * The framework is considered ready once no bundle event arrived for the quiet window. This is
+ * detected lazily on the next event or query, no timer is needed.
+ */
+public class StartupProfiler implements SynchronousBundleListener, FrameworkListener {
+
+    public static final int CAPACITY = 8192;
+
+    private static final byte START = 1;
+    private static final byte STOP = 2;
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final long createdMillis = System.currentTimeMillis();
+    private final long createdNanos = System.nanoTime();
+
+    // ring buffer of records, guarded by this
+    private final long[] bundleIds = new long[CAPACITY];
+    private final long[] begins = new long[CAPACITY];
+    /** 0 while still running */
+    private final long[] ends = new long[CAPACITY];
+    private final byte[] kinds = new byte[CAPACITY];
+    /** next slot to write */
+    private int head;
+    private int size;
+    /** records overwritten so far */
+    private int dropped;
+
+    private volatile long quietWindowNanos;
+    private long lastEventNanos = createdNanos;
+    /** time of the last event before the first quiet window, 0 until then */
+    private long readyNanos;
+    private long frameworkStartedNanos;
+
+    public StartupProfiler(BundleContext bundleContext, long quietWindowMillis) {
+        setQuietWindow(quietWindowMillis);
+        bundleContext.addBundleListener(this);
+        bundleContext.addFrameworkListener(this);
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeFrameworkListener(this);
+        bundleContext.removeBundleListener(this);
+    }
+
+    public void setQuietWindow(long quietWindowMillis) {
+        quietWindowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(quietWindowMillis, 1));
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        final long now = System.nanoTime();
+        final long bundleId = event.getBundle().getBundleId();
+        synchronized (this) {
+            checkQuiet(now);
+            lastEventNanos = now;
+            switch (event.getType()) {
+                case BundleEvent.STARTING:
+                    begin(START, bundleId, now);
+                    break;
+                case BundleEvent.STARTED:
+                    end(START, bundleId, now);
+                    break;
+                case BundleEvent.STOPPING:
+                    begin(STOP, bundleId, now);
+                    break;
+                case BundleEvent.STOPPED:
+                    end(STOP, bundleId, now);
+                    break;
+                default:
+                    // installed, resolved etc. only count as activity
+            }
+        }
+    }
+
+    @Override
+    public void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.STARTED) {
+            synchronized (this) {
+                frameworkStartedNanos = System.nanoTime();
+            }
+        }
+    }
+
+    private void checkQuiet(long now) {
+        if (readyNanos == 0 && now - lastEventNanos >= quietWindowNanos) {
+            readyNanos = lastEventNanos;
+        }
+    }
+
+    private void begin(byte kind, long bundleId, long now) {
+        bundleIds[head] = bundleId;
+        begins[head] = now;
+        ends[head] = 0;
+        kinds[head] = kind;
+        head = (head + 1) % CAPACITY;
+        if (size < CAPACITY) {
+            size++;
+        } else {
+            dropped++;
+        }
+    }
+
+    private void end(byte kind, long bundleId, long now) {
+        // the matching begin is almost always among the last few records
+        for (int i = 0; i < size; i++) {
+            int slot = (head - 1 - i + CAPACITY) % CAPACITY;
+            if (bundleIds[slot] == bundleId && kinds[slot] == kind && ends[slot] == 0) {
+                ends[slot] = now;
+                return;
+            }
+        }
+    }
+
+    /** Copies the current records */
+    public synchronized StartupProfile getProfile() {
+        final long now = System.nanoTime();
+        checkQuiet(now);
+
+        // oldest first
+        long[] ids = new long[size];
+        long[] beginMillis = new long[size];
+        long[] durationNanos = new long[size];
+        boolean[] stops = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            int slot = (head - size + i + CAPACITY) % CAPACITY;
+            ids[i] = bundleIds[slot];
+            beginMillis[i] = toMillisSinceJvmStart(begins[slot]);
+            durationNanos[i] = ends[slot] == 0 ? -1 : ends[slot] - begins[slot];
+            stops[i] = kinds[slot] == STOP;
+        }
+        return new StartupProfile(
+            ids, beginMillis, durationNanos, stops, dropped,
+            toMillisSinceJvmStart(createdNanos),
+            readyNanos == 0 ? -1 : toMillisSinceJvmStart(readyNanos),
+            readyNanos == createdNanos,
+            frameworkStartedNanos == 0 ? -1 : toMillisSinceJvmStart(frameworkStartedNanos),
+            TimeUnit.NANOSECONDS.toMillis(quietWindowNanos),
+            TimeUnit.NANOSECONDS.toMillis(now - lastEventNanos));
+    }
+
+    private long toMillisSinceJvmStart(long nanos) {
+        return createdMillis - jvmStartMillis + TimeUnit.NANOSECONDS.toMillis(nanos - createdNanos);
+    }
+}
@@ -0,0 +1,168 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.LineIterator;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The css and js files of this plugin, read once and kept in memory, ready to be served.
+ *
+ * Each file has its license header stripped and is kept both plain and gzipped. The version
+ * is a checksum of the content, so that urls containing it can be cached forever by browsers.
+ */
+public class StaticResources {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticResources.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, Resource> resources;
+
+    private StaticResources(Map<String, Resource> resources) {
+        this.resources = resources;
+    }
+
+    /** Reads all files in the given directories of the bundle */
+    public static StaticResources load(Bundle bundle, String... directories) {
+        Map<String, Resource> resources = new HashMap<String, Resource>();
+        for (String directory : directories) {
+            Enumeration<URL> entries = bundle.findEntries(directory, "*", false);
+            if (entries == null) {
+                continue;
+            }
+            while (entries.hasMoreElements()) {
+                URL url = entries.nextElement();
+                String path = url.getPath();
+                if (path.startsWith("/")) {
+                    path = path.substring(1);
+                }
+                if (path.endsWith("/")) {
+                    // sub directory
+                    continue;
+                }
+                try {
+                    resources.put(path, new Resource(read(url), getContentType(path)));
+                } catch (IOException e) {
+                    log.warn("Cannot read resource {}", path, e);
+                }
+            }
+        }
+        return new StaticResources(Collections.unmodifiableMap(resources));
+    }
+
+    /** Returns the resource with the given path relative to the bundle root, e.g. "css/action.css", or null */
+    public Resource get(String path) {
+        return resources.get(path);
+    }
+
+    /** Reads the file without the leading license comment */
+    private static byte[] read(URL url) throws IOException {
+        InputStream ins = url.openStream();
+        try {
+            StringBuilder builder = new StringBuilder();
+            LineIterator lineIterator = IOUtils.lineIterator(ins, "UTF-8");
+            boolean startComment = true;
+            while (lineIterator.hasNext()) {
+                String line = lineIterator.nextLine();
+                if (startComment) {
+                    String trimmed = line.trim();
+                    if (!trimmed.isEmpty()
+                        && !trimmed.startsWith("/**")
+                        && !trimmed.startsWith("*")) {
+                        startComment = false;
+                    }
+                }
+                if (!startComment) {
+                    builder.append(line).append('\n');
+                }
+            }
+            return builder.toString().getBytes(UTF8);
+        } finally {
+            IOUtils.closeQuietly(ins);
+        }
+    }
+
+    private static String getContentType(String path) {
+        if (path.endsWith(".css")) {
+            return "text/css";
+        } else if (path.endsWith(".js")) {
+            return "application/javascript";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * One preprocessed file.
+     */
+    public static class Resource {
+
+        private final byte[] content;
+        private final byte[] gzipped;
+        private final String contentType;
+        private final String version;
+
+        Resource(byte[] content, String contentType) throws IOException {
+            this.content = content;
+            this.contentType = contentType;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(content);
+            gzip.close();
+            this.gzipped = out.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            this.version = Long.toHexString(crc.getValue());
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /** Changes with the content */
+        public String getVersion() {
+            return version;
+        }
+    }
+}
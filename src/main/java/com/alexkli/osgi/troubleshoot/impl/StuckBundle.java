@@ -0,0 +1,140 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.lang.management.ThreadInfo;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A bundle in STARTING or STOPPING state, with the last capture of the thread running its
+ * activator as taken by the {@link StuckBundleWatchdog}.
+ */
+public class StuckBundle {
+
+    private final long bundleId;
+    private final String symbolicName;
+    private final boolean starting;
+    private final long threadId;
+    private final String threadName;
+    private final long since;
+
+    private volatile List<ThreadCapture> threads = Collections.emptyList();
+    private volatile long captured;
+
+    StuckBundle(long bundleId, String symbolicName, boolean starting, long threadId, String threadName, long since) {
+        this.bundleId = bundleId;
+        this.symbolicName = symbolicName;
+        this.starting = starting;
+        this.threadId = threadId;
+        this.threadName = threadName;
+        this.since = since;
+    }
+
+    void setCapture(List<ThreadCapture> threads, long captured) {
+        this.threads = threads;
+        this.captured = captured;
+    }
+
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    public String getSymbolicName() {
+        return symbolicName;
+    }
+
+    /** Whether the bundle is starting, otherwise stopping */
+    public boolean isStarting() {
+        return starting;
+    }
+
+    /** Thread that fired the STARTING or STOPPING event */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /** When the bundle entered STARTING or STOPPING */
+    public long getSince() {
+        return since;
+    }
+
+    /** When the threads were captured, 0 if not yet */
+    public long getCaptured() {
+        return captured;
+    }
+
+    /** Whether the thread had already terminated at the capture although the bundle is still in transition */
+    public boolean isThreadGone() {
+        return captured != 0 && threads.isEmpty();
+    }
+
+    /** The activator thread followed by the owners of the locks it waits for, empty if not captured */
+    public List<ThreadCapture> getThreads() {
+        return threads;
+    }
+
+    /**
+     * State and stack of one thread.
+     */
+    public static class ThreadCapture {
+
+        private final ThreadInfo info;
+        private final boolean deadlocked;
+
+        ThreadCapture(ThreadInfo info, boolean deadlocked) {
+            this.info = info;
+            this.deadlocked = deadlocked;
+        }
+
+        public String getName() {
+            return info.getThreadName();
+        }
+
+        public long getId() {
+            return info.getThreadId();
+        }
+
+        public Thread.State getState() {
+            return info.getThreadState();
+        }
+
+        /** Lock the thread is blocked on or waiting for, null if none */
+        public String getLockName() {
+            return info.getLockName();
+        }
+
+        /** Owner of that lock, null if none */
+        public String getLockOwnerName() {
+            return info.getLockOwnerName();
+        }
+
+        public boolean isDeadlocked() {
+            return deadlocked;
+        }
+
+        public StackTraceElement[] getStackTrace() {
+            return info.getStackTrace();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notices bundles that stay in STARTING or STOPPING for longer than a threshold and captures
+ * what the thread running their activator is doing.
+ *
+ * As a synchronous listener it learns which thread fires STARTING or STOPPING, which is the
+ * thread that runs the activator (and any component activation it triggers synchronously).
+ * Only the bundles currently in transition are tracked. A periodic check looks at their age,
+ * and only for stuck ones captures the stack of that thread, the chain of lock owners it waits
+ * for and whether they are deadlocked. Page views just read the last capture.
+ */
+public class StuckBundleWatchdog implements SynchronousBundleListener {
+
+    /** maximum number of lock owners followed from the activator thread */
+    private static final int MAX_LOCK_CHAIN = 5;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private final long thresholdMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    /** incremented with every capture */
+    private volatile long captures;
+
+    /** bundles currently starting or stopping, by bundle id */
+    private final Map<Long, StuckBundle> transitions = new ConcurrentHashMap<Long, StuckBundle>();
+
+    public StuckBundleWatchdog(BundleContext bundleContext, long thresholdSeconds) {
+        this.thresholdMillis = TimeUnit.SECONDS.toMillis(Math.max(thresholdSeconds, 1));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "osgi-troubleshoot-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // often enough to notice a stuck bundle soon after the threshold
+        final long period = Math.max(thresholdMillis / 4, 1000);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (RuntimeException e) {
+                    log.debug("Checking for stuck bundles failed", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+
+        bundleContext.addBundleListener(this);
+    }
+
+    public void stop(BundleContext bundleContext) {
+        bundleContext.removeBundleListener(this);
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        final Bundle bundle = event.getBundle();
+        switch (event.getType()) {
+            case BundleEvent.STARTING:
+            case BundleEvent.STOPPING:
+                final Thread thread = Thread.currentThread();
+                transitions.put(bundle.getBundleId(), new StuckBundle(bundle.getBundleId(), bundle.getSymbolicName(),
+                    event.getType() == BundleEvent.STARTING, thread.getId(), thread.getName(), System.currentTimeMillis()));
+                break;
+            case BundleEvent.STARTED:
+            case BundleEvent.STOPPED:
+            case BundleEvent.UNINSTALLED:
+                transitions.remove(bundle.getBundleId());
+                break;
+            default:
+        }
+    }
+
+    /** Returns the stuck bundle if it is in transition for longer than the threshold, null otherwise */
+    public StuckBundle getStuckBundle(long bundleId) {
+        StuckBundle stuckBundle = transitions.get(bundleId);
+        if (stuckBundle == null || System.currentTimeMillis() - stuckBundle.getSince() < thresholdMillis) {
+            return null;
+        }
+        return stuckBundle;
+    }
+
+    /** Changes whenever new threads were captured */
+    public long getCaptures() {
+        return captures;
+    }
+
+    void check() {
+        final long now = System.currentTimeMillis();
+        List<StuckBundle> stuck = null;
+        for (StuckBundle stuckBundle : transitions.values()) {
+            if (now - stuckBundle.getSince() >= thresholdMillis) {
+                if (stuck == null) {
+                    stuck = new ArrayList<StuckBundle>();
+                }
+                stuck.add(stuckBundle);
+            }
+        }
+        if (stuck == null) {
+            return;
+        }
+
+        // once per check, only if something is stuck
+        final long[] deadlocked = threadMXBean.isSynchronizerUsageSupported()
+            ? threadMXBean.findDeadlockedThreads() : threadMXBean.findMonitorDeadlockedThreads();
+        for (StuckBundle stuckBundle : stuck) {
+            final boolean first = stuckBundle.getThreads().isEmpty() && !stuckBundle.isThreadGone();
+            capture(stuckBundle, deadlocked);
+            if (first) {
+                log.warn("Bundle {} ({}) is {} for {} s on thread {}", stuckBundle.getSymbolicName(), stuckBundle.getBundleId(),
+                    stuckBundle.isStarting() ? "starting" : "stopping", (now - stuckBundle.getSince()) / 1000,
+                    stuckBundle.getThreadName());
+            }
+        }
+    }
+
+    private void capture(StuckBundle stuckBundle, long[] deadlocked) {
+        final List<StuckBundle.ThreadCapture> threads = new ArrayList<StuckBundle.ThreadCapture>();
+        long threadId = stuckBundle.getThreadId();
+        // the activator thread, then whoever holds the lock it is waiting for
+        for (int i = 0; i <= MAX_LOCK_CHAIN && threadId >= 0; i++) {
+            ThreadInfo[] infos = threadMXBean.getThreadInfo(new long[] { threadId },
+                threadMXBean.isObjectMonitorUsageSupported(), threadMXBean.isSynchronizerUsageSupported());
+            ThreadInfo info = infos.length == 0 ? null : infos[0];
+            if (info == null) {
+                break;
+            }
+            threads.add(new StuckBundle.ThreadCapture(info, contains(deadlocked, threadId)));
+            threadId = info.getLockOwnerId();
+            if (threadId == stuckBundle.getThreadId()) {
+                // back at the start
+                break;
+            }
+        }
+        stuckBundle.setCapture(Collections.unmodifiableList(threads), System.currentTimeMillis());
+        // only written by the scheduler thread
+        captures++;
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        if (ids != null) {
+            for (long other : ids) {
+                if (other == id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
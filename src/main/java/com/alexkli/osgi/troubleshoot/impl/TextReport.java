@@ -0,0 +1,164 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.List;
+
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+/**
+ * Plain text variant of the troubleshoot page for the configuration status, written straight
+ * to the writer line by line.
+ */
+public class TextReport {
+
+    private static final String INDENT = "  ";
+
+    private final PrintWriter out;
+
+    public TextReport(PrintWriter out) {
+        this.out = out;
+    }
+
+    public void writeTimestamp(long timestamp) {
+        out.print("Diagnosis of ");
+        out.println(new Date(timestamp));
+        out.println();
+    }
+
+    public void writeBundles(FrameworkSnapshot snapshot, List<BundleDiagnosis> diagnoses, RootCauses rootCauses) {
+        out.println("Bundles");
+        out.println("-------");
+        out.printf("%s bundles in total, %s active, %s fragments, %s resolved, %s installed%n",
+            snapshot.size(), snapshot.getActiveCount(), snapshot.getFragmentCount(),
+            snapshot.getResolvedCount(), snapshot.getInstalledCount());
+        out.println();
+        if (diagnoses.isEmpty()) {
+            out.println("All bundles ok.");
+            out.println();
+            return;
+        }
+
+        // root causes first, each followed by the bundles it blocks
+        for (int root : rootCauses.getRoots()) {
+            BundleDiagnosis diagnosis = diagnoses.get(root);
+            writeBundle(snapshot, diagnosis.getIndex(), "");
+            for (ImportProblem problem : diagnosis.getProblems()) {
+                out.print(INDENT);
+                out.print("- ");
+                writeProblem(problem);
+            }
+            int[] victims = rootCauses.getVictims(root);
+            if (victims.length > 0) {
+                out.print(INDENT);
+                out.printf("blocks %s %s:%n", victims.length, victims.length == 1 ? "bundle" : "bundles");
+                for (int victim : victims) {
+                    writeBundle(snapshot, diagnoses.get(victim).getIndex(), INDENT + INDENT);
+                }
+            }
+            out.println();
+        }
+    }
+
+    private void writeBundle(FrameworkSnapshot snapshot, int index, String indent) {
+        out.print(indent);
+        out.printf("%s (%s) %s%n", snapshot.getSymbolicName(index), snapshot.getBundleId(index), snapshot.getStatusString(index));
+    }
+
+    private void writeProblem(ImportProblem problem) {
+        switch (problem.getType()) {
+            case DEPENDENCY_NOT_ACTIVE:
+                out.printf("dependency not active: %s (%s) %s (%s)%n", problem.getExporterSymbolicName(),
+                    problem.getExporterId(), problem.getExporterStatus(), problem.getRequirementString());
+                break;
+            case NOT_EXPORTED:
+                out.printf("%s: %s%n", problem.getMissingString(), problem.getName());
+                break;
+            default:
+                if (problem.isCandidate()) {
+                    out.print("candidate ");
+                }
+                if (problem.getType() == ImportProblem.Type.DEPENDENCY_TOO_OLD) {
+                    out.print("dependency too old: ");
+                } else if (problem.getType() == ImportProblem.Type.DEPENDENCY_TOO_NEW) {
+                    out.print("dependency too new: ");
+                } else if (problem.getType() == ImportProblem.Type.ATTRIBUTE_MISMATCH) {
+                    out.print("dependency with different attributes: ");
+                } else {
+                    out.print("dependency with different version: ");
+                }
+                out.printf("%s (%s) (%s%s but found %s)%s%n", problem.getExporterSymbolicName(),
+                    problem.getExporterId(), problem.getRequirementString(),
+                    problem.getVersionRange() != null ? " " + problem.getVersionRange() : "",
+                    problem.getExportVersion(), problem.isClosest() ? " - closest" : "");
+        }
+    }
+
+    public void writeComponents(ComponentDiagnosis diagnosis) {
+        out.println("Components");
+        out.println("----------");
+        out.printf("%s different components, %s active components, %s active instances, %s factory components, %s service references%n",
+            diagnosis.getComponents(), diagnosis.getComponentsWithActiveInstances(), diagnosis.getTotalInstances(),
+            diagnosis.getFactories(), diagnosis.getServiceReferences());
+        out.println();
+
+        for (ComponentBlocker blocker : diagnosis.getBlockers()) {
+            if (blocker instanceof MissingService) {
+                MissingService missingService = (MissingService) blocker;
+                out.printf("missing service: %s (%s) blocks %s other components%n",
+                    missingService.getServiceInterface(), missingService.getProblem(), blocker.getBlockedCount());
+                writeComponentList(blocker.getBlockedComponents(), "");
+            } else {
+                out.printf("reference cycle between %s components blocks %s other components%n",
+                    blocker.getBlockedComponents().size(), blocker.getIndirectlyBlockedComponents().size());
+                writeComponentList(blocker.getBlockedComponents(), " (in cycle)");
+            }
+            writeComponentList(blocker.getIndirectlyBlockedComponents(), " (indirectly)");
+            out.println();
+        }
+    }
+
+    private void writeComponentList(List<ComponentDescriptionDTO> components, String suffix) {
+        for (ComponentDescriptionDTO component : components) {
+            out.print(INDENT);
+            out.print(component.name);
+            out.println(suffix);
+        }
+    }
+
+    public void writeFlappingServices(List<ServiceChurn> flappingServices, ServiceOriginTracker originTracker) {
+        if (flappingServices.isEmpty()) {
+            return;
+        }
+        out.println("Flapping services");
+        out.println("-----------------");
+        for (ServiceChurn churn : flappingServices) {
+            out.printf("%s went away %s and came back %s times, last registered by bundle %s%n",
+                churn.getServiceInterface(), churn.getUnregistrations(), churn.getRegistrations(), churn.getLastBundleId());
+            for (String origin : originTracker.getOrigins(churn.getServiceInterface())) {
+                out.print(INDENT);
+                out.print("unregistered by ");
+                out.println(origin);
+            }
+        }
+        out.println();
+    }
+}
@@ -19,28 +19,27 @@
 package com.alexkli.osgi.troubleshoot.impl;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintWriter;
-import java.net.URL;
+import java.io.StringWriter;
+import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.InventoryPrinter;
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
@@ -50,53 +49,197 @@ import org.apache.felix.webconsole.WebConsoleConstants;
 import org.apache.felix.webconsole.WebConsoleUtil;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
-import org.osgi.framework.Version;
-import org.osgi.framework.VersionRange;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.runtime.ServiceComponentRuntime;
 import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
 import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
-import org.osgi.service.component.runtime.dto.ReferenceDTO;
-import org.osgi.service.component.runtime.dto.SatisfiedReferenceDTO;
-import org.osgi.service.packageadmin.ExportedPackage;
-import org.osgi.service.packageadmin.PackageAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.alexkli.osgi.troubleshoot.impl.utils.Clause;
-import com.alexkli.osgi.troubleshoot.impl.utils.Parser;
+import com.alexkli.osgi.troubleshoot.impl.utils.JsonWriter;
 
 /**
  * Web console view that helps troubleshooting unresolved bundles and co.
  */
 @Component(immediate = true)
-@Service(value = { Servlet.class })
+@Service(value = { Servlet.class, InventoryPrinter.class })
 @Properties({
     @Property(name=Constants.SERVICE_DESCRIPTION,       value="Web Console OSGi Troubleshoot Plugin"),
     @Property(name=WebConsoleConstants.PLUGIN_LABEL,    value=TroubleshootServlet.LABEL),
     @Property(name=WebConsoleConstants.PLUGIN_TITLE,    value=TroubleshootServlet.TITLE),
-    @Property(name=WebConsoleConstants.PLUGIN_CATEGORY, value=TroubleshootServlet.CATEGORY)
+    @Property(name=WebConsoleConstants.PLUGIN_CATEGORY, value=TroubleshootServlet.CATEGORY),
+    @Property(name=InventoryPrinter.NAME,               value=TroubleshootServlet.LABEL),
+    @Property(name=InventoryPrinter.TITLE,              value=TroubleshootServlet.TITLE),
+    @Property(name=InventoryPrinter.FORMAT,             value={ "TEXT", "JSON" }),
+    @Property(name=TroubleshootServlet.PROP_BUNDLE_CACHE_SIZE, intValue=TroubleshootServlet.DEFAULT_BUNDLE_CACHE_SIZE,
+              label="Bundle cache size", description="Maximum number of bundles whose contained packages are cached"),
+    @Property(name=TroubleshootServlet.PROP_ANALYSIS_POOL_SIZE, intValue=TroubleshootServlet.DEFAULT_ANALYSIS_POOL_SIZE,
+              label="Analysis threads", description="Number of threads analyzing bundles and components in parallel, 1 analyzes sequentially"),
+    @Property(name=TroubleshootServlet.PROP_DIAGNOSIS_DEBOUNCE, intValue=TroubleshootServlet.DEFAULT_DIAGNOSIS_DEBOUNCE,
+              label="Debounce time", description="Milliseconds without bundle, service or framework events before the diagnosis is recomputed in the background"),
+    @Property(name=TroubleshootServlet.PROP_ORIGIN_TRACKING, boolValue=TroubleshootServlet.DEFAULT_ORIGIN_TRACKING,
+              label="Track service origins", description="Record which classes unregister services, can be switched at runtime"),
+    @Property(name=TroubleshootServlet.PROP_ORIGIN_SAMPLING, intValue=TroubleshootServlet.DEFAULT_ORIGIN_SAMPLING,
+              label="Origin sampling rate", description="Only capture the origin of every n-th unregistration, 1 captures all"),
+    @Property(name=TroubleshootServlet.PROP_ORIGIN_RATE_LIMIT, intValue=TroubleshootServlet.DEFAULT_ORIGIN_RATE_LIMIT,
+              label="Origin rate limit", description="Maximum number of origin captures per service interface and minute, 0 for no limit"),
+    @Property(name=TroubleshootServlet.PROP_CHURN_BUFFER_SIZE, intValue=TroubleshootServlet.DEFAULT_CHURN_BUFFER_SIZE,
+              label="Service event buffer size", description="Number of service events kept for detecting flapping services"),
+    @Property(name=TroubleshootServlet.PROP_FLAPPING_SERVICES, intValue=TroubleshootServlet.DEFAULT_FLAPPING_SERVICES,
+              label="Flapping services", description="Maximum number of flapping services listed"),
+    @Property(name=TroubleshootServlet.PROP_START_POOL_SIZE, intValue=TroubleshootServlet.DEFAULT_START_POOL_SIZE,
+              label="Start threads", description="Number of bundles started concurrently by \"Start inactive bundles\""),
+    @Property(name=TroubleshootServlet.PROP_START_TIMEOUT, intValue=TroubleshootServlet.DEFAULT_START_TIMEOUT,
+              label="Start timeout", description="Seconds after which a bundle still starting is left to finish in the background, counted per wave of starts"),
+    @Property(name=TroubleshootServlet.PROP_STARTUP_QUIET_WINDOW, intValue=TroubleshootServlet.DEFAULT_STARTUP_QUIET_WINDOW,
+              label="Startup quiet window", description="Milliseconds without bundle events after which the framework counts as started up"),
+    @Property(name=TroubleshootServlet.PROP_COMPONENT_SAMPLING, intValue=TroubleshootServlet.DEFAULT_COMPONENT_SAMPLING,
+              label="Component sampling interval", description="Seconds between samples of the component states for their history, 0 disables it"),
+    @Property(name=TroubleshootServlet.PROP_STUCK_THRESHOLD, intValue=TroubleshootServlet.DEFAULT_STUCK_THRESHOLD,
+              label="Stuck bundle threshold", description="Seconds a bundle may be starting or stopping before its activator thread is captured")
 })
 @SuppressWarnings("serial")
-public class TroubleshootServlet extends SimpleWebConsolePlugin {
+public class TroubleshootServlet extends SimpleWebConsolePlugin implements InventoryPrinter {
 
     public static final String LABEL = "troubleshoot";
     public static final String TITLE = "Troubleshoot";
     public static final String CATEGORY = "OSGi";
 
-    private final Logger log = LoggerFactory.getLogger(getClass());
+    private static final String ATTR_DIAGNOSIS = TroubleshootServlet.class.getName() + ".diagnosis";
 
-    @Reference
-    private PackageAdmin packageAdmin;
+    private static final String VIEW_STARTUP = "startup";
+
+    private static final String VIEW_DETAIL = "detail";
+
+    private static final String VIEW_EVENTS = "events";
+
+    /** concurrent live streams, each one occupies a request thread */
+    private static final int MAX_EVENT_STREAMS = 8;
+
+    /** comment sent when nothing changed, to notice closed connections */
+    private static final long EVENT_HEARTBEAT_MILLIS = 15000;
+
+    /** minimum time between two deltas, changes in between are sent together */
+    private static final long EVENT_INTERVAL_MILLIS = 1000;
+
+    private static final String ID_BUNDLE_STATUS = "bundle-status";
+    private static final String ID_BUNDLE_ROWS = "bundle-rows";
+    private static final String ID_COMPONENT_STATUS = "component-status";
+    private static final String ID_BLOCKER_ROWS = "blocker-rows";
+
+    /** prefix of the versioned css and js urls, followed by the version and the path */
+    private static final String STATIC_PREFIX = "/" + LABEL + "/static/";
+
+    private static final String STATIC_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private static final int SLOWEST_STARTS = 20;
+
+    /** the newest records shown in the startup timeline, the html gets slow to render beyond */
+    private static final int TIMELINE_ROWS = 500;
+
+    private static final int CHANGED_COMPONENTS = 20;
+
+    private static final int MAX_STUCK_FRAMES = 30;
+
+    static final String PROP_BUNDLE_CACHE_SIZE = "bundle.cache.size";
+    static final int DEFAULT_BUNDLE_CACHE_SIZE = 1000;
+
+    static final String PROP_ANALYSIS_POOL_SIZE = "analysis.pool.size";
+    static final int DEFAULT_ANALYSIS_POOL_SIZE = 4;
+
+    static final String PROP_DIAGNOSIS_DEBOUNCE = "diagnosis.debounce";
+    static final int DEFAULT_DIAGNOSIS_DEBOUNCE = 1000;
+
+    static final String PROP_ORIGIN_TRACKING = "origin.tracking";
+    static final boolean DEFAULT_ORIGIN_TRACKING = true;
+
+    static final String PROP_ORIGIN_SAMPLING = "origin.sampling";
+    static final int DEFAULT_ORIGIN_SAMPLING = 1;
+
+    static final String PROP_ORIGIN_RATE_LIMIT = "origin.rate.limit";
+    static final int DEFAULT_ORIGIN_RATE_LIMIT = 10;
+
+    static final String PROP_CHURN_BUFFER_SIZE = "churn.buffer.size";
+    static final int DEFAULT_CHURN_BUFFER_SIZE = 10000;
+
+    static final String PROP_FLAPPING_SERVICES = "flapping.services";
+    static final int DEFAULT_FLAPPING_SERVICES = 10;
+
+    static final String PROP_START_POOL_SIZE = "start.pool.size";
+    static final int DEFAULT_START_POOL_SIZE = 4;
+
+    static final String PROP_START_TIMEOUT = "start.timeout";
+    static final int DEFAULT_START_TIMEOUT = 30;
+
+    static final String PROP_STARTUP_QUIET_WINDOW = "startup.quiet.window";
+    static final int DEFAULT_STARTUP_QUIET_WINDOW = 10000;
+
+    static final String PROP_COMPONENT_SAMPLING = "component.sampling.interval";
+    static final int DEFAULT_COMPONENT_SAMPLING = 10;
+
+    static final String PROP_STUCK_THRESHOLD = "stuck.threshold";
+    static final int DEFAULT_STUCK_THRESHOLD = 60;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
 
     @Reference
     private ServiceComponentRuntime scr;
 
-    private ServiceOriginTracker serviceOriginTracker;
+    /** the services below are replaced on configuration changes and nulled on deactivation, requests read them once */
+    private volatile StartupProfiler startupProfiler;
+
+    private StaticResources staticResources;
+
+    private volatile StuckBundleWatchdog stuckBundleWatchdog;
+
+    private int stuckThreshold;
+
+    private volatile ServiceOriginTracker serviceOriginTracker;
+
+    private volatile ServiceChurnRecorder serviceChurnRecorder;
+
+    /** null if disabled */
+    private volatile ComponentStateSampler componentStateSampler;
+
+    private int componentSampling;
+
+    /** component states are not covered by framework events, the sampler notices their changes */
+    private final ComponentStateSampler.Listener componentsChanged = new ComponentStateSampler.Listener() {
+        @Override
+        public void componentsChanged() {
+            DiagnosisEngine engine = diagnosisEngine;
+            if (engine != null) {
+                engine.componentsChanged();
+            }
+        }
+    };
+
+    private int churnBufferSize;
+
+    private volatile int flappingServices;
+
+    private final AtomicInteger eventStreams = new AtomicInteger();
+
+    private volatile int startPoolSize;
+
+    private volatile int startTimeout;
+
+    private volatile CapabilityIndex capabilityIndex;
+
+    private volatile BundlePackageCache bundlePackageCache;
+
+    private volatile AnalysisExecutor analysisExecutor;
+
+    private BundleAnalyzer bundleAnalyzer;
+
+    private ComponentAnalyzer componentAnalyzer;
+
+    /** replaced when the analysis settings change, requests read it once */
+    private volatile DiagnosisEngine diagnosisEngine;
+
+    /** bundle cache size, pool size and debounce time the analysis was started with */
+    private int[] analysisSettings;
 
     public TroubleshootServlet() {
         super(LABEL, TITLE, CATEGORY, null);
@@ -105,77 +248,557 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
     @Activate
     public void componentActivate(ComponentContext ctx) {
         BundleContext bundleContext = ctx.getBundleContext();
+        // first, to miss as few bundle starts as possible
+        startupProfiler = new StartupProfiler(bundleContext,
+            getIntProperty(ctx, PROP_STARTUP_QUIET_WINDOW, DEFAULT_STARTUP_QUIET_WINDOW));
+        stuckThreshold = getIntProperty(ctx, PROP_STUCK_THRESHOLD, DEFAULT_STUCK_THRESHOLD);
+        stuckBundleWatchdog = new StuckBundleWatchdog(bundleContext, stuckThreshold);
         activate(bundleContext);
-        serviceOriginTracker = new ServiceOriginTracker(bundleContext);
+        staticResources = StaticResources.load(bundleContext.getBundle(), "css", "js");
+        serviceOriginTracker = new ServiceOriginTracker(bundleContext,
+            getBooleanProperty(ctx, PROP_ORIGIN_TRACKING, DEFAULT_ORIGIN_TRACKING),
+            getIntProperty(ctx, PROP_ORIGIN_SAMPLING, DEFAULT_ORIGIN_SAMPLING),
+            getIntProperty(ctx, PROP_ORIGIN_RATE_LIMIT, DEFAULT_ORIGIN_RATE_LIMIT));
+        churnBufferSize = Math.max(getIntProperty(ctx, PROP_CHURN_BUFFER_SIZE, DEFAULT_CHURN_BUFFER_SIZE), 1);
+        serviceChurnRecorder = new ServiceChurnRecorder(bundleContext, churnBufferSize);
+        flappingServices = getIntProperty(ctx, PROP_FLAPPING_SERVICES, DEFAULT_FLAPPING_SERVICES);
+        startPoolSize = getIntProperty(ctx, PROP_START_POOL_SIZE, DEFAULT_START_POOL_SIZE);
+        startTimeout = getIntProperty(ctx, PROP_START_TIMEOUT, DEFAULT_START_TIMEOUT);
+        componentSampling = getIntProperty(ctx, PROP_COMPONENT_SAMPLING, DEFAULT_COMPONENT_SAMPLING);
+        if (componentSampling > 0) {
+            componentStateSampler = new ComponentStateSampler(scr, componentSampling, componentsChanged);
+        }
+        startAnalysis(bundleContext, getAnalysisSettings(ctx));
+    }
+
+    @Modified
+    public void componentModified(ComponentContext ctx) {
+        startupProfiler.setQuietWindow(getIntProperty(ctx, PROP_STARTUP_QUIET_WINDOW, DEFAULT_STARTUP_QUIET_WINDOW));
+        serviceOriginTracker.configure(
+            getBooleanProperty(ctx, PROP_ORIGIN_TRACKING, DEFAULT_ORIGIN_TRACKING),
+            getIntProperty(ctx, PROP_ORIGIN_SAMPLING, DEFAULT_ORIGIN_SAMPLING),
+            getIntProperty(ctx, PROP_ORIGIN_RATE_LIMIT, DEFAULT_ORIGIN_RATE_LIMIT));
+
+        flappingServices = getIntProperty(ctx, PROP_FLAPPING_SERVICES, DEFAULT_FLAPPING_SERVICES);
+        startPoolSize = getIntProperty(ctx, PROP_START_POOL_SIZE, DEFAULT_START_POOL_SIZE);
+        startTimeout = getIntProperty(ctx, PROP_START_TIMEOUT, DEFAULT_START_TIMEOUT);
+        int bufferSize = Math.max(getIntProperty(ctx, PROP_CHURN_BUFFER_SIZE, DEFAULT_CHURN_BUFFER_SIZE), 1);
+        if (bufferSize != churnBufferSize) {
+            // starts over with an empty history
+            ServiceChurnRecorder old = serviceChurnRecorder;
+            churnBufferSize = bufferSize;
+            serviceChurnRecorder = new ServiceChurnRecorder(ctx.getBundleContext(), bufferSize);
+            old.stop(ctx.getBundleContext());
+        }
+
+        int sampling = getIntProperty(ctx, PROP_COMPONENT_SAMPLING, DEFAULT_COMPONENT_SAMPLING);
+        if (sampling != componentSampling) {
+            // starts over with an empty history
+            ComponentStateSampler old = componentStateSampler;
+            componentSampling = sampling;
+            componentStateSampler = sampling > 0 ? new ComponentStateSampler(scr, sampling, componentsChanged) : null;
+            if (old != null) {
+                old.stop();
+            }
+        }
+
+        int threshold = getIntProperty(ctx, PROP_STUCK_THRESHOLD, DEFAULT_STUCK_THRESHOLD);
+        if (threshold != stuckThreshold) {
+            // bundles already in transition are only tracked again with their next transition
+            StuckBundleWatchdog old = stuckBundleWatchdog;
+            stuckThreshold = threshold;
+            stuckBundleWatchdog = new StuckBundleWatchdog(ctx.getBundleContext(), threshold);
+            old.stop(ctx.getBundleContext());
+        }
+
+        int[] settings = getAnalysisSettings(ctx);
+        if (!Arrays.equals(settings, analysisSettings)) {
+            log.info("Analysis settings changed, restarting analysis");
+            // stopped instances still answer requests that picked them up, until replaced
+            stopAnalysis();
+            startAnalysis(ctx.getBundleContext(), settings);
+        }
     }
 
     @Deactivate
     public void componentDeactivate() {
+        stopAnalysis();
+        diagnosisEngine = null;
+        componentAnalyzer = null;
+        bundleAnalyzer = null;
+        analysisExecutor = null;
+        bundlePackageCache = null;
+        capabilityIndex = null;
+
+        if (componentStateSampler != null) {
+            componentStateSampler.stop();
+            componentStateSampler = null;
+        }
+        serviceChurnRecorder.stop(getBundleContext());
+        serviceChurnRecorder = null;
         serviceOriginTracker.stop(getBundleContext());
         serviceOriginTracker = null;
+        stuckBundleWatchdog.stop(getBundleContext());
+        stuckBundleWatchdog = null;
+        startupProfiler.stop(getBundleContext());
+        startupProfiler = null;
+
+        staticResources = null;
 
         deactivate();
     }
 
+    private static int[] getAnalysisSettings(ComponentContext ctx) {
+        return new int[] {
+            getIntProperty(ctx, PROP_BUNDLE_CACHE_SIZE, DEFAULT_BUNDLE_CACHE_SIZE),
+            getIntProperty(ctx, PROP_ANALYSIS_POOL_SIZE, DEFAULT_ANALYSIS_POOL_SIZE),
+            getIntProperty(ctx, PROP_DIAGNOSIS_DEBOUNCE, DEFAULT_DIAGNOSIS_DEBOUNCE)
+        };
+    }
+
+    private void startAnalysis(BundleContext bundleContext, int[] settings) {
+        analysisSettings = settings;
+        capabilityIndex = new CapabilityIndex(bundleContext);
+        bundlePackageCache = new BundlePackageCache(bundleContext, settings[0]);
+        analysisExecutor = new AnalysisExecutor(settings[1]);
+        bundleAnalyzer = new BundleAnalyzer(capabilityIndex, bundlePackageCache, analysisExecutor);
+        componentAnalyzer = new ComponentAnalyzer(scr, analysisExecutor);
+        diagnosisEngine = new DiagnosisEngine(bundleContext, bundleAnalyzer, componentAnalyzer, settings[2]);
+    }
+
+    private void stopAnalysis() {
+        diagnosisEngine.stop(getBundleContext());
+        analysisExecutor.stop();
+        bundlePackageCache.stop(getBundleContext());
+        capabilityIndex.stop(getBundleContext());
+    }
+
+    private static boolean getBooleanProperty(ComponentContext ctx, String name, boolean defaultValue) {
+        Object value = ctx.getProperties().get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.toString());
+    }
+
+    private static int getIntProperty(ComponentContext ctx, String name, int defaultValue) {
+        Object value = ctx.getProperties().get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     // ----------------------------------------------< main view >---------------------------------
 
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        final String pathInfo = request.getPathInfo();
+        if (pathInfo != null && pathInfo.startsWith(STATIC_PREFIX)) {
+            serveStatic(request, response, pathInfo.substring(STATIC_PREFIX.length()));
+            return;
+        }
+        if (("/" + LABEL + "/" + VIEW_DETAIL).equals(pathInfo)) {
+            renderDetail(request, response);
+            return;
+        }
+        if (("/" + LABEL + "/" + VIEW_EVENTS).equals(pathInfo)) {
+            streamEvents(request, response);
+            return;
+        }
+
+        // troubleshoot.json: machine readable variant without any html, css or js
+        final boolean json = pathInfo != null && pathInfo.endsWith(".json");
+        if (!json && !("/" + LABEL).equals(pathInfo)) {
+            super.doGet(request, response);
+            return;
+        }
+
+        // the same diagnosis for the etag and the content
+        final DiagnosisEngine engine = diagnosisEngine;
+        if (engine == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Being deactivated");
+            return;
+        }
+        final Diagnosis diagnosis = engine.getDiagnosis();
+        final Set<String> sections = getSections(request);
+        final ComponentStateSampler sampler = componentStateSampler;
+        final StuckBundleWatchdog watchdog = stuckBundleWatchdog;
+        final ServiceChurnRecorder churnRecorder = serviceChurnRecorder;
+        final ServiceOriginTracker originTracker = serviceOriginTracker;
+        // the html also shows the component history and stuck bundles, captured independently
+        String variant = json ? sections.toString()
+            : "html-" + (sampler == null ? 0 : sampler.getChanges()) + "-" + (watchdog == null ? 0 : watchdog.getCaptures());
+        final boolean live = !json || sections.contains(JsonReport.SECTION_FLAPPING);
+        if (churnRecorder != null && live) {
+            // flapping counts change with every service event and as the windows slide
+            variant += "-" + churnRecorder.getRecorded() + "-" + churnRecorder.getNextExpiry();
+        }
+        final String etag = getETag(engine, diagnosis, variant);
+
+        response.setHeader("ETag", etag);
+        // the diagnosis timestamp says nothing about the parts captured independently, only the etag does
+        final long lastModified = live ? -1 : diagnosis.getTimestamp();
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (json) {
+            renderJson(response, diagnosis, sections, churnRecorder, originTracker);
+        } else {
+            request.setAttribute(ATTR_DIAGNOSIS, diagnosis);
+            super.doGet(request, response);
+        }
+    }
+
+    /** Weak etag, the page also shows the age of the diagnosis */
+    private static String getETag(DiagnosisEngine engine, Diagnosis diagnosis, String variant) {
+        return "W/\"" + Long.toHexString(engine.getStartTime()) + "-" + diagnosis.getGeneration() +
+               "-" + Integer.toHexString(variant.hashCode()) + "\"";
+    }
+
+    /** @param lastModified -1 if the response only has an etag, If-Modified-Since is not answered then */
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // takes precedence over If-Modified-Since
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals(etag) || tag.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        try {
+            final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            // http dates only have second precision
+            return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        } catch (IllegalArgumentException e) {
+            // invalid date
+            return false;
+        }
+    }
+
     @Override
     protected void renderContent(HttpServletRequest req, HttpServletResponse res) throws ServletException, IOException {
         PrintWriter out = res.getWriter();
 
-        embedStyle(out, "css/troubleshoot.css");
-        embedScript(out, "js/troubleshoot.js");
+        final String appRoot = (String) req.getAttribute(WebConsoleConstants.ATTR_APP_ROOT);
+        includeCSS(out, getStaticUrl(appRoot, "css/troubleshoot.css"));
+        includeScript(out, getStaticUrl(appRoot, "js/troubleshoot.js"));
+
+        final String pluginUrl = appRoot + "/" + LABEL;
+        if (("/" + LABEL + "/" + VIEW_STARTUP).equals(req.getPathInfo())) {
+            handleStartup(req, res, pluginUrl);
+            return;
+        }
+
+        // only format the latest result, computed in the background
+        Diagnosis diagnosis = (Diagnosis) req.getAttribute(ATTR_DIAGNOSIS);
+        if (diagnosis == null) {
+            final DiagnosisEngine engine = diagnosisEngine;
+            if (engine == null) {
+                // being deactivated
+                return;
+            }
+            diagnosis = engine.getDiagnosis();
+        }
+
+        out.print("<div id='troubleshoot-live' data-events='");
+        out.print(pluginUrl + "/" + VIEW_EVENTS);
+        out.print("' data-generation='");
+        out.print(diagnosis.getGeneration());
+        out.println("'></div>");
+
+        out.print("<p class='diagnosis-age'><span class='diagnosis-age-text'>");
+        out.print(getAge(diagnosis.getTimestamp()));
+        out.print("</span> <a href='");
+        out.print(pluginUrl + "/" + VIEW_STARTUP);
+        out.println("'>Startup profile</a></p>");
+
+        handleBundles(req, res, diagnosis);
+
+        handleServices(req, res, diagnosis.getComponents());
+
+        handleFlappingServices(res);
+    }
+
+    private String getAge(long timestamp) {
+        long seconds = Math.max(System.currentTimeMillis() - timestamp, 0) / 1000;
+        if (seconds == 0) {
+            return "Analyzed just now.";
+        } else if (seconds < 120) {
+            return "Analyzed " + seconds + " seconds ago.";
+        } else {
+            return "Analyzed " + (seconds / 60) + " minutes ago.";
+        }
+    }
+
+    /**
+     * Html fragment with the details of one bundle (parameter "bundle", the bundle id) or one
+     * component blocker (parameter "blocker", the missing interface or first cycle member),
+     * from the latest diagnosis. Browsers revalidate it, unchanged details answer 304.
+     */
+    private void renderDetail(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final DiagnosisEngine engine = diagnosisEngine;
+        if (engine == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Being deactivated");
+            return;
+        }
+        final Diagnosis diagnosis = engine.getDiagnosis();
+        final StuckBundleWatchdog watchdog = stuckBundleWatchdog;
+        final String bundleParam = request.getParameter("bundle");
+        final String blockerParam = request.getParameter("blocker");
+
+        final String etag = getETag(engine, diagnosis, "detail-" + bundleParam + "-" + blockerParam + "-" +
+            (watchdog == null ? 0 : watchdog.getCaptures()));
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+        // stuck bundle captures are not covered by the diagnosis timestamp
+        if (isNotModified(request, etag, -1)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType("text/html");
+        response.setCharacterEncoding("UTF-8");
+        final PrintWriter out = response.getWriter();
+        final String bundlesUrl = request.getAttribute(WebConsoleConstants.ATTR_APP_ROOT) + "/bundles";
+
+        if (bundleParam != null) {
+            final FrameworkSnapshot snapshot = diagnosis.getSnapshot();
+            final List<BundleDiagnosis> bundles = diagnosis.getBundles();
+            for (int position = 0; position < bundles.size(); position++) {
+                BundleDiagnosis bundle = bundles.get(position);
+                if (String.valueOf(snapshot.getBundleId(bundle.getIndex())).equals(bundleParam)) {
+                    renderBundleDetail(out, snapshot, bundle,
+                        getVictims(bundles, diagnosis.getRootCauses().getVictims(position)), getStuckBundle(watchdog, snapshot, bundle), bundlesUrl);
+                    return;
+                }
+            }
+        } else if (blockerParam != null) {
+            for (ComponentBlocker blocker : diagnosis.getComponents().getBlockers()) {
+                if (blocker.getName().equals(blockerParam)) {
+                    renderBlockerDetail(out, blocker);
+                    return;
+                }
+            }
+        }
+        out.println("<p class='hint'>No longer a problem, reload the page.</p>");
+    }
+
+    // ----------------------------------------------< live updates >---------------------------------
+
+    /**
+     * Server-sent events stream with the changes of the page, one "delta" event per new diagnosis
+     * that changed anything visible. The "generation" parameter is the one the page was rendered
+     * with; if the diagnosis moved on since, the first event contains all rows.
+     *
+     * Blocks the request thread for as long as the client stays connected, so the number of
+     * concurrent streams is limited.
+     */
+    private void streamEvents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (eventStreams.incrementAndGet() > MAX_EVENT_STREAMS) {
+            eventStreams.decrementAndGet();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many live views");
+            return;
+        }
+        try {
+            response.setContentType("text/event-stream");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            // for proxies that would otherwise buffer the stream
+            response.setHeader("X-Accel-Buffering", "no");
+            final PrintWriter out = response.getWriter();
+            final String appRoot = (String) request.getAttribute(WebConsoleConstants.ATTR_APP_ROOT);
+            final DiagnosisEngine engine = diagnosisEngine;
+            if (engine == null) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Being deactivated");
+                return;
+            }
+
+            long generation = -1;
+            try {
+                generation = Long.parseLong(request.getParameter("generation"));
+            } catch (NumberFormatException e) {
+                // unknown, start with all rows
+            }
+            final Diagnosis current = engine.getDiagnosis();
+            LivePage page = current.getGeneration() == generation ? getLivePage(current, appRoot) : LivePage.EMPTY;
 
-        final Bundle[] bundles = getBundleContext().getBundles();
+            // reconnect after a restart of the analysis, e.g. a configuration change
+            out.print("retry: 5000\n\n");
+            response.flushBuffer();
 
-        handleBundles(req, res, bundles);
+            while (true) {
+                final Diagnosis diagnosis = engine.awaitNewer(generation, EVENT_HEARTBEAT_MILLIS);
+                if (diagnosis == null) {
+                    // stopped, the client reconnects to the new engine
+                    break;
+                }
+                boolean sent = false;
+                if (diagnosis.getGeneration() != generation) {
+                    final LivePage next = getLivePage(diagnosis, appRoot);
+                    final StringWriter delta = new StringWriter();
+                    if (next.writeDelta(page, new JsonWriter(new PrintWriter(delta)), diagnosis.getGeneration(),
+                            getAge(diagnosis.getTimestamp()))) {
+                        out.print("event: delta\ndata: ");
+                        out.print(delta);
+                        out.print("\n\n");
+                        sent = true;
+                    }
+                    page = next;
+                    generation = diagnosis.getGeneration();
+                }
+                if (!sent) {
+                    out.print(": ping\n\n");
+                }
+                response.flushBuffer();
+                if (out.checkError()) {
+                    // client gone
+                    break;
+                }
+                if (sent) {
+                    Thread.sleep(EVENT_INTERVAL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // client gone
+            log.debug("Live view stream closed", e);
+        } finally {
+            eventStreams.decrementAndGet();
+        }
+    }
+
+    /** Renders the live parts of the page for the diagnosis */
+    private LivePage getLivePage(Diagnosis diagnosis, String appRoot) throws IOException {
+        final LivePage page = new LivePage();
+        final FrameworkSnapshot snapshot = diagnosis.getSnapshot();
+        final String bundlesUrl = appRoot + "/bundles";
+        final String detailUrl = appRoot + "/" + LABEL + "/" + VIEW_DETAIL;
+
+        page.setText(ID_BUNDLE_STATUS, getBundleStatusLine(snapshot));
+        page.setText(ID_COMPONENT_STATUS, getServiceStatusLine(diagnosis.getComponents()));
+
+        page.addContainer(ID_BUNDLE_ROWS);
+        final List<BundleDiagnosis> bundles = diagnosis.getBundles();
+        final RootCauses rootCauses = diagnosis.getRootCauses();
+        final StuckBundleWatchdog watchdog = stuckBundleWatchdog;
+        for (int root : rootCauses.getRoots()) {
+            BundleDiagnosis bundle = bundles.get(root);
+            StringWriter html = new StringWriter();
+            renderBundleSummary(new PrintWriter(html), snapshot, bundle, rootCauses.getVictims(root).length,
+                getStuckBundle(watchdog, snapshot, bundle), bundlesUrl, detailUrl);
+            page.addRow(ID_BUNDLE_ROWS, getBundleRowKey(snapshot.getBundleId(bundle.getIndex())), html.toString());
+        }
 
-        handleServices(req, res);
+        page.addContainer(ID_BLOCKER_ROWS);
+        for (ComponentBlocker blocker : diagnosis.getComponents().getBlockers()) {
+            StringWriter html = new StringWriter();
+            renderBlockerSummary(new PrintWriter(html), blocker, detailUrl);
+            page.addRow(ID_BLOCKER_ROWS, getBlockerRowKey(blocker), html.toString());
+        }
+        return page;
     }
 
     // ----------------------------------------------< actions >---------------------------------
 
     @Override
-    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    protected void doPost(HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
         final String action = WebConsoleUtil.getParameter( request, "action" );
         if ("startInactiveBundles".equals(action)) {
             startActionResponse(request, response);
 
-            PrintWriter out = response.getWriter();
-            int bundlesTouched = 0;
-            int bundlesActive = 0;
+            final PrintWriter out = response.getWriter();
 
-            final Bundle[] bundles = getBundleContext().getBundles();
-            for (Bundle bundle : bundles) {
-                if (isFragmentBundle(bundle)) {
-                    continue;
+            final FrameworkSnapshot snapshot = FrameworkSnapshot.capture(getBundleContext().getBundles());
+            final List<Bundle> bundles = new ArrayList<Bundle>();
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (!snapshot.isFragment(i) && (snapshot.getState(i) == Bundle.RESOLVED || snapshot.getState(i) == Bundle.INSTALLED)) {
+                    bundles.add(snapshot.getBundle(i));
                 }
-                if (bundle.getState() == Bundle.RESOLVED || bundle.getState() == Bundle.INSTALLED) {
-                    bundlesTouched++;
+            }
+            final int bundlesTouched = bundles.size();
+
+            final BundleStarter starter = new BundleStarter(getBundleContext(), startPoolSize, startTimeout * 1000L,
+                new BundleStarter.Log() {
+                    @Override
+                    public void resolved(int installed, int resolved) throws IOException {
+                        out.printf("Resolved %s out of %s installed bundles.<br/>", resolved, installed);
+                        flush();
+                    }
 
-                    try {
-                        out.printf("Trying to start %s (%s)... ", bundle.getSymbolicName(), getStatusString(bundle));
-                        response.flushBuffer();
+                    @Override
+                    public void wave(int number, int bundles) throws IOException {
+                        out.printf("<br/><span class='log-end'>Wave %s: starting %s %s</span><br/>",
+                            number, bundles, bundles == 1 ? "bundle" : "bundles");
+                        flush();
+                    }
+
+                    @Override
+                    public void started(Bundle bundle, int previousState, long millis) throws IOException {
+                        logBundle(bundle, previousState);
+                        // the state after starting, not the one of the snapshot
+                        out.printf("<span class='log-ok'>OK: %s.</span> (%s ms)",
+                            FrameworkSnapshot.getStatusString(bundle.getState(), false), millis);
+                        flush();
+                    }
 
-                        bundle.start(Bundle.START_TRANSIENT);
+                    @Override
+                    public void failed(Bundle bundle, int previousState, Exception e, long millis) throws IOException {
+                        logBundle(bundle, previousState);
+                        if (e instanceof IllegalStateException) {
+                            out.printf("<span class='ui-state-error-text'>Failed, state changed:</span> %s", e.getMessage());
+                        } else if (e instanceof SecurityException) {
+                            out.printf("<span class='ui-state-error-text'>Denied:</span> %s", e.getMessage());
+                        } else {
+                            out.printf("<span class='ui-state-error-text'>Failed:</span> %s", e.getMessage());
+                        }
+                        out.printf(" (%s ms)", millis);
+                        flush();
+                    }
 
-                        bundlesActive += 1;
+                    @Override
+                    public void timedOut(Bundle bundle, int previousState, long millis) throws IOException {
+                        logBundle(bundle, previousState);
+                        out.printf("<span class='ui-state-error-text'>Still starting after %s ms</span>, continuing in the background." +
+                            " Check the <a href='status-jstack-threaddump' target='_top'>thread dumps</a>.", millis);
+                        flush();
+                    }
 
-                        out.printf("<span class='log-ok'>OK: %s.</span>", getStatusString(bundle));
+                    @Override
+                    public void notStarted(Bundle bundle, int previousState, long millis) throws IOException {
+                        logBundle(bundle, previousState);
+                        out.printf("<span class='ui-state-error-text'>Not started</span>, still waiting for a thread after %s ms." +
+                            " Other bundles are hanging in their activators.", millis);
+                        flush();
+                    }
 
-                    } catch (BundleException e) {
-                        out.printf("<span class='ui-state-error-text'>Failed:</span> %s", e.getMessage());
-                    } catch (IllegalStateException e) {
-                        out.printf("<span class='ui-state-error-text'>Failed, state changed:</span> %s", e.getMessage());
-                    } catch (SecurityException e) {
-                        out.printf("<span class='ui-state-error-text'>Denied:</span> %s", e.getMessage());
+                    private void logBundle(Bundle bundle, int previousState) {
+                        out.printf("Starting %s (%s)... ", bundle.getSymbolicName(), FrameworkSnapshot.getStatusString(previousState, false));
                     }
 
-                    out.println("<br/>");
-                    insertScrollScript(out);
-                    response.flushBuffer();
-                }
-            }
+                    private void flush() throws IOException {
+                        out.println("<br/>");
+                        insertScrollScript(out);
+                        response.flushBuffer();
+                    }
+                });
+            final int bundlesActive = starter.start(bundles);
 
             out.println("<br/>");
             if (bundlesTouched == 0) {
@@ -199,8 +822,8 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
         includeCSS(out, appRoot + "/res/lib/reset-min.css");
         includeCSS(out, appRoot + "/res/lib/themes/base/jquery-ui.css");
         includeCSS(out, appRoot + getBrandingPlugin().getMainStyleSheet());
-        embedStyle(out, "css/action.css");
-        embedScript(out, "js/action.js");
+        includeCSS(out, getStaticUrl(appRoot, "css/action.css"));
+        includeScript(out, getStaticUrl(appRoot, "js/action.js"));
         out.println("</head>");
 
         out.println("<body class='ui-widget'>");
@@ -217,29 +840,32 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
     }
 
     private void insertScrollScript(PrintWriter out) {
-        embedScript(out, "js/action-scroll.js");
+        // defined in js/action.js
+        out.println("<script type='text/javascript'>scrollLog();</script>");
     }
 
     // ----------------------------------------------< bundles >---------------------------------
 
-    private void handleBundles(HttpServletRequest request, HttpServletResponse response, Bundle[] bundles) throws IOException {
+    private void handleBundles(HttpServletRequest request, HttpServletResponse response, Diagnosis diagnosis) throws IOException {
         PrintWriter out = response.getWriter();
+        final FrameworkSnapshot snapshot = diagnosis.getSnapshot();
 
         out.println("<h2>Bundles</h2>");
 
-        out.println("<p class='statline ui-state-highlight'>");
-        out.println(getBundleStatusLine(bundles));
+        out.print("<p class='statline ui-state-highlight' id='" + ID_BUNDLE_STATUS + "'>");
+        out.println(getBundleStatusLine(snapshot));
         out.println("</p>");
 
-        final List<Bundle> problematicBundles = getProblematicBundles(bundles);
-
-        if (problematicBundles.isEmpty()) {
-            out.println("<div class='all-ok'>All bundles ok.</div>");
-            return;
-        }
+        // all rendered even if empty, the live updates show and hide them
+        final boolean allOk = diagnosis.getBundles().isEmpty();
+        out.print("<div class='all-ok' id='bundles-ok'");
+        out.print(allOk ? "" : " style='display:none'");
+        out.println(">All bundles ok.</div>");
 
         // button + dialog for starting all bundles
-        out.println("<form class='startInactiveBundles' method='post' target='actionLog'>");
+        out.print("<form class='startInactiveBundles' method='post' target='actionLog'");
+        out.print(allOk ? " style='display:none'" : "");
+        out.println(">");
         out.println("    <input type='hidden' name='action' value='startInactiveBundles' />");
         out.println("    <button type='submit'>Start inactive bundles</button>");
         out.println("</form>");
@@ -247,250 +873,242 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
         out.println("   <iframe id='actionLog' name='actionLog' width='100%' height='100%' frameborder='0' marginwidth='0' marginheight='0'></iframe>");
         out.println("</div>");
 
-        out.println("<div>");
+        out.println("<div id='" + ID_BUNDLE_ROWS + "'>");
 
-        final String bundlesUrl = request.getAttribute(WebConsoleConstants.ATTR_APP_ROOT) + "/bundles";
+        final String appRoot = (String) request.getAttribute(WebConsoleConstants.ATTR_APP_ROOT);
+        final String bundlesUrl = appRoot + "/bundles";
+        final String detailUrl = appRoot + "/" + LABEL + "/" + VIEW_DETAIL;
 
-        for (Bundle bundle : problematicBundles) {
-            out.println(getDetailLink(bundle, bundlesUrl));
-            out.println(" ");
-            out.println(getStatusString(bundle));
-            out.println("<br>");
-
-            if (bundle.getState() == Bundle.STOPPING || bundle.getState() == Bundle.STARTING) {
-                out.print("<span class='hint'>If the bundle is ");
-                out.print(bundle.getState() == Bundle.STOPPING ? "stopping" : "starting");
-                out.println(" forever, there might be a deadlock." +
-                    " Check the <a href='status-jstack-threaddump'>thread dumps</a>.</span><br/>");
-            }
-
-            ExportedPackage[] allExports = packageAdmin.getExportedPackages((Bundle) null);
-            // multimap - same package can be exported in multiple versions
-            Map<String, List<ExportedPackage>> globalExportMap = new HashMap<String, List<ExportedPackage>>();
-            for (int j = 0; j < allExports.length; j++) {
-                ExportedPackage exportedPackage = allExports[j];
-                List<ExportedPackage> values = globalExportMap.get(exportedPackage.getName());
-                if (values == null) {
-                    values = new ArrayList<ExportedPackage>();
-                    globalExportMap.put(exportedPackage.getName(), values);
-                }
-                values.add(exportedPackage);
-            }
-
-            Dictionary dict = bundle.getHeaders();
-
-            // go through imports
-            // - other bundle might not be resolved
-            // - something else exports it, but in another (older) version
-            // - nothing exports it
-
-            String importHeader = (String) dict.get(Constants.IMPORT_PACKAGE);
-            Clause[] imports = Parser.parseHeader(importHeader);
-            if (imports != null) {
+        // root causes first, the bundles they block only counted, all details loaded when expanded
+        final List<BundleDiagnosis> bundles = diagnosis.getBundles();
+        final RootCauses rootCauses = diagnosis.getRootCauses();
+        final StuckBundleWatchdog watchdog = stuckBundleWatchdog;
+        for (int root : rootCauses.getRoots()) {
+            BundleDiagnosis bundle = bundles.get(root);
+            renderBundleSummary(out, snapshot, bundle, rootCauses.getVictims(root).length,
+                getStuckBundle(watchdog, snapshot, bundle), bundlesUrl, detailUrl);
+        }
+        out.println("</div>");
+    }
 
-                for (Clause importPkg : imports) {
-                    if (isOptional(importPkg)) {
-                        continue;
-                    }
-                    if (isOwnPackage(bundle, importPkg.getName())) {
-                        continue;
-                    }
+    /** The stuck bundle capture for the diagnosis, null if none or the watchdog is gone */
+    private static StuckBundle getStuckBundle(StuckBundleWatchdog watchdog, FrameworkSnapshot snapshot, BundleDiagnosis diagnosis) {
+        return watchdog == null ? null : watchdog.getStuckBundle(snapshot.getBundleId(diagnosis.getIndex()));
+    }
 
-                    String name = importPkg.getName();
-                    List<ExportedPackage> matchingExports = globalExportMap.get(name);
-                    if (matchingExports != null) {
-                        boolean satisfied = false;
-                        for (ExportedPackage exported : matchingExports) {
-                            if (isSatisfied(importPkg, exported)) {
-                                satisfied = true;
-
-                                Bundle exportingBundle = exported.getExportingBundle();
-                                if (isInactive(exportingBundle)) {
-                                    // not an actual issue, just a chain of dependencies not resolving
-                                    out.print("- dependency not active: ");
-                                    out.print(getDetailLink(exportingBundle, bundlesUrl));
-                                    out.print(" ");
-                                    out.println(getStatusString(exportingBundle));
-                                    out.print(" (importing ");
-                                    out.print(name);
-                                    out.print(")");
-                                    out.println("<br>");
-                                }
-                                break;
-                            }
-                        }
-                        if (!satisfied) {
-                            // here we have export candidates, but in a different version
-                            out.print("<span class='ui-state-error-text'>");
-
-                            String prefix = "";
-                            if (matchingExports.size() > 1) {
-                                prefix = "candidate ";
-                            }
-                            // common case
-                            if (matchingExports.size() == 1) {
-                                for (ExportedPackage export : matchingExports) {
-                                    Version exportVersion = export.getVersion();
-                                    String versionAttr = importPkg.getAttribute(Constants.VERSION_ATTRIBUTE);
-                                    VersionRange importRange = new VersionRange(versionAttr);
-
-                                    out.print("- ");
-                                    out.print(prefix);
-                                    if ((importRange.getLeftType() == VersionRange.LEFT_CLOSED && exportVersion.compareTo(importRange.getLeft()) < 0)
-                                        || (importRange.getLeftType() == VersionRange.LEFT_OPEN && exportVersion.compareTo(importRange.getLeft()) <= 0)) {
-                                        out.print("dependency too old: ");
-                                    } else if ((importRange.getRightType() == VersionRange.RIGHT_CLOSED && exportVersion.compareTo(importRange.getRight()) > 0)
-                                        || (importRange.getRightType() == VersionRange.RIGHT_OPEN && exportVersion.compareTo(importRange.getRight()) >= 0)) {
-                                        out.print("dependency too new: ");
-                                    } else {
-                                        out.print("dependency with different version: ");
-                                    }
-
-                                    out.print(getDetailLink(export.getExportingBundle(), bundlesUrl));
-                                    out.print(" (importing ");
-                                    out.print(name);
-                                    out.print(" ");
-                                    out.print(versionAttr);
-                                    out.print(" but found ");
-                                    out.print(exportVersion.toString());
-                                    out.print(")");
-                                }
-                            }
-                            out.print("</span>");
-                            out.println("<br>");
-                        }
-                    } else {
-                        // not found at all, bundle missing
-                        out.print("<span class='ui-state-error-text'>");
-                        out.print("- not exported by any bundle: ");
-                        out.println(name);
-                        out.print("</span>");
-                        out.println("<br>");
-                    }
-                }
-            }
-            out.println("<br>");
+    private void renderBundleSummary(PrintWriter out, FrameworkSnapshot snapshot, BundleDiagnosis diagnosis,
+                                     int victims, StuckBundle stuckBundle, String bundlesUrl, String detailUrl) {
+        final int index = diagnosis.getIndex();
+        final int state = snapshot.getState(index);
+        final int problems = diagnosis.getProblems().size();
+
+        out.print("<div class='diagnosis-row' data-key='");
+        out.print(getBundleRowKey(snapshot.getBundleId(index)));
+        out.println("'>");
+        out.println("<div class='toggle'>");
+        out.println("<div class='ui-icon ui-icon-triangle-1-e'></div>");
+        out.println(getDetailLink(snapshot.getBundleId(index), snapshot.getSymbolicName(index), bundlesUrl));
+        out.println(" ");
+        out.println(snapshot.getStatusString(index));
+        if (problems > 0) {
+            out.print(" - ");
+            out.print(problems);
+            out.print(problems == 1 ? " import problem" : " import problems");
         }
+        if (victims > 0) {
+            out.print(problems > 0 ? ", blocks " : " - blocks ");
+            out.print(victims);
+            out.print(victims == 1 ? " bundle" : " bundles");
+        }
+        out.println("<br>");
+
+        if (stuckBundle != null && stuckBundle.getCaptured() != 0) {
+            out.print("<span class='ui-state-error-text'>");
+            out.print(stuckBundle.isStarting() ? "Starting" : "Stopping");
+            out.print(" for ");
+            out.print(formatDuration(System.currentTimeMillis() - stuckBundle.getSince()));
+            out.print(" on thread ");
+            out.print(escapeHtml(stuckBundle.getThreadName()));
+            out.println("</span><br/>");
+        } else if (state == Bundle.STOPPING || state == Bundle.STARTING) {
+            out.print("<span class='hint'>If the bundle is ");
+            out.print(state == Bundle.STOPPING ? "stopping" : "starting");
+            out.println(" forever, there might be a deadlock." +
+                " Check the <a href='status-jstack-threaddump'>thread dumps</a>.</span><br/>");
+        }
+
+        renderDetailPlaceholder(out, detailUrl + "?bundle=" + snapshot.getBundleId(index));
+        out.println("</div>");
+        out.println("<br>");
         out.println("</div>");
     }
 
-    /** Check if this bundle exports this package */
-    private boolean isOwnPackage(Bundle bundle, String packageName) {
-        String path = packageName.replace( '.', '/' );
-        return bundle.getEntry( path ) != null;
+    private static String getBundleRowKey(long bundleId) {
+        return "b" + bundleId;
     }
 
-    private String getDetailLink(Bundle bundle, String bundlesUrl) {
-        return "<a href='" + bundlesUrl + '/' + bundle.getBundleId() + "'>" +
-                   bundle.getSymbolicName() + " (" + bundle.getBundleId() + ")" +
-               "</a>";
+    /** Hidden container, troubleshoot.js loads the url into it on first expansion */
+    private void renderDetailPlaceholder(PrintWriter out, String url) {
+        out.print("<div class='toggle-content' style='display:none' data-detail='");
+        out.print(escapeHtml(url));
+        out.println("'></div>");
     }
 
-    private boolean isSatisfied( Clause imported, ExportedPackage exported )
-    {
-        if ( imported.getName().equals( exported.getName() ) )
-        {
-            String versionAttr = imported.getAttribute( Constants.VERSION_ATTRIBUTE );
-            if ( versionAttr == null )
-            {
-                // no specific version required, this export surely satisfies it
-                return true;
-            }
-
-            VersionRange required = new VersionRange(versionAttr);
-            return required.includes( exported.getVersion() );
+    private void renderBundleDetail(PrintWriter out, FrameworkSnapshot snapshot, BundleDiagnosis diagnosis,
+                                    List<BundleDiagnosis> victims, StuckBundle stuckBundle, String bundlesUrl) {
+        if (stuckBundle != null && stuckBundle.getCaptured() != 0) {
+            renderStuckBundle(out, stuckBundle);
         }
 
-        // no this export does not satisfy the import
-        return false;
-    }
+        for (ImportProblem problem : diagnosis.getProblems()) {
+            switch (problem.getType()) {
+                case DEPENDENCY_NOT_ACTIVE:
+                    // not an actual issue, just a chain of dependencies not resolving
+                    out.print("- dependency not active: ");
+                    out.print(getDetailLink(problem.getExporterId(), problem.getExporterSymbolicName(), bundlesUrl));
+                    out.print(" ");
+                    out.println(problem.getExporterStatus());
+                    out.print(" (");
+                    out.print(problem.getRequirementString());
+                    out.print(")");
+                    out.println("<br>");
+                    break;
 
-    private boolean isOptional(Clause clause) {
-        String directive = clause.getDirective(Constants.RESOLUTION_DIRECTIVE);
-        return Constants.RESOLUTION_OPTIONAL.equals(directive);
-    }
+                case NOT_EXPORTED:
+                    // not found at all, bundle missing
+                    out.print("<span class='ui-state-error-text'>");
+                    out.print("- ");
+                    out.print(problem.getMissingString());
+                    out.print(": ");
+                    out.println(problem.getName());
+                    out.print("</span>");
+                    out.println("<br>");
+                    break;
+
+                default:
+                    // here we have export candidates, but in a different version
+                    out.print("<span class='ui-state-error-text'>");
+                    out.print("- ");
+                    if (problem.isCandidate()) {
+                        out.print("candidate ");
+                    }
+                    if (problem.getType() == ImportProblem.Type.DEPENDENCY_TOO_OLD) {
+                        out.print("dependency too old: ");
+                    } else if (problem.getType() == ImportProblem.Type.DEPENDENCY_TOO_NEW) {
+                        out.print("dependency too new: ");
+                    } else if (problem.getType() == ImportProblem.Type.ATTRIBUTE_MISMATCH) {
+                        out.print("dependency with different attributes: ");
+                    } else {
+                        out.print("dependency with different version: ");
+                    }
 
-    private List<Bundle> getProblematicBundles(Bundle[] bundles) {
-        List<Bundle> problemBundles = new ArrayList<Bundle>();
-        for (Bundle bundle : bundles) {
-            if (isInactive(bundle)) {
-                problemBundles.add(bundle);
+                    out.print(getDetailLink(problem.getExporterId(), problem.getExporterSymbolicName(), bundlesUrl));
+                    out.print(" (");
+                    out.print(problem.getRequirementString());
+                    if (problem.getVersionRange() != null) {
+                        out.print(" ");
+                        out.print(problem.getVersionRange());
+                    }
+                    out.print(" but found ");
+                    out.print(problem.getExportVersion().toString());
+                    out.print(")");
+                    if (problem.isClosest()) {
+                        out.print(" - closest");
+                    }
+                    out.print("</span>");
+                    out.println("<br>");
             }
         }
-        return problemBundles;
-    }
 
-    private boolean isInactive(Bundle bundle) {
-        if (isFragmentBundle(bundle)) {
-            return bundle.getState() != Bundle.RESOLVED;
-        } else {
-            return bundle.getState() != Bundle.ACTIVE;
+        if (!victims.isEmpty()) {
+            out.print("<p>blocks ");
+            out.print(victims.size());
+            out.println(victims.size() == 1 ? " bundle:</p>" : " bundles:</p>");
+            for (BundleDiagnosis victim : victims) {
+                out.print("<p class='hint'>");
+                out.print(getDetailLink(snapshot.getBundleId(victim.getIndex()), snapshot.getSymbolicName(victim.getIndex()), bundlesUrl));
+                out.print(" ");
+                out.print(snapshot.getStatusString(victim.getIndex()));
+                out.println("</p>");
+            }
         }
     }
 
-    private boolean isFragmentBundle(Bundle bundle )
-    {
-        // Workaround for FELIX-3670
-        if ( bundle.getState() == Bundle.UNINSTALLED )
-        {
-            return bundle.getHeaders().get( Constants.FRAGMENT_HOST ) != null;
+    private List<BundleDiagnosis> getVictims(List<BundleDiagnosis> bundles, int[] positions) {
+        List<BundleDiagnosis> victims = new ArrayList<BundleDiagnosis>(positions.length);
+        for (int position : positions) {
+            victims.add(bundles.get(position));
         }
-
-        return getPackageAdmin().getBundleType( bundle ) == PackageAdmin.BUNDLE_TYPE_FRAGMENT;
+        return victims;
     }
 
-    private String getStatusString(final Bundle bundle )
-    {
-        switch ( bundle.getState() )
-        {
-            case Bundle.INSTALLED:
-                return "Installed";
-            case Bundle.RESOLVED:
-                if ( isFragmentBundle(bundle) )
-                {
-                    return "Fragment";
+    private void renderStuckBundle(PrintWriter out, StuckBundle stuckBundle) {
+        if (stuckBundle.isThreadGone()) {
+            out.println("<span class='hint'>The thread has terminated, but the bundle did not finish its transition.</span><br/>");
+            return;
+        }
+        out.print("<p>Thread captured ");
+        out.print(formatDuration(System.currentTimeMillis() - stuckBundle.getCaptured()));
+        out.println(" ago (full <a href='status-jstack-threaddump'>thread dumps</a>):</p>");
+        for (StuckBundle.ThreadCapture thread : stuckBundle.getThreads()) {
+            out.print("<pre class='stack'>");
+            if (thread.isDeadlocked()) {
+                out.print("<span class='ui-state-error-text'>DEADLOCKED</span> ");
+            }
+            out.print('"');
+            out.print(escapeHtml(thread.getName()));
+            out.print("\" #");
+            out.print(thread.getId());
+            out.print(" ");
+            out.print(thread.getState());
+            if (thread.getLockName() != null) {
+                out.print(" on ");
+                out.print(escapeHtml(thread.getLockName()));
+                if (thread.getLockOwnerName() != null) {
+                    out.print(" owned by \"");
+                    out.print(escapeHtml(thread.getLockOwnerName()));
+                    out.print('"');
                 }
-                return "Resolved";
-            case Bundle.STARTING:
-                return "Starting";
-            case Bundle.ACTIVE:
-                return "Active";
-            case Bundle.STOPPING:
-                return "Stopping";
-            case Bundle.UNINSTALLED:
-                return "Uninstalled";
-            default:
-                return "Unknown: " + bundle.getState();
+            }
+            out.println();
+            final StackTraceElement[] frames = thread.getStackTrace();
+            for (int i = 0; i < frames.length && i < MAX_STUCK_FRAMES; i++) {
+                out.print("    at ");
+                out.println(escapeHtml(frames[i].toString()));
+            }
+            if (frames.length > MAX_STUCK_FRAMES) {
+                out.print("    ... ");
+                out.print(frames.length - MAX_STUCK_FRAMES);
+                out.println(" more");
+            }
+            out.println("</pre>");
         }
     }
 
-    private String getBundleStatusLine(final Bundle[] bundles)
+    private static String escapeHtml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private String getDetailLink(long bundleId, String symbolicName, String bundlesUrl) {
+        return "<a href='" + bundlesUrl + '/' + bundleId + "'>" +
+                   symbolicName + " (" + bundleId + ")" +
+               "</a>";
+    }
+
+    private String getBundleStatusLine(final FrameworkSnapshot snapshot)
     {
-        int active = 0, installed = 0, resolved = 0, fragments = 0;
-        for (Bundle bundle : bundles) {
-            switch (bundle.getState()) {
-                case Bundle.ACTIVE:
-                    active++;
-                    break;
-                case Bundle.INSTALLED:
-                    installed++;
-                    break;
-                case Bundle.RESOLVED:
-                    if (isFragmentBundle(bundle)) {
-                        fragments++;
-                    } else {
-                        resolved++;
-                    }
-                    break;
-            }
-        }
+        final int total = snapshot.size();
+        final int active = snapshot.getActiveCount();
+        final int installed = snapshot.getInstalledCount();
+        final int resolved = snapshot.getResolvedCount();
+        final int fragments = snapshot.getFragmentCount();
         final StringBuffer buffer = new StringBuffer();
         buffer.append("Bundle information: ");
-        appendBundleInfoCount(buffer, "in total", bundles.length);
-        if ( active == bundles.length || active + fragments == bundles.length )
+        appendBundleInfoCount(buffer, "in total", total);
+        if ( active == total || active + fragments == total )
         {
             buffer.append(" - all ");
-            appendBundleInfoCount(buffer, "active.", bundles.length);
+            appendBundleInfoCount(buffer, "active.", total);
         }
         else
         {
@@ -530,217 +1148,395 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
         buf.append(msg);
     }
 
-    private PackageAdmin getPackageAdmin() {
-        return packageAdmin;
-    }
-
     // ----------------------------------------------< services / components >---------------------------------
 
-    private void handleServices(HttpServletRequest req, HttpServletResponse res) throws IOException {
+    private void handleServices(HttpServletRequest req, HttpServletResponse res, ComponentDiagnosis diagnosis) throws IOException {
         PrintWriter out = res.getWriter();
 
-        final Collection<ComponentDescriptionDTO> allComponents = scr.getComponentDescriptionDTOs();
+        out.println("<h2>Components</h2>");
+        out.print("<p class='statline ui-state-highlight' id='" + ID_COMPONENT_STATUS + "'>");
+        out.println(getServiceStatusLine(diagnosis));
+        out.println("</p>");
 
-        ServiceReference<?>[] allServiceReferences = null;
-        try {
-            allServiceReferences = getBundleContext().getAllServiceReferences(null, null);
-        } catch (InvalidSyntaxException ignore) {
-            // filter is null
+        out.println("<div id='" + ID_BLOCKER_ROWS + "'>");
+
+        final String detailUrl = req.getAttribute(WebConsoleConstants.ATTR_APP_ROOT) + "/" + LABEL + "/" + VIEW_DETAIL;
+        for (ComponentBlocker blocker : diagnosis.getBlockers()) {
+            renderBlockerSummary(out, blocker, detailUrl);
         }
 
-        out.println("<h2>Components</h2>");
-        out.println("<p class='statline ui-state-highlight'>");
-        out.println(getServiceStatusLine(allComponents, allServiceReferences));
-        out.println("</p>");
+        out.println("</div>");
 
-        out.println("<div>");
+        final ComponentStateSampler sampler = componentStateSampler;
+        if (sampler != null) {
+            handleComponentHistory(out, sampler);
+        }
+    }
 
-        // service interface name -> components implementing it
-        Map<String, List<ComponentDescriptionDTO>> serviceImpls = getAvailableServiceImplementations(allComponents);
-        Map<String, List<ComponentDescriptionDTO>> componentsByName = getAvailableComponentsByName(allComponents);
+    private void renderBlockerSummary(PrintWriter out, ComponentBlocker blocker, String detailUrl) throws IOException {
+        out.print("<div class='diagnosis-row' data-key='");
+        out.print(escapeHtml(getBlockerRowKey(blocker)));
+        out.println("'>");
+        out.println("<div class='toggle'>");
+        out.println("<div class='ui-icon ui-icon-triangle-1-e'></div>");
+        if (blocker instanceof MissingService) {
+            MissingService missingService = (MissingService) blocker;
+            out.print("missing service: ");
+            out.print(missingService.getServiceInterface());
+            out.print(" (");
+            out.print(missingService.getProblem());
+            out.print(")");
+            out.print(" blocks ");
+            out.print(blocker.getBlockedCount());
+        } else {
+            out.print("<span class='ui-state-error-text'>reference cycle between ");
+            out.print(blocker.getBlockedComponents().size());
+            out.print(" components</span>");
+            out.print(" blocks ");
+            out.print(blocker.getIndirectlyBlockedComponents().size());
+        }
+        out.println(" other components");
+        out.println("<br>");
+        renderDetailPlaceholder(out, detailUrl + "?blocker=" + URLEncoder.encode(blocker.getName(), "UTF-8"));
+        out.println("</div>");
+        out.println("<br>");
+        out.println("</div>");
+    }
 
-        // service interface name -> components blocked by it
-        Map<String, List<ComponentDescriptionDTO>> missingServices = new HashMap<String, List<ComponentDescriptionDTO>>();
+    private static String getBlockerRowKey(ComponentBlocker blocker) {
+        return (blocker instanceof MissingService ? "s" : "c") + blocker.getName();
+    }
 
-        // find all components that fail to start due to missing service dependencies, group by missing service
-        Iterator allComponentDescriptions = allComponents.iterator();
-        while (allComponentDescriptions.hasNext()) {
-            ComponentDescriptionDTO description = (ComponentDescriptionDTO) allComponentDescriptions.next();
+    private void renderBlockerDetail(PrintWriter out, ComponentBlocker blocker) {
+        for (ComponentDescriptionDTO dependent : blocker.getBlockedComponents()) {
+            out.print("<p>");
+            out.print(dependent.name);
+            out.println("</p>");
+        }
+        for (ComponentDescriptionDTO dependent : blocker.getIndirectlyBlockedComponents()) {
+            out.print("<p class='hint'>");
+            out.print(dependent.name);
+            out.println(" (indirectly)</p>");
+        }
+    }
 
-            collectMissingServices(description, scr, serviceImpls, componentsByName, missingServices);
+    private void handleComponentHistory(PrintWriter out, ComponentStateSampler sampler) {
+        final List<ComponentHistory> changed = sampler.getChangedComponents(CHANGED_COMPONENTS);
+        if (changed.isEmpty()) {
+            return;
         }
+        final long now = System.currentTimeMillis();
 
-        // sort by most blocked components first
-        List<Map.Entry<String, List<ComponentDescriptionDTO>>> list = new ArrayList<Map.Entry<String, List<ComponentDescriptionDTO>>>(missingServices.entrySet());
-        Collections.sort(list, new Comparator<Map.Entry<String, List<ComponentDescriptionDTO>>>() {
-            public int compare(Map.Entry<String, List<ComponentDescriptionDTO>> o1, Map.Entry<String, List<ComponentDescriptionDTO>> o2) {
-                return o2.getValue().size() - o1.getValue().size();
-            }
-        });
-
-        for (Map.Entry<String, List<ComponentDescriptionDTO>> entry : list) {
-            List<ComponentDescriptionDTO> dependents = entry.getValue();
-            // sort alphabetically by component name
-            Collections.sort(dependents, new Comparator<ComponentDescriptionDTO>() {
-                @Override
-                public int compare(ComponentDescriptionDTO o1, ComponentDescriptionDTO o2) {
-                    return o1.name.compareTo(o2.name);
-                }
-            });
+        out.println("<h3>Component state changes</h3>");
+        out.print("<p class='hint'>Sampled since ");
+        out.print(formatDuration(now - sampler.getFirstSample()));
+        out.println(" ago.</p>");
+
+        out.println("<div>");
+        for (ComponentHistory history : changed) {
             out.println("<div class='toggle'>");
             out.println("<div class='ui-icon ui-icon-triangle-1-e'></div>");
-            out.print("missing service: ");
-            out.print(entry.getKey());
-            out.print(" blocks ");
-            out.print(dependents.size());
-            out.println(" other components");
+            out.print(history.getName());
+            out.print(" (");
+            out.print(history.getId());
+            out.print("): ");
+            out.print(history.getState() == ComponentConfigurationDTO.ACTIVE ? "" : "<span class='ui-state-error-text'>");
+            out.print(ComponentHistory.getStateName(history.getState()));
+            out.print(history.getState() == ComponentConfigurationDTO.ACTIVE ? "" : "</span>");
+            out.print(" for ");
+            out.print(formatDuration(now - history.getSince()));
+            out.print(", ");
+            out.print(history.getTransitionCount());
+            out.println(history.getTransitionCount() == 1 ? " transition" : " transitions");
             out.println("<br>");
             out.println("<div class='toggle-content' style='display:none'>");
-            for (ComponentDescriptionDTO dependent : dependents) {
+            // newest first
+            for (int i = history.size() - 1; i >= 0; i--) {
                 out.print("<p>");
-                out.print(dependent.name);
+                out.print(formatDuration(now - history.getTime(i)));
+                out.print(" ago: ");
+                out.print(ComponentHistory.getStateName(history.getFromState(i)));
+                long time = history.getTimeInFromState(i);
+                if (time >= 0) {
+                    out.print(" (for ");
+                    out.print(formatDuration(time));
+                    out.print(")");
+                }
+                out.print(" &rarr; ");
+                out.print(ComponentHistory.getStateName(history.getToState(i)));
                 out.println("</p>");
             }
+            if (history.getTransitionCount() > history.size()) {
+                out.print("<p class='hint'>");
+                out.print(history.getTransitionCount() - history.size());
+                out.println(" older transitions</p>");
+            }
             out.println("</div>");
             out.println("</div>");
             out.println("<br>");
         }
-
         out.println("</div>");
+    }
 
-//        out.println("<h2>Origins</h2>");
+    private static String formatDuration(long millis) {
+        final long seconds = Math.max(millis, 0) / 1000;
+        if (seconds < 120) {
+            return seconds + " s";
+        } else if (seconds < 7200) {
+            return (seconds / 60) + " min";
+        } else {
+            return (seconds / 3600) + " h " + (seconds / 60 % 60) + " min";
+        }
     }
 
-    private String getServiceStatusLine(Collection<ComponentDescriptionDTO> allComponents,
-                                        ServiceReference<?>[] allServiceReferences) {
-        final StringBuilder builder = new StringBuilder();
-        builder.append("Component information: ");
-        builder.append(allComponents.size());
-        builder.append(" different components, ");
-        long componentsWithActiveInstances = 0;
-        long totalInstances = 0;
-        long factories = 0;
-        long totalFactoryInstances = 0;
-        for (ComponentDescriptionDTO component : allComponents) {
-            int count = scr.getComponentConfigurationDTOs(component).size();
-            if (count > 0) {
-                componentsWithActiveInstances += 1;
+    private void handleFlappingServices(HttpServletResponse res) throws IOException {
+        PrintWriter out = res.getWriter();
+
+        // live from the recorder, not part of the diagnosis
+        final ServiceChurnRecorder churnRecorder = serviceChurnRecorder;
+        final ServiceOriginTracker originTracker = serviceOriginTracker;
+        if (churnRecorder == null || originTracker == null) {
+            // being deactivated
+            return;
+        }
+        List<ServiceChurn> flapping = churnRecorder.getFlappingServices(flappingServices);
+        if (flapping.isEmpty()) {
+            return;
+        }
+
+        out.println("<h2>Flapping services</h2>");
+        out.println("<p class='statline ui-state-highlight'>");
+        out.print("Services registered and unregistered repeatedly in the last ");
+        out.print(ServiceChurnRecorder.WINDOWS[ServiceChurnRecorder.WINDOWS.length - 1] / 60000);
+        out.println(" minutes");
+        out.println("</p>");
+
+        out.println("<div>");
+        for (ServiceChurn churn : flapping) {
+            out.println("<div class='toggle'>");
+            out.println("<div class='ui-icon ui-icon-triangle-1-e'></div>");
+            out.print("<span class='ui-state-error-text'>");
+            out.print(churn.getServiceInterface());
+            out.print("</span> went away ");
+            out.print(churn.getUnregistrations());
+            out.print(" and came back ");
+            out.print(churn.getRegistrations());
+            out.print(" times (events per minute:");
+            for (int w = 0; w < ServiceChurnRecorder.WINDOWS.length; w++) {
+                out.printf(" %.1f in last %d min", churn.getRate(w), ServiceChurnRecorder.WINDOWS[w] / 60000);
+                if (w < ServiceChurnRecorder.WINDOWS.length - 1) {
+                    out.print(",");
+                }
             }
-            totalInstances += count;
-            if (component.factory != null) {
-                factories += 1;
-                totalFactoryInstances += count;
+            out.println(")");
+            out.println("<br>");
+            out.println("<div class='toggle-content' style='display:none'>");
+            if (churn.getLastBundleId() >= 0) {
+                out.print("<p>last registered by bundle ");
+                out.print(churn.getLastBundleId());
+                out.println("</p>");
             }
+            for (String origin : originTracker.getOrigins(churn.getServiceInterface())) {
+                out.print("<p class='hint'>unregistered by ");
+                out.print(origin);
+                out.println("</p>");
+            }
+            out.println("</div>");
+            out.println("</div>");
+            out.println("<br>");
         }
-        builder.append(componentsWithActiveInstances);
+        out.println("</div>");
+    }
+
+    private String getServiceStatusLine(ComponentDiagnosis diagnosis) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Component information: ");
+        builder.append(diagnosis.getComponents());
+        builder.append(" different components, ");
+        builder.append(diagnosis.getComponentsWithActiveInstances());
         builder.append(" active components, ");
-        builder.append(totalInstances);
+        builder.append(diagnosis.getTotalInstances());
         builder.append(" active instances, ");
-        builder.append(factories);
+        builder.append(diagnosis.getFactories());
         builder.append(" factory components, ");
-        // is always 0 ???
-//        builder.append(totalFactoryInstances);
-//        builder.append(" total factory instances, ");
-        builder.append(allServiceReferences.length);
+        builder.append(diagnosis.getServiceReferences());
         builder.append(" service references");
         return builder.toString();
     }
 
-    /** Returns a map from service interface name to all active component implementations that provide this interface */
-    private Map<String, List<ComponentDescriptionDTO>> getAvailableServiceImplementations(Iterable<ComponentDescriptionDTO> allComponents) {
-        Map<String, List<ComponentDescriptionDTO>> serviceImpls = new HashMap<String, List<ComponentDescriptionDTO>>();
-
-        Iterator allComponentDescriptions = allComponents.iterator();
-        while (allComponentDescriptions.hasNext()) {
-            ComponentDescriptionDTO description = (ComponentDescriptionDTO) allComponentDescriptions.next();
-//            log.info(description.name);
-//            if (description.name.contains("SharedS3DataStore")) {
-//                log.info(">>>>>>>>>>>>>> name = {}", description.name);
-//                log.info(">>>>>>>>>>>>>> immediate = {}", description.immediate);
-//                log.info(">>>>>>>>>>>>>> implementationClass = {}", description.implementationClass);
-//                log.info(">>>>>>>>>>>>>> factory = {}", description.factory);
-//                log.info(">>>>>>>>>>>>>> serviceInterfaces = {}", description.serviceInterfaces);
-//                log.info(">>>>>>>>>>>>>> configurationPid = {}", description.configurationPid);
-//                log.info(">>>>>>>>>>>>>> configurationPolicy = {}", description.configurationPolicy);
-//            }
-            for (String serviceInterface : description.serviceInterfaces) {
-                addToMultiMap(serviceImpls, serviceInterface, description);
-            }
+    // ----------------------------------------------< startup >---------------------------------
+
+    private void handleStartup(HttpServletRequest req, HttpServletResponse res, String pluginUrl) throws IOException {
+        PrintWriter out = res.getWriter();
+        final StartupProfiler profiler = startupProfiler;
+        if (profiler == null) {
+            // being deactivated
+            return;
         }
-        return serviceImpls;
-    }
-
-    private Map<String, List<ComponentDescriptionDTO>> getAvailableComponentsByName(Iterable<ComponentDescriptionDTO> allComponents) {
-        Map<String, List<ComponentDescriptionDTO>> serviceImpls = new HashMap<String, List<ComponentDescriptionDTO>>();
-
-        Iterator allComponentDescriptions = allComponents.iterator();
-        while (allComponentDescriptions.hasNext()) {
-            ComponentDescriptionDTO description = (ComponentDescriptionDTO) allComponentDescriptions.next();
-            addToMultiMap(serviceImpls, description.name, description);
-        }
-        return serviceImpls;
-    }
-
-    /** collect missing services for instances of this component description */
-    private void collectMissingServices(
-        ComponentDescriptionDTO description,
-        ServiceComponentRuntime scr,
-        Map<String, List<ComponentDescriptionDTO>> serviceImpls,
-        Map<String, List<ComponentDescriptionDTO>> componentsByName,
-        Map<String, List<ComponentDescriptionDTO>> missingServices) {
-        Iterator components = scr.getComponentConfigurationDTOs(description).iterator();
-
-        // first instance is enough
-        if (components.hasNext()) {
-            ComponentConfigurationDTO component = (ComponentConfigurationDTO) components.next();
-//            if (description.name.contains("SalesforceExportProcess")) {
-//                log.info("################ name = {}", description.name);
-//                log.info("################ state = {}", component.state);
-//            }
-
-            for (int i = 0; i < component.description.references.length; i++) {
-                ReferenceDTO reference = component.description.references[i];
-                SatisfiedReferenceDTO satisfiedRef = getSatisfiedReferenceDTO(component, reference.name);
-                if (satisfiedRef == null) {
-                    String serviceInterface = reference.interfaceName;
-
-                    List impls = serviceImpls.get(serviceInterface);
-                    if (impls == null) {
-                        List<ComponentDescriptionDTO> missingComponents = componentsByName.get(serviceInterface);
-                        String problem = "no component instance active";
-                        if (missingComponents == null || missingComponents.isEmpty()) {
-                            // component not even defined (e.g. bundle missing)
-                            problem = "no component definition in active bundles found";
-                        } else {
-                            ComponentDescriptionDTO missingComponentDesc = missingComponents.get(0);
-                            if ("require".equals(missingComponentDesc.configurationPolicy)) {
-                                problem = "missing required config";
-                            }
-                        }
-                        addToMultiMap(missingServices, serviceInterface + " (" + problem + ")", description);
-                    }
-                }
-            }
+        final StartupProfile profile = profiler.getProfile();
+        final String bundlesUrl = req.getAttribute(WebConsoleConstants.ATTR_APP_ROOT) + "/bundles";
+
+        out.print("<p class='diagnosis-age'><a href='");
+        out.print(pluginUrl);
+        out.println("'>Back to diagnosis</a></p>");
+
+        out.println("<h2>Startup</h2>");
+        out.println("<p class='statline ui-state-highlight'>");
+        out.println(getStartupStatusLine(profile));
+        out.println("</p>");
+
+        if (profile.getRecordingStart() > profile.getQuietWindow() && profile.isQuietAtStart()) {
+            out.println("<p class='hint'>The framework was already started when recording began, restart it to profile the startup.</p>");
+        }
+
+        out.println("<h3>Slowest activators</h3>");
+        out.println("<table class='nicetable'>");
+        out.println("<tr><th>Bundle</th><th>Start time</th><th>Started at</th></tr>");
+        for (int i : profile.getSlowestStarts(SLOWEST_STARTS)) {
+            out.print("<tr><td>");
+            out.print(getStartupBundleLink(profile.getBundleId(i), bundlesUrl));
+            out.print("</td><td>");
+            out.print(formatNanos(profile.getDuration(i)));
+            out.print("</td><td>");
+            out.print(formatMillis(profile.getBegin(i)));
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+
+        out.println("<h3>Timeline</h3>");
+        final int first = Math.max(profile.size() - TIMELINE_ROWS, 0);
+        if (first > 0) {
+            out.print("<p class='hint'>Only the last ");
+            out.print(TIMELINE_ROWS);
+            out.println(" starts and stops are shown.</p>");
         }
+        final long origin = first == 0 ? profile.getRecordingStart() : profile.getBegin(first);
+        final double span = Math.max(profile.getEnd() - origin, 1);
+        out.println("<div class='timeline'>");
+        for (int i = first; i < profile.size(); i++) {
+            double left = (profile.getBegin(i) - origin) * 100 / span;
+            double width = profile.getDuration(i) < 0 ? 100 - left : profile.getDuration(i) / 1e6 * 100 / span;
+            out.print("<div class='timeline-row'><span class='timeline-label'>");
+            out.print(getStartupBundleLink(profile.getBundleId(i), bundlesUrl));
+            out.print(profile.isStop(i) ? " stop " : " ");
+            out.print(profile.getDuration(i) < 0 ? "(running)" : formatNanos(profile.getDuration(i)));
+            out.printf(Locale.ENGLISH, "</span><div class='timeline-track'><div class='timeline-bar%s' style='margin-left:%.2f%%;width:%.2f%%'></div></div></div>",
+                profile.isStop(i) ? " timeline-stop" : "", left, Math.max(width, 0.1));
+            out.println();
+        }
+        out.println("</div>");
     }
 
-    private <K, V> void addToMultiMap(Map<K, List<V>> map, K key, V value) {
-        List<V> components = map.get(key);
-        if (components == null) {
-            components = new ArrayList<V>();
-            map.put(key, components);
+    private String getStartupStatusLine(StartupProfile profile) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("Recording since ").append(formatMillis(profile.getRecordingStart())).append(" after JVM start, ");
+        builder.append(profile.size()).append(" bundle starts and stops recorded");
+        if (profile.getDropped() > 0) {
+            builder.append(" (").append(profile.getDropped()).append(" earlier ones overwritten)");
+        }
+        builder.append(". ");
+        if (profile.getFrameworkStarted() >= 0) {
+            builder.append("Framework started event at ").append(formatMillis(profile.getFrameworkStarted())).append(". ");
+        }
+        if (profile.getTimeToReady() >= 0) {
+            builder.append("Ready after ").append(formatMillis(profile.getTimeToReady()));
+            builder.append(" (no bundle events for ").append(formatMillis(profile.getQuietWindow())).append(" afterwards).");
+        } else {
+            builder.append("<span class='ui-state-error-text'>Still starting up</span>, last bundle event ");
+            builder.append(formatMillis(profile.getQuietFor())).append(" ago.");
         }
-        components.add(value);
+        return builder.toString();
+    }
+
+    private String getStartupBundleLink(long bundleId, String bundlesUrl) {
+        Bundle bundle = getBundleContext().getBundle(bundleId);
+        return getDetailLink(bundleId, bundle == null ? "uninstalled" : bundle.getSymbolicName(), bundlesUrl);
+    }
+
+    private static String formatMillis(long millis) {
+        return String.format(Locale.ENGLISH, "%.1f s", millis / 1000.0);
+    }
+
+    private static String formatNanos(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f ms", nanos / 1e6);
     }
 
-    private SatisfiedReferenceDTO getSatisfiedReferenceDTO(final ComponentConfigurationDTO component, final String name) {
-        for (int i = 0; i < component.satisfiedReferences.length; i++) {
-            SatisfiedReferenceDTO ref = component.satisfiedReferences[i];
-            if ( ref.name.equals(name)) {
-                return ref;
+    // ----------------------------------------------< json >---------------------------------
+
+    private void renderJson(HttpServletResponse response, Diagnosis diagnosis, Set<String> sections,
+                            ServiceChurnRecorder churnRecorder, ServiceOriginTracker originTracker) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter out = response.getWriter();
+        writeJson(out, diagnosis, sections, churnRecorder, originTracker);
+        out.println();
+    }
+
+    /** Recorder and tracker read once by the caller, the flapping services are left out if either is null */
+    private void writeJson(PrintWriter out, Diagnosis diagnosis, Set<String> sections,
+                           ServiceChurnRecorder churnRecorder, ServiceOriginTracker originTracker) {
+        JsonReport report = new JsonReport(out);
+        report.start();
+        report.writeTimestamp(diagnosis.getTimestamp());
+        if (sections.contains(JsonReport.SECTION_BUNDLES)) {
+            report.writeBundles(diagnosis.getSnapshot(), diagnosis.getBundles(), diagnosis.getRootCauses());
+        }
+        if (sections.contains(JsonReport.SECTION_COMPONENTS)) {
+            report.writeComponents(diagnosis.getComponents());
+        }
+        if (sections.contains(JsonReport.SECTION_FLAPPING) && churnRecorder != null && originTracker != null) {
+            report.writeFlappingServices(churnRecorder.getFlappingServices(flappingServices), originTracker);
+        }
+        report.end();
+    }
+
+    /** Returns the requested sections from the "sections" parameter, all if not set */
+    private Set<String> getSections(HttpServletRequest request) {
+        Set<String> sections = new TreeSet<String>();
+        String param = request.getParameter("sections");
+        if (param == null || param.trim().isEmpty()) {
+            addAllSections(sections);
+        } else {
+            for (String section : param.split(",")) {
+                sections.add(section.trim());
+            }
+        }
+        return sections;
+    }
+
+    private static void addAllSections(Set<String> sections) {
+        sections.add(JsonReport.SECTION_BUNDLES);
+        sections.add(JsonReport.SECTION_COMPONENTS);
+        sections.add(JsonReport.SECTION_FLAPPING);
+    }
+
+    // ----------------------------------------------< inventory >---------------------------------
+
+    /** For the configuration status and its zip, streamed from the latest diagnosis */
+    @Override
+    public void print(PrintWriter out, Format format, boolean isZip) {
+        final DiagnosisEngine engine = diagnosisEngine;
+        if (engine == null) {
+            // being deactivated
+            return;
+        }
+        final Diagnosis diagnosis = engine.getDiagnosis();
+        final ServiceChurnRecorder churnRecorder = serviceChurnRecorder;
+        final ServiceOriginTracker originTracker = serviceOriginTracker;
+        if (format == Format.JSON) {
+            Set<String> sections = new TreeSet<String>();
+            addAllSections(sections);
+            writeJson(out, diagnosis, sections, churnRecorder, originTracker);
+            out.println();
+        } else {
+            TextReport report = new TextReport(out);
+            report.writeTimestamp(diagnosis.getTimestamp());
+            report.writeBundles(diagnosis.getSnapshot(), diagnosis.getBundles(), diagnosis.getRootCauses());
+            report.writeComponents(diagnosis.getComponents());
+            if (churnRecorder != null && originTracker != null) {
+                report.writeFlappingServices(churnRecorder.getFlappingServices(flappingServices), originTracker);
             }
         }
-        return null;
     }
 
     // ----------------------------------------------< html helper >---------------------------------
@@ -751,53 +1547,49 @@ public class TroubleshootServlet extends SimpleWebConsolePlugin {
         out.println("' rel='stylesheet' type='text/css' />");
     }
 
-    private void embedScript(PrintWriter out, String path) {
-        out.println("<script type='text/javascript'>");
-        out.print("// ");
-        out.println(path);
-        includeResource(out, path);
-        out.println("</script>");
+    private void includeScript(PrintWriter out, String path) {
+        out.print("<script type='text/javascript' src='");
+        out.print(path);
+        out.println("'></script>");
     }
 
-    private void embedStyle(PrintWriter out, String path) {
-        out.println("<style>");
-        out.print("/* ");
-        out.print(path);
-        out.println(" */");
-        includeResource(out, path);
-        out.println("</style>");
+    // ----------------------------------------------< static resources >---------------------------------
+
+    /** Url of a css or js file that changes with its content */
+    private String getStaticUrl(String appRoot, String path) {
+        StaticResources.Resource resource = staticResources.get(path);
+        return appRoot + STATIC_PREFIX + (resource == null ? "0" : resource.getVersion()) + "/" + path;
     }
 
-    private void includeResource(PrintWriter out, String path) {
-        try {
-            if (!path.startsWith("/")) {
-                path = "/" + path;
-            }
-            URL url = getClass().getResource(path);
-            if (url == null) {
-                // not found`
-                return;
-            }
-            InputStream ins = url.openConnection().getInputStream();
-            LineIterator lineIterator = IOUtils.lineIterator(ins, "UTF-8");
-
-            boolean startComment = true;
-            while (lineIterator.hasNext()) {
-                String line = lineIterator.nextLine();
-                if (startComment) {
-                    String trimmed = line.trim();
-                    if (!trimmed.isEmpty()
-                        && !trimmed.startsWith("/**")
-                        && !trimmed.startsWith("*")) {
-                        startComment = false;
-                    }
-                }
-                if (!startComment) {
-                    out.println(line);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** Serves "version/path" from memory */
+    private void serveStatic(HttpServletRequest request, HttpServletResponse response, String versionAndPath) throws IOException {
+        final int slash = versionAndPath.indexOf('/');
+        final StaticResources.Resource resource = slash < 0 ? null : staticResources.get(versionAndPath.substring(slash + 1));
+        if (resource == null || !resource.getVersion().equals(versionAndPath.substring(0, slash))) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        final String etag = "\"" + resource.getVersion() + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", STATIC_CACHE_CONTROL);
+        response.setHeader("Vary", "Accept-Encoding");
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(resource.getContentType());
+        response.setCharacterEncoding("UTF-8");
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        final byte[] content;
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            content = resource.getGzipped();
+        } else {
+            content = resource.getContent();
         }
+        response.setContentLength(content.length);
+        response.getOutputStream().write(content);
     }
 }
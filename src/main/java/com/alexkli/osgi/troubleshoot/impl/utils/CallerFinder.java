@@ -0,0 +1,134 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+
+/**
+ * Finds the calling class on the current stack by skipping frames with certain prefixes, in order.
+ *
+ * On Java 9+ the frames are walked lazily with java.lang.StackWalker (through reflection, as we
+ * compile for older versions), which stops at the frame found instead of materializing the whole
+ * stack trace. On older versions it falls back to a full stack trace.
+ */
+public final class CallerFinder {
+
+    private static final Object WALKER;
+    private static final Method WALK;
+    private static final Class<?> FUNCTION;
+    private static final Method ITERATOR;
+    private static final Method GET_CLASS_NAME;
+
+    static {
+        Object walker = null;
+        Method walk = null;
+        Class<?> function = null;
+        Method iterator = null;
+        Method getClassName = null;
+        try {
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            function = Class.forName("java.util.function.Function");
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = walkerClass.getMethod("walk", function);
+            iterator = Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+            getClassName = Class.forName("java.lang.StackWalker$StackFrame").getMethod("getClassName");
+        } catch (Exception e) {
+            // before Java 9
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        FUNCTION = function;
+        ITERATOR = iterator;
+        GET_CLASS_NAME = getClassName;
+    }
+
+    private final String[] skipPrefixes;
+
+    /** StackWalker callback, stateless so it can be shared by all threads */
+    private final Object walkFunction;
+
+    /**
+     * @param skipPrefixes class name prefixes to skip: first all frames starting with the first prefix,
+     *                     then all following frames starting with the second prefix etc.
+     */
+    public CallerFinder(String... skipPrefixes) {
+        this.skipPrefixes = skipPrefixes;
+        this.walkFunction = WALKER == null ? null : Proxy.newProxyInstance(
+            CallerFinder.class.getClassLoader(), new Class[] { FUNCTION }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("apply".equals(method.getName())) {
+                        return find((Iterator<?>) ITERATOR.invoke(args[0]));
+                    }
+                    // equals, hashCode, toString
+                    return method.getName().equals("equals") ? proxy == args[0] :
+                        method.getName().equals("hashCode") ? System.identityHashCode(proxy) : "CallerFinder";
+                }
+            });
+    }
+
+    /** Whether only the needed frames are walked, instead of the full stack trace */
+    public static boolean isLazy() {
+        return WALKER != null;
+    }
+
+    /** Returns the class name of the first frame after the skipped ones, or null if there is none */
+    public String find() {
+        if (walkFunction != null) {
+            try {
+                return (String) WALK.invoke(WALKER, walkFunction);
+            } catch (Exception e) {
+                // fall through to the stack trace
+            }
+        }
+        final StackTraceElement[] stack = new Throwable().getStackTrace();
+        int stage = 0;
+        frames:
+        for (StackTraceElement frame : stack) {
+            while (stage < skipPrefixes.length) {
+                if (frame.getClassName().startsWith(skipPrefixes[stage])) {
+                    continue frames;
+                }
+                stage++;
+            }
+            return frame.getClassName();
+        }
+        return null;
+    }
+
+    private String find(Iterator<?> frames) throws Exception {
+        int stage = 0;
+        frames:
+        while (frames.hasNext()) {
+            String className = (String) GET_CLASS_NAME.invoke(frames.next());
+            while (stage < skipPrefixes.length) {
+                if (className.startsWith(skipPrefixes[stage])) {
+                    continue frames;
+                }
+                stage++;
+            }
+            return className;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,157 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.util.Arrays;
+
+/**
+ * Algorithms on int-indexed graphs in compressed adjacency form.
+ */
+public final class Graphs {
+
+    private Graphs() {
+    }
+
+    /**
+     * Iterative version of Tarjan's strongly connected components algorithm, as dependency chains
+     * can be longer than what recursion comfortably allows. Components are numbered in the order
+     * they are completed, so all successors of a component have lower numbers.
+     *
+     * @param n number of nodes
+     * @param edgeStart successors of node v are edges[edgeStart[v] .. edgeStart[v+1]), length n + 1
+     * @param edges successor nodes
+     * @return the component number of each node
+     */
+    public static int[] stronglyConnectedComponents(int n, int[] edgeStart, int[] edges) {
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] component = new int[n];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int stackSize = 0;
+        int[] callStack = new int[n];
+        int[] nextEdge = new int[n];
+        int counter = 0;
+        int components = 0;
+
+        for (int start = 0; start < n; start++) {
+            if (index[start] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth++] = start;
+            index[start] = low[start] = counter++;
+            nextEdge[start] = edgeStart[start];
+            stack[stackSize++] = start;
+            onStack[start] = true;
+
+            while (depth > 0) {
+                int v = callStack[depth - 1];
+                if (nextEdge[v] < edgeStart[v + 1]) {
+                    int w = edges[nextEdge[v]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        nextEdge[w] = edgeStart[w];
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[depth++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+
+                // all successors done
+                depth--;
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        component[w] = components;
+                    } while (w != v);
+                    components++;
+                }
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+        return component;
+    }
+
+    /** Returns the number of components, given the component of each node */
+    public static int componentCount(int[] component) {
+        int components = 0;
+        for (int c : component) {
+            components = Math.max(components, c + 1);
+        }
+        return components;
+    }
+
+    /**
+     * Collects for each strongly connected component the marks of all components it can reach,
+     * including its own, e.g. the root causes or blockers a component depends on. Each component
+     * is visited once after all of its successors, merging their bit sets along the edges, so it
+     * takes O((n + edges) * marks / 64) time.
+     *
+     * @param n number of nodes
+     * @param edgeStart successors of node v are edges[edgeStart[v] .. edgeStart[v+1]), length n + 1
+     * @param edges successor nodes
+     * @param component the component of each node, as returned by {@link #stronglyConnectedComponents}
+     * @param marks per component a bit set of its own marks, all of the same length; replaced in place
+     *              by the marks it reaches
+     */
+    public static void reachableMarks(int n, int[] edgeStart, int[] edges, int[] component, long[][] marks) {
+        final int components = marks.length;
+
+        // members by component: members[memberStart[c] .. memberStart[c+1])
+        int[] memberStart = new int[components + 1];
+        for (int v = 0; v < n; v++) {
+            memberStart[component[v] + 1]++;
+        }
+        for (int c = 0; c < components; c++) {
+            memberStart[c + 1] += memberStart[c];
+        }
+        int[] members = new int[n];
+        int[] fill = Arrays.copyOf(memberStart, components);
+        for (int v = 0; v < n; v++) {
+            members[fill[component[v]]++] = v;
+        }
+
+        // successors always have lower numbers, so they are complete when merged
+        for (int c = 0; c < components; c++) {
+            long[] bits = marks[c];
+            for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+                int v = members[m];
+                for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+                    int d = component[edges[e]];
+                    if (d != c) {
+                        long[] other = marks[d];
+                        for (int i = 0; i < bits.length; i++) {
+                            bits[i] |= other[i];
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.io.PrintWriter;
+
+/**
+ * Minimal streaming JSON writer: everything goes straight to the underlying writer,
+ * only the nesting state is kept.
+ */
+public class JsonWriter {
+
+    private final PrintWriter out;
+
+    /** per nesting level: whether a value was already written and the next one needs a comma */
+    private boolean[] hasValue = new boolean[16];
+    private int depth;
+
+    /** whether a key was just written and the value follows */
+    private boolean afterKey;
+
+    public JsonWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    public JsonWriter object() {
+        beforeValue();
+        out.print('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        depth--;
+        out.print('}');
+        return this;
+    }
+
+    public JsonWriter array() {
+        beforeValue();
+        out.print('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        depth--;
+        out.print(']');
+        return this;
+    }
+
+    public JsonWriter key(String key) {
+        beforeValue();
+        writeString(key);
+        out.print(':');
+        afterKey = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            out.print("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        out.print(value);
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        out.print(value);
+        return this;
+    }
+
+    private void push() {
+        depth++;
+        if (depth == hasValue.length) {
+            boolean[] newHasValue = new boolean[hasValue.length * 2];
+            System.arraycopy(hasValue, 0, newHasValue, 0, hasValue.length);
+            hasValue = newHasValue;
+        }
+        hasValue[depth] = false;
+    }
+
+    private void beforeValue() {
+        if (afterKey) {
+            afterKey = false;
+            return;
+        }
+        if (hasValue[depth]) {
+            out.print(',');
+        }
+        hasValue[depth] = true;
+    }
+
+    private void writeString(String s) {
+        out.print('"');
+        int start = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String escape = null;
+            if (c == '"' || c == '\\') {
+                escape = "\\" + c;
+            } else if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else if (c == '/' && i > 0 && s.charAt(i - 1) == '<') {
+                // avoid "</script>" when embedded in html
+                escape = "\\/";
+            }
+            if (escape != null) {
+                out.write(s, start, i - start);
+                out.print(escape);
+                start = i + 1;
+            }
+        }
+        out.write(s, start, length - start);
+        out.print('"');
+    }
+}
@@ -0,0 +1,188 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.osgi.framework.Version;
+import org.osgi.framework.VersionRange;
+
+/**
+ * Name and version range of a requirement, read from its filter directive as generated by the
+ * framework for Import-Package, Require-Bundle and Fragment-Host, e.g.
+ * <code>(&amp;(osgi.wiring.package=org.example)(version&gt;=1.0.0)(!(version&gt;=2.0.0)))</code>.
+ *
+ * Only used to look up the candidate capabilities by name and to explain version mismatches,
+ * whether a capability actually matches is up to the framework. The same filters appear in the
+ * requirements of hundreds of bundles, so they are interned and only read once.
+ */
+public final class RequirementFilter {
+
+    /** range of a requirement without version constraint */
+    public static final VersionRange ANY = new VersionRange(VersionRange.LEFT_CLOSED, Version.emptyVersion, null, VersionRange.RIGHT_OPEN);
+
+    /** what a requirement without filter matches, any name and any version */
+    private static final RequirementFilter NONE = new RequirementFilter(null, null);
+
+    /** distinct filters in a framework are usually a few thousand, this is just a safety net */
+    private static final int MAX_SIZE = 10000;
+
+    /** least recently used filters are dropped first, guarded by itself */
+    private static final Map<String, RequirementFilter> filters = new LinkedHashMap<String, RequirementFilter>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RequirementFilter> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private final String name;
+    private final VersionRange versionRange;
+
+    private RequirementFilter(String name, VersionRange versionRange) {
+        this.name = name;
+        this.versionRange = versionRange;
+    }
+
+    /** The value the name attribute must be equal to, null if the filter does not require one */
+    public String getName() {
+        return name;
+    }
+
+    /** The version range, {@link #ANY} if the filter has no version constraint, null if an unusual one */
+    public VersionRange getVersionRange() {
+        return versionRange;
+    }
+
+    /**
+     * Returns the interned name and range of the filter.
+     * @param nameAttribute the attribute holding the name, the namespace for the wiring namespaces
+     * @param versionAttribute the attribute holding the version in this namespace
+     */
+    public static RequirementFilter get(String filter, String nameAttribute, String versionAttribute) {
+        if (filter == null) {
+            return NONE;
+        }
+        RequirementFilter requirementFilter;
+        synchronized (filters) {
+            requirementFilter = filters.get(filter);
+        }
+        if (requirementFilter == null) {
+            // parsed outside the lock, a concurrent parse of the same filter gives an equal result
+            requirementFilter = parse(filter, nameAttribute, versionAttribute);
+            synchronized (filters) {
+                filters.put(filter, requirementFilter);
+            }
+        }
+        return requirementFilter;
+    }
+
+    /**
+     * Reads the name and range from the simple items of the filter, <code>(attr=value)</code>,
+     * <code>(attr&gt;=value)</code> and <code>(attr&lt;=value)</code>, each possibly negated.
+     * A filter with alternatives has neither, they cannot be expressed as one name and range.
+     */
+    public static RequirementFilter parse(String filter, String nameAttribute, String versionAttribute) {
+        if (filter == null) {
+            return NONE;
+        }
+        String name = null;
+        Version left = null, right = null;
+        boolean leftOpen = false, rightOpen = false;
+        // alternatives have neither one name nor one range
+        final boolean simple = filter.indexOf('|') < 0;
+        boolean versionKnown = simple;
+
+        final int length = filter.length();
+        for (int i = 0; i < length; i++) {
+            if (filter.charAt(i) != '(' || i + 1 >= length || "&|!(".indexOf(filter.charAt(i + 1)) >= 0) {
+                continue;
+            }
+            // simple item, the value ends at the first unescaped ')'
+            int end = i + 1;
+            StringBuilder value = null;
+            int operator = -1;
+            char op = 0;
+            for (; end < length && filter.charAt(end) != ')'; end++) {
+                char c = filter.charAt(end);
+                if (value == null && (c == '=' || ((c == '>' || c == '<' || c == '~') && end + 1 < length && filter.charAt(end + 1) == '='))) {
+                    operator = end;
+                    op = c;
+                    end += c == '=' ? 0 : 1;
+                    value = new StringBuilder();
+                } else if (value != null) {
+                    if (c == '\\' && end + 1 < length) {
+                        c = filter.charAt(++end);
+                    }
+                    value.append(c);
+                }
+            }
+            if (value == null) {
+                i = end;
+                continue;
+            }
+            final String attribute = filter.substring(i + 1, operator).trim();
+            final boolean negated = i >= 2 && filter.charAt(i - 1) == '!' && filter.charAt(i - 2) == '(';
+            i = end;
+
+            if (attribute.equals(nameAttribute)) {
+                if (op == '=' && !negated && simple) {
+                    name = value.toString().trim();
+                }
+            } else if (attribute.equals(versionAttribute) && versionKnown) {
+                Version version;
+                try {
+                    version = Version.parseVersion(value.toString().trim());
+                } catch (IllegalArgumentException e) {
+                    versionKnown = false;
+                    continue;
+                }
+                if (op == '>' && !negated) {
+                    // (version>=x)
+                    left = version;
+                    leftOpen = false;
+                } else if (op == '>') {
+                    // (!(version>=x)), i.e. below x
+                    right = version;
+                    rightOpen = true;
+                } else if (op == '<' && !negated) {
+                    // (version<=x)
+                    right = version;
+                    rightOpen = false;
+                } else if (op == '<') {
+                    // (!(version<=x)), i.e. above x
+                    left = version;
+                    leftOpen = true;
+                } else if (op == '=' && !negated) {
+                    left = right = version;
+                    leftOpen = rightOpen = false;
+                } else {
+                    versionKnown = false;
+                }
+            }
+        }
+
+        VersionRange range = versionKnown ? ANY : null;
+        if (versionKnown && (left != null || right != null)) {
+            range = new VersionRange(leftOpen ? VersionRange.LEFT_OPEN : VersionRange.LEFT_CLOSED,
+                left != null ? left : Version.emptyVersion, right, rightOpen || right == null ? VersionRange.RIGHT_OPEN : VersionRange.RIGHT_CLOSED);
+        }
+        return new RequirementFilter(name, range);
+    }
+}
@@ -34,3 +34,12 @@ window.onscroll = function() {
     }
     lastTop = newTop;
 };
+
+/**
+ * called after each line of the log, scrolls to the bottom unless the user is reading further up
+ */
+function scrollLog() {
+    if (!userHasScrolledUp) {
+        window.scrollTo(0, 999999);
+    }
+}
@@ -19,11 +19,81 @@
  * main javascript for troubleshoot plugin
  */
 
+/**
+ * Applies a delta from the events stream: changed html by element id, changed rows by key and
+ * the new row order per container. Rows no longer in the order are removed.
+ */
+function applyDelta(delta) {
+    $('#troubleshoot-live').data('generation', delta.generation);
+    $('.diagnosis-age-text').text(delta.age);
+    $.each(delta.texts, function(id, html) {
+        $('#' + id).html(html);
+    });
+    $.each(delta.rows, function(containerId, change) {
+        var container = $('#' + containerId);
+        var existing = {};
+        container.children('.diagnosis-row').each(function() {
+            existing[$(this).attr('data-key')] = $(this);
+        });
+        $.each(change.set || {}, function(key, html) {
+            var row = $($.trim(html));
+            if (existing[key]) {
+                existing[key].replaceWith(row);
+            } else {
+                container.append(row);
+            }
+            existing[key] = row;
+        });
+        if (change.order) {
+            var keep = {};
+            $.each(change.order, function(i, key) {
+                keep[key] = true;
+                if (existing[key]) {
+                    container.append(existing[key]);
+                }
+            });
+            $.each(existing, function(key, row) {
+                if (!keep[key]) {
+                    row.remove();
+                }
+            });
+        }
+    });
+    var allOk = $('#bundle-rows').children('.diagnosis-row').length == 0;
+    $('#bundles-ok').toggle(allOk);
+    $('.startInactiveBundles').toggle(!allOk);
+}
+
 $(document).ready(function(){
-    $('.toggle').click(function(){
-        $(this).find('.toggle-content').toggle();
+    // delegated, rows are replaced by live updates
+    $(document).on('click', '.toggle', function(){
+        var content = $(this).find('.toggle-content');
+        var url = content.data('detail');
+        // details are fetched on first expansion only, then kept in the page
+        if (url && !content.data('loaded')) {
+            content.data('loaded', true);
+            content.html("<span class='hint'>Loading...</span>");
+            $.get(url, function(html) {
+                content.html(html);
+            }).fail(function() {
+                content.data('loaded', false);
+                content.html("<span class='ui-state-error-text'>Loading failed, click to retry.</span>");
+            });
+        }
+        content.toggle();
     });
 
+    // live updates while the page is open, where the browser supports them
+    var live = false;
+    var liveInfo = $('#troubleshoot-live');
+    if (window.EventSource && liveInfo.length) {
+        live = true;
+        var source = new EventSource(liveInfo.data('events') + '?generation=' + liveInfo.data('generation'));
+        source.addEventListener('delta', function(event) {
+            applyDelta($.parseJSON(event.data));
+        });
+    }
+
     $('.startInactiveBundles').submit(function() {
         // show dialog
         $('#actionLogDialog').dialog({
@@ -32,7 +102,12 @@ $(document).ready(function(){
             buttons: [{
                 text: "Refresh",
                 click: function() {
-                    window.location.reload(true);
+                    if (live) {
+                        // the page is updated anyway
+                        $(this).dialog('close');
+                    } else {
+                        window.location.reload(true);
+                    }
                 }
             }],
             open: function() {
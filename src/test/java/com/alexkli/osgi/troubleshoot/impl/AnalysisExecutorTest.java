@@ -0,0 +1,143 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AnalysisExecutorTest {
+
+    private AnalysisExecutor executor;
+
+    @After
+    public void stop() {
+        if (executor != null) {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testSequentialOnCallingThread() {
+        executor = new AnalysisExecutor(1);
+        assertFalse(executor.isParallel());
+        assertEquals(10, executor.getChunkSize(10));
+        assertEquals(1, executor.getChunkSize(0));
+
+        List<String> threads = executor.invokeAll(Arrays.asList(threadName(0), threadName(0)));
+        assertEquals(Arrays.asList(Thread.currentThread().getName(), Thread.currentThread().getName()), threads);
+    }
+
+    @Test
+    public void testParallelResultsInTaskOrder() {
+        executor = new AnalysisExecutor(4);
+        assertTrue(executor.isParallel());
+        assertEquals(2, executor.getChunkSize(32));
+        assertEquals(1, executor.getChunkSize(3));
+
+        // the first tasks finish last
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            tasks.add(value(i, (8 - i) * 5));
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), executor.invokeAll(tasks));
+
+        List<String> threads = executor.invokeAll(Arrays.asList(threadName(10), threadName(10)));
+        for (String thread : threads) {
+            assertNotEquals(Thread.currentThread().getName(), thread);
+            assertTrue(thread, thread.startsWith("osgi-troubleshoot-analysis-"));
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionRethrown() {
+        executor = new AnalysisExecutor(2);
+        final IllegalArgumentException failure = new IllegalArgumentException("broken");
+        try {
+            executor.invokeAll(Arrays.asList(value(1, 0), new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw failure;
+                }
+            }));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testCheckedExceptionWrapped() {
+        executor = new AnalysisExecutor(1);
+        final IOException failure = new IOException("broken");
+        try {
+            executor.invokeAll(Arrays.asList(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    throw failure;
+                }
+            }));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testSequentialOnceStopped() {
+        executor = new AnalysisExecutor(2);
+        executor.stop();
+        List<String> threads = executor.invokeAll(Arrays.asList(threadName(0), threadName(0)));
+        assertEquals(Arrays.asList(Thread.currentThread().getName(), Thread.currentThread().getName()), threads);
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private static Callable<Integer> value(final int value, final long delayMillis) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws InterruptedException {
+                Thread.sleep(delayMillis);
+                return value;
+            }
+        };
+    }
+
+    private static Callable<String> threadName(final long delayMillis) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                Thread.sleep(delayMillis);
+                return Thread.currentThread().getName();
+            }
+        };
+    }
+}
@@ -0,0 +1,394 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.framework.namespace.HostNamespace;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class BundleAnalyzerTest {
+
+    private static final String PACKAGE = PackageNamespace.PACKAGE_NAMESPACE;
+    private static final String BUNDLE = BundleNamespace.BUNDLE_NAMESPACE;
+    private static final String HOST = HostNamespace.HOST_NAMESPACE;
+
+    private final List<TestBundle> bundles = new ArrayList<TestBundle>();
+
+    @Test
+    public void testNotExported() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.missing)(version>=1.0.0)(!(version>=2.0.0)))");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.NOT_EXPORTED, problem.getType());
+        assertEquals("org.missing", problem.getName());
+        assertEquals("[1.0.0,2.0.0)", problem.getVersionRange());
+        assertEquals(-1, problem.getExporterId());
+        assertEquals("not exported by any bundle", problem.getMissingString());
+    }
+
+    @Test
+    public void testRequiredBundleAndHostMissing() {
+        TestBundle bundle = bundle(1, Bundle.INSTALLED)
+            .requires(BUNDLE, "(&(osgi.wiring.bundle=org.example.api)(bundle-version>=1.0.0))")
+            .requires(HOST, "(osgi.wiring.host=org.example.host)");
+
+        List<ImportProblem> problems = analyze(bundle);
+        assertEquals(2, problems.size());
+        assertEquals("requiring bundle org.example.api", problems.get(0).getRequirementString());
+        assertEquals("required bundle not installed", problems.get(0).getMissingString());
+        assertEquals("fragment of org.example.host", problems.get(1).getRequirementString());
+        assertNull(problems.get(1).getVersionRange());
+    }
+
+    @Test
+    public void testIgnoredRequirements() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .exports("org.own", "1.0.0")
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.own)(version>=5.0.0))")
+            .requires(PACKAGE, "(osgi.wiring.package=org.optional)", PackageNamespace.RESOLUTION_OPTIONAL)
+            .requires(PACKAGE, "(osgi.wiring.package=org.dynamic)", PackageNamespace.RESOLUTION_DYNAMIC)
+            .requires("osgi.ee", "(osgi.ee=JavaSE)")
+            .requires(PACKAGE, "(|(osgi.wiring.package=a)(osgi.wiring.package=b))")
+            .requires(PACKAGE, null);
+
+        assertTrue(analyze(importer).isEmpty());
+    }
+
+    @Test
+    public void testContainedPackage() {
+        // contained but not exported, e.g. embedded
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .contains("org/example/embedded/")
+            .requires(PACKAGE, "(osgi.wiring.package=org.example.embedded)")
+            .requires(PACKAGE, "(osgi.wiring.package=org.other)");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.NOT_EXPORTED, problem.getType());
+        assertEquals("org.other", problem.getName());
+    }
+
+    @Test
+    public void testContainedPackageWithInactiveExporter() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .contains("org/example/")
+            .requires(PACKAGE, "(osgi.wiring.package=org.example)");
+        bundle(2, Bundle.INSTALLED).exports("org.example", "1.0.0");
+
+        assertTrue(analyze(importer).isEmpty());
+    }
+
+    @Test
+    public void testActiveProvider() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=1.0.0))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "1.2.0");
+
+        assertTrue(analyze(importer).isEmpty());
+    }
+
+    @Test
+    public void testDependencyNotActive() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=1.0.0))");
+        bundle(2, Bundle.INSTALLED).exports("org.example", "1.0.0");
+        bundle(3, Bundle.INSTALLED).exports("org.example", "1.5.0");
+        bundle(4, Bundle.ACTIVE).exports("org.example", "0.9.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.DEPENDENCY_NOT_ACTIVE, problem.getType());
+        // the highest matching version
+        assertEquals(3, problem.getExporterId());
+        assertEquals("bundle-3", problem.getExporterSymbolicName());
+        assertEquals("Installed", problem.getExporterStatus());
+    }
+
+    @Test
+    public void testTooOldAndTooNew() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=1.0.0)(!(version>=2.0.0)))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "0.5.0");
+        bundle(3, Bundle.ACTIVE).exports("org.example", "0.9.0");
+        bundle(4, Bundle.ACTIVE).exports("org.example", "2.0.0");
+
+        List<ImportProblem> problems = analyze(importer);
+        assertEquals(3, problems.size());
+        assertProblem(problems.get(0), ImportProblem.Type.DEPENDENCY_TOO_OLD, 2, "0.5.0", false);
+        assertProblem(problems.get(1), ImportProblem.Type.DEPENDENCY_TOO_OLD, 3, "0.9.0", true);
+        assertProblem(problems.get(2), ImportProblem.Type.DEPENDENCY_TOO_NEW, 4, "2.0.0", true);
+        assertEquals("[1.0.0,2.0.0)", problems.get(0).getVersionRange());
+        assertTrue(problems.get(0).isCandidate());
+    }
+
+    @Test
+    public void testSingleCandidateTooNew() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=1.0.0)(!(version>=2.0.0)))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "3.0.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.DEPENDENCY_TOO_NEW, problem.getType());
+        assertFalse(problem.isCandidate());
+        assertFalse(problem.isClosest());
+    }
+
+    @Test
+    public void testAttributeMismatchWithoutRange() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(bundle-symbolic-name=org.other))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "1.0.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.ATTRIBUTE_MISMATCH, problem.getType());
+        assertNull(problem.getVersionRange());
+        assertEquals(new Version("1.0.0"), problem.getExportVersion());
+    }
+
+    @Test
+    public void testAttributeMismatchInRange() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=1.0.0)(bundle-symbolic-name=org.other))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "1.0.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.ATTRIBUTE_MISMATCH, problem.getType());
+        assertEquals("1.0.0", problem.getVersionRange());
+    }
+
+    @Test
+    public void testUnusualFilterMismatch() {
+        // the range cannot be read from the filter, so the candidate is neither too old nor too new
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version~=1.0))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "2.0.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.ATTRIBUTE_MISMATCH, problem.getType());
+        assertNull(problem.getVersionRange());
+    }
+
+    @Test
+    public void testEmptyRange() {
+        TestBundle importer = bundle(1, Bundle.INSTALLED)
+            .requires(PACKAGE, "(&(osgi.wiring.package=org.example)(version>=2.0.0)(!(version>=1.0.0)))");
+        bundle(2, Bundle.ACTIVE).exports("org.example", "1.5.0");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.DIFFERENT_VERSION, problem.getType());
+    }
+
+    @Test
+    public void testFragmentHostNotActive() {
+        TestBundle host = bundle(1, Bundle.INSTALLED).hosts("org.example.host", "1.0.0");
+        TestBundle fragment = bundle(2, Bundle.INSTALLED).fragment()
+            .requires(HOST, "(&(osgi.wiring.host=org.example.host)(bundle-version>=0.0.0))");
+
+        ImportProblem problem = single(analyze(fragment));
+        assertEquals(ImportProblem.Type.DEPENDENCY_NOT_ACTIVE, problem.getType());
+        assertEquals(1, problem.getExporterId());
+        assertTrue(analyze(host).isEmpty());
+    }
+
+    @Test
+    public void testResolvedWithInactiveProvider() {
+        TestBundle provider = bundle(2, Bundle.RESOLVED).exports("org.example", "1.0.0");
+        TestBundle importer = bundle(1, Bundle.RESOLVED)
+            .wiredTo(provider, PACKAGE, "(osgi.wiring.package=org.example)");
+
+        ImportProblem problem = single(analyze(importer));
+        assertEquals(ImportProblem.Type.DEPENDENCY_NOT_ACTIVE, problem.getType());
+        assertEquals(2, problem.getExporterId());
+        assertEquals("Resolved", problem.getExporterStatus());
+    }
+
+    @Test
+    public void testUninstalled() {
+        Bundle uninstalled = TestBundles.bundle(1, Bundle.UNINSTALLED);
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(new Bundle[] {uninstalled});
+        BundleContext context = context(new Bundle[] {uninstalled});
+        BundleAnalyzer analyzer = new BundleAnalyzer(new CapabilityIndex(context), new BundlePackageCache(context, 10), null);
+        assertTrue(analyzer.analyze(snapshot, 0).getProblems().isEmpty());
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private TestBundle bundle(long id, int state) {
+        TestBundle bundle = new TestBundle(id, state);
+        bundles.add(bundle);
+        return bundle;
+    }
+
+    private List<ImportProblem> analyze(TestBundle bundle) {
+        Bundle[] all = new Bundle[bundles.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = bundles.get(i).bundle;
+        }
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(all);
+        BundleContext context = context(all);
+        BundleAnalyzer analyzer = new BundleAnalyzer(new CapabilityIndex(context), new BundlePackageCache(context, 10), null);
+        return analyzer.analyze(snapshot, snapshot.indexOf(bundle.bundle.getBundleId())).getProblems();
+    }
+
+    private static BundleContext context(Bundle[] bundles) {
+        return TestBundles.proxy(BundleContext.class, TestBundles.answers("getBundles", bundles));
+    }
+
+    private static ImportProblem single(List<ImportProblem> problems) {
+        assertEquals(problems.toString(), 1, problems.size());
+        return problems.get(0);
+    }
+
+    private static void assertProblem(ImportProblem problem, ImportProblem.Type type, long exporterId,
+                                      String version, boolean closest) {
+        assertEquals(type, problem.getType());
+        assertEquals(exporterId, problem.getExporterId());
+        assertEquals(new Version(version), problem.getExportVersion());
+        assertEquals(closest, problem.isClosest());
+    }
+
+    /** A bundle with a current revision declaring capabilities and requirements, wired if wires are added */
+    private static final class TestBundle {
+
+        final Bundle bundle;
+
+        private final BundleRevision revision;
+
+        private final Map<String, Object> revisionAnswers;
+
+        private final List<BundleCapability> capabilities = new ArrayList<BundleCapability>();
+
+        private final List<BundleRequirement> requirements = new ArrayList<BundleRequirement>();
+
+        private final List<BundleWire> wires = new ArrayList<BundleWire>();
+
+        /** directories in the bundle, e.g. "org/example/" */
+        private final List<String> directories = new ArrayList<String>();
+
+        TestBundle(long id, int state) {
+            revisionAnswers = TestBundles.answers(
+                "getTypes", 0,
+                "getDeclaredRequirements", requirements,
+                "getDeclaredCapabilities", new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        List<BundleCapability> result = new ArrayList<BundleCapability>();
+                        for (BundleCapability capability : capabilities) {
+                            if (args[0] == null || args[0].equals(capability.getNamespace())) {
+                                result.add(capability);
+                            }
+                        }
+                        return result;
+                    }
+                });
+            revision = TestBundles.proxy(BundleRevision.class, revisionAnswers);
+            bundle = TestBundles.proxy(Bundle.class, TestBundles.answers(
+                "getBundleId", id,
+                "getSymbolicName", "bundle-" + id,
+                "getVersion", Version.emptyVersion,
+                "getState", state,
+                "getLastModified", 0L,
+                "getEntryPaths", new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        // the directories directly below the given one
+                        String dir = args[0].equals("/") ? "" : (String) args[0];
+                        List<String> paths = new ArrayList<String>();
+                        for (String directory : directories) {
+                            if (directory.startsWith(dir) && directory.length() > dir.length()
+                                    && directory.indexOf('/', dir.length()) == directory.length() - 1) {
+                                paths.add(directory);
+                            }
+                        }
+                        return paths.isEmpty() ? null : Collections.enumeration(paths);
+                    }
+                },
+                "adapt", revision));
+            revisionAnswers.put("getBundle", bundle);
+        }
+
+        TestBundle exports(String name, String version) {
+            capabilities.add(TestBundles.capability(revision, PACKAGE, name, version));
+            return this;
+        }
+
+        TestBundle contains(String directory) {
+            // with all parent directories, like a jar
+            for (int i = directory.indexOf('/'); i >= 0; i = directory.indexOf('/', i + 1)) {
+                directories.add(directory.substring(0, i + 1));
+            }
+            return this;
+        }
+
+        TestBundle hosts(String name, String version) {
+            capabilities.add(TestBundles.capability(revision, HOST, name, version));
+            return this;
+        }
+
+        TestBundle fragment() {
+            revisionAnswers.put("getTypes", BundleRevision.TYPE_FRAGMENT);
+            return this;
+        }
+
+        TestBundle requires(String namespace, String filter) {
+            return requires(namespace, filter, null);
+        }
+
+        TestBundle requires(String namespace, String filter, String resolution) {
+            requirements.add(TestBundles.requirement(namespace, filter, resolution));
+            return this;
+        }
+
+        TestBundle wiredTo(TestBundle provider, final String namespace, String filter) {
+            BundleRequirement requirement = TestBundles.requirement(namespace, filter, null);
+            requirements.add(requirement);
+            wires.add(TestBundles.proxy(BundleWire.class, TestBundles.answers(
+                "getProvider", provider.revision,
+                "getRequirement", requirement)));
+            revisionAnswers.put("getWiring", TestBundles.proxy(BundleWiring.class, TestBundles.answers(
+                "getRequiredWires", new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return namespace.equals(args[0]) ? wires : Collections.<BundleWire>emptyList();
+                    }
+                })));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+public class BundlePackageCacheTest {
+
+    private final BundleContext bundleContext = TestBundles.proxy(BundleContext.class, TestBundles.answers());
+
+    @Test
+    public void testNestedPackages() {
+        BundlePackageCache cache = new BundlePackageCache(bundleContext, 10);
+        ListedBundle bundle = new ListedBundle(1, "org/", "org/example/", "org/example/impl/", "META-INF/");
+
+        assertTrue(cache.containsPackage(bundle.bundle, "org.example"));
+        assertTrue(cache.containsPackage(bundle.bundle, "org.example.impl"));
+        assertFalse(cache.containsPackage(bundle.bundle, "org.other"));
+        // listed once
+        assertEquals(5, bundle.listings);
+    }
+
+    @Test
+    public void testListedAgainWhenModified() {
+        BundlePackageCache cache = new BundlePackageCache(bundleContext, 10);
+        ListedBundle bundle = new ListedBundle(1, "org/", "org/example/");
+        assertFalse(cache.containsPackage(bundle.bundle, "org.other"));
+
+        bundle.add("org/other/");
+        assertFalse("same revision, cached", cache.containsPackage(bundle.bundle, "org.other"));
+
+        bundle.lastModified++;
+        assertTrue(cache.containsPackage(bundle.bundle, "org.other"));
+    }
+
+    @Test
+    public void testDroppedOnUpdate() {
+        BundlePackageCache cache = new BundlePackageCache(bundleContext, 10);
+        ListedBundle bundle = new ListedBundle(1, "org/");
+        assertFalse(cache.containsPackage(bundle.bundle, "com"));
+
+        bundle.add("com/");
+        cache.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle.bundle));
+        assertFalse(cache.containsPackage(bundle.bundle, "com"));
+        cache.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle.bundle));
+        assertTrue(cache.containsPackage(bundle.bundle, "com"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        BundlePackageCache cache = new BundlePackageCache(bundleContext, 2);
+        ListedBundle first = new ListedBundle(1, "a/");
+        ListedBundle second = new ListedBundle(2, "b/");
+        ListedBundle third = new ListedBundle(3, "c/");
+
+        cache.containsPackage(first.bundle, "a");
+        cache.containsPackage(second.bundle, "b");
+        cache.containsPackage(first.bundle, "a");
+        cache.containsPackage(third.bundle, "c");
+        assertEquals(2, first.listings);
+
+        // second was the least recently used one
+        cache.containsPackage(first.bundle, "a");
+        assertEquals(2, first.listings);
+        cache.containsPackage(second.bundle, "b");
+        assertEquals(4, second.listings);
+    }
+
+    @Test
+    public void testUninstalledBundle() {
+        BundlePackageCache cache = new BundlePackageCache(bundleContext, 10);
+        ListedBundle bundle = new ListedBundle(1, "org/");
+        bundle.uninstalled = true;
+        assertFalse(cache.containsPackage(bundle.bundle, "org"));
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    /** A bundle with directories, counting the getEntryPaths() calls */
+    private static final class ListedBundle {
+
+        final Bundle bundle;
+
+        final List<String> directories = new ArrayList<String>();
+
+        long lastModified = 1;
+
+        int listings;
+
+        boolean uninstalled;
+
+        ListedBundle(long id, String... directories) {
+            Collections.addAll(this.directories, directories);
+            bundle = TestBundles.proxy(Bundle.class, TestBundles.answers(
+                "getBundleId", id,
+                "getLastModified", new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return lastModified;
+                    }
+                },
+                "getEntryPaths", new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        listings++;
+                        if (uninstalled) {
+                            throw new IllegalStateException("uninstalled");
+                        }
+                        // the directories directly below the given one
+                        String dir = args[0].equals("/") ? "" : (String) args[0];
+                        List<String> paths = new ArrayList<String>();
+                        for (String directory : ListedBundle.this.directories) {
+                            if (directory.startsWith(dir) && directory.length() > dir.length()
+                                    && directory.indexOf('/', dir.length()) == directory.length() - 1) {
+                                paths.add(directory);
+                            }
+                        }
+                        return paths.isEmpty() ? null : Collections.enumeration(paths);
+                    }
+                }));
+        }
+
+        void add(String directory) {
+            directories.add(directory);
+        }
+    }
+}
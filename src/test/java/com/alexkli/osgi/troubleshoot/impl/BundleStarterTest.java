@@ -0,0 +1,161 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class BundleStarterTest {
+
+    private static final long TIMEOUT = 300;
+
+    /** released after each test, so that hanging activators end */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void releaseActivators() {
+        release.countDown();
+    }
+
+    @Test
+    public void testWavesInDependencyOrder() throws Exception {
+        Bundle api = bundle(1, null);
+        Bundle impl = bundle(2, null, api);
+        Bundle app = bundle(3, null, impl, api);
+
+        assertEquals(3, starter(2).start(Arrays.asList(app, impl, api)));
+        assertEquals(Arrays.asList("wave 1: 1", "started 1", "wave 2: 1", "started 2", "wave 3: 1", "started 3"), log);
+    }
+
+    @Test
+    public void testFailedStart() throws Exception {
+        Bundle failing = bundle(1, new BundleException("activator failed"));
+        Bundle other = bundle(2, null);
+
+        assertEquals(1, starter(2).start(Arrays.asList(failing, other)));
+        assertTrue(log.toString(), log.contains("failed 1: activator failed"));
+        assertTrue(log.toString(), log.contains("started 2"));
+    }
+
+    @Test(timeout = 10000)
+    public void testHangingActivatorDoesNotBlockQueuedStarts() throws Exception {
+        // the only thread hangs, the start queued behind it must still end
+        Bundle hanging = bundle(1, release);
+        Bundle queued = bundle(2, null);
+
+        assertEquals(0, starter(1).start(Arrays.asList(hanging, queued)));
+        assertEquals(Arrays.asList("wave 1: 2", "timed out 1", "not started 2"), log);
+    }
+
+    @Test(timeout = 10000)
+    public void testHangingActivatorThreadIsReplaced() throws Exception {
+        // the next wave gets a new thread while the first one still hangs
+        Bundle hanging = bundle(1, release);
+        Bundle dependent = bundle(2, null, hanging);
+
+        assertEquals(1, starter(1).start(Arrays.asList(hanging, dependent)));
+        assertEquals(Arrays.asList("wave 1: 1", "timed out 1", "wave 2: 1", "started 2"), log);
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private BundleStarter starter(int poolSize) {
+        BundleContext context = TestBundles.proxy(BundleContext.class, TestBundles.answers());
+        return new BundleStarter(context, poolSize, TIMEOUT, new BundleStarter.Log() {
+            @Override
+            public void resolved(int installed, int resolved) {
+                log.add("resolved " + resolved + "/" + installed);
+            }
+
+            @Override
+            public void wave(int number, int bundles) {
+                log.add("wave " + number + ": " + bundles);
+            }
+
+            @Override
+            public void started(Bundle bundle, int previousState, long millis) {
+                log.add("started " + bundle.getBundleId());
+            }
+
+            @Override
+            public void failed(Bundle bundle, int previousState, Exception e, long millis) {
+                log.add("failed " + bundle.getBundleId() + ": " + e.getMessage());
+            }
+
+            @Override
+            public void timedOut(Bundle bundle, int previousState, long millis) {
+                assertTrue(millis >= TIMEOUT);
+                log.add("timed out " + bundle.getBundleId());
+            }
+
+            @Override
+            public void notStarted(Bundle bundle, int previousState, long millis) {
+                log.add("not started " + bundle.getBundleId());
+            }
+        });
+    }
+
+    /**
+     * A resolved bundle wired to the providers, whose start either succeeds, throws the exception or
+     * blocks until the latch is released.
+     */
+    private static Bundle bundle(long id, final Object onStart, Bundle... providers) {
+        final List<BundleWire> wires = new ArrayList<BundleWire>();
+        for (Bundle provider : providers) {
+            BundleRevision revision = TestBundles.proxy(BundleRevision.class, TestBundles.answers("getBundle", provider));
+            wires.add(TestBundles.proxy(BundleWire.class, TestBundles.answers("getProvider", revision)));
+        }
+        final BundleWiring wiring = TestBundles.proxy(BundleWiring.class, TestBundles.answers("getRequiredWires", wires));
+        return TestBundles.proxy(Bundle.class, TestBundles.answers(
+            "getBundleId", id,
+            "getSymbolicName", "bundle-" + id,
+            "getState", Bundle.RESOLVED,
+            "adapt", wiring,
+            "start", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (onStart instanceof Exception) {
+                        throw (Exception) onStart;
+                    } else if (onStart instanceof CountDownLatch) {
+                        ((CountDownLatch) onStart).await();
+                    }
+                    return null;
+                }
+            }));
+    }
+}
@@ -0,0 +1,135 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.osgi.framework.VersionRange;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+
+public class CapabilityMatchTest {
+
+    private static final String PACKAGE = PackageNamespace.PACKAGE_NAMESPACE;
+
+    /** sorted by version, like in the index */
+    private final BundleCapability[] candidates = {
+        export("0.5.0"), export("0.9.0"), export("1.0.0"), export("1.5.0"), export("2.0.0"), export("3.0.0")
+    };
+
+    @Test
+    public void testClosedOpenRange() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(version>=1.0.0)(!(version>=2.0.0)))", "[1.0.0,2.0.0)");
+
+        assertTooOld(match, 0, 1);
+        assertInRange(match, 2, 3);
+        assertTooNew(match, 4, 5);
+        assertFalse(match.isMatching(1));
+        assertTrue(match.isMatching(2));
+        assertTrue(match.isMatching(3));
+        assertFalse(match.isMatching(4));
+        assertSame(candidates[1], match.getNearestLower());
+        assertSame(candidates[4], match.getNearestHigher());
+        assertFalse(match.isEmptyRange());
+    }
+
+    @Test
+    public void testOpenClosedRange() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(!(version<=1.0.0))(version<=2.0.0))", "(1.0.0,2.0.0]");
+
+        assertTooOld(match, 0, 2);
+        assertInRange(match, 3, 4);
+        assertTooNew(match, 5, 5);
+        assertSame(candidates[2], match.getNearestLower());
+        assertSame(candidates[5], match.getNearestHigher());
+    }
+
+    @Test
+    public void testAllTooOld() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(version>=4.0.0))", "4.0.0");
+
+        assertTooOld(match, 0, 5);
+        assertSame(candidates[5], match.getNearestLower());
+        assertNull(match.getNearestHigher());
+    }
+
+    @Test
+    public void testWithoutRange() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(bundle-symbolic-name=b))", null);
+
+        assertInRange(match, 0, 5);
+        assertFalse(match.isMatching(0));
+        assertNull(match.getNearestLower());
+        assertNull(match.getNearestHigher());
+        assertFalse(match.isEmptyRange());
+    }
+
+    @Test
+    public void testAttributeMismatchInRange() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(version>=1.0.0)(bundle-symbolic-name=b))", "1.0.0");
+
+        assertInRange(match, 2, 5);
+        assertFalse(match.isMatching(2));
+    }
+
+    @Test
+    public void testEmptyRange() {
+        CapabilityMatch match = match("(&(osgi.wiring.package=a)(version>=2.0.0)(!(version>=1.0.0)))", "[2.0.0,1.0.0)");
+
+        assertTrue(match.isEmptyRange());
+        // the closest candidates on both sides of the empty range
+        assertSame(candidates[1], match.getNearestLower());
+        assertSame(candidates[4], match.getNearestHigher());
+    }
+
+    private CapabilityMatch match(String filter, String range) {
+        BundleRequirement requirement = TestBundles.requirement(PACKAGE, filter, null);
+        return CapabilityMatch.match(requirement, range == null ? null : new VersionRange(range), candidates);
+    }
+
+    private static BundleCapability export(String version) {
+        return TestBundles.capability(null, PACKAGE, "a", version);
+    }
+
+    private static void assertTooOld(CapabilityMatch match, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            assertTrue("too old " + i, match.isTooOld(i));
+            assertFalse("too new " + i, match.isTooNew(i));
+        }
+    }
+
+    private static void assertInRange(CapabilityMatch match, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            assertFalse("too old " + i, match.isTooOld(i));
+            assertFalse("too new " + i, match.isTooNew(i));
+        }
+    }
+
+    private static void assertTooNew(CapabilityMatch match, int from, int to) {
+        for (int i = from; i <= to; i++) {
+            assertFalse("too old " + i, match.isTooOld(i));
+            assertTrue("too new " + i, match.isTooNew(i));
+        }
+    }
+}
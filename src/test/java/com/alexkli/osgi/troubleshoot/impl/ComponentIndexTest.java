@@ -0,0 +1,166 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+import org.osgi.service.component.runtime.dto.SatisfiedReferenceDTO;
+
+public class ComponentIndexTest {
+
+    private final List<ComponentDescriptionDTO> descriptions = new ArrayList<ComponentDescriptionDTO>();
+
+    private final Map<ComponentDescriptionDTO, List<ComponentConfigurationDTO>> configurations =
+        new HashMap<ComponentDescriptionDTO, List<ComponentConfigurationDTO>>();
+
+    private final AtomicInteger descriptionCalls = new AtomicInteger();
+
+    private final AtomicInteger configurationCalls = new AtomicInteger();
+
+    private final AnalysisExecutor executor = new AnalysisExecutor(4);
+
+    @After
+    public void stop() {
+        executor.stop();
+    }
+
+    @Test
+    public void testIndexes() {
+        ComponentDescriptionDTO a = description("a", "org.example.Service", "org.example.Other");
+        ComponentDescriptionDTO b = description("b", "org.example.Service");
+        ComponentDescriptionDTO a2 = description("a");
+
+        ComponentIndex index = capture();
+        assertEquals(3, index.size());
+        assertSame(a, index.getDescription(0));
+        assertSame(b, index.getDescription(1));
+        assertSame(a2, index.getDescription(2));
+
+        assertArrayEquals(new int[] {0, 2}, index.getByName("a"));
+        assertArrayEquals(new int[0], index.getByName("none"));
+        assertArrayEquals(new int[] {0, 1}, index.getByInterface("org.example.Service"));
+        assertArrayEquals(new int[] {0}, index.getByInterface("org.example.Other"));
+        assertNull(index.getByInterface("org.example.None"));
+    }
+
+    @Test
+    public void testConfigurations() {
+        ComponentDescriptionDTO unconfigured = description("unconfigured");
+        ComponentDescriptionDTO referencing = description("referencing");
+        ComponentConfigurationDTO first = configuration(referencing, "log");
+        ComponentConfigurationDTO second = configuration(referencing);
+
+        ComponentIndex index = capture();
+        assertEquals(0, index.getConfigurations(0).length);
+        ComponentIndex.Configuration[] instances = index.getConfigurations(1);
+        assertEquals(2, instances.length);
+        assertSame(first, instances[0].getDTO());
+        assertSame(second, instances[1].getDTO());
+        assertEquals("log", instances[0].getSatisfiedReference("log").name);
+        assertNull(instances[0].getSatisfiedReference("other"));
+        assertNull(instances[1].getSatisfiedReference("log"));
+        assertSame(unconfigured, index.getDescription(0));
+    }
+
+    @Test
+    public void testFetchedOnceInOrder() {
+        // several chunks on the pool
+        for (int i = 0; i < 100; i++) {
+            ComponentDescriptionDTO description = description("c" + i);
+            for (int c = 0; c < i % 3; c++) {
+                configuration(description);
+            }
+        }
+
+        ComponentIndex index = capture();
+        assertEquals(1, descriptionCalls.get());
+        assertEquals(100, configurationCalls.get());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("c" + i, index.getDescription(i).name);
+            assertEquals(i % 3, index.getConfigurations(i).length);
+            for (ComponentIndex.Configuration configuration : index.getConfigurations(i)) {
+                assertSame(index.getDescription(i), configuration.getDTO().description);
+            }
+        }
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private ComponentIndex capture() {
+        ServiceComponentRuntime scr = TestBundles.proxy(ServiceComponentRuntime.class, TestBundles.answers(
+            "getComponentDescriptionDTOs", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    descriptionCalls.incrementAndGet();
+                    return new ArrayList<ComponentDescriptionDTO>(descriptions);
+                }
+            },
+            "getComponentConfigurationDTOs", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    configurationCalls.incrementAndGet();
+                    List<ComponentConfigurationDTO> result = configurations.get(args[0]);
+                    return result == null ? Collections.emptyList() : result;
+                }
+            }));
+        return ComponentIndex.capture(scr, executor);
+    }
+
+    private ComponentDescriptionDTO description(String name, String... serviceInterfaces) {
+        ComponentDescriptionDTO description = new ComponentDescriptionDTO();
+        description.name = name;
+        description.serviceInterfaces = serviceInterfaces;
+        descriptions.add(description);
+        return description;
+    }
+
+    private ComponentConfigurationDTO configuration(ComponentDescriptionDTO description, String... satisfiedReferences) {
+        ComponentConfigurationDTO configuration = new ComponentConfigurationDTO();
+        configuration.description = description;
+        configuration.satisfiedReferences = new SatisfiedReferenceDTO[satisfiedReferences.length];
+        for (int i = 0; i < satisfiedReferences.length; i++) {
+            configuration.satisfiedReferences[i] = new SatisfiedReferenceDTO();
+            configuration.satisfiedReferences[i].name = satisfiedReferences[i];
+        }
+        List<ComponentConfigurationDTO> list = configurations.get(description);
+        if (list == null) {
+            list = new ArrayList<ComponentConfigurationDTO>();
+            configurations.put(description, list);
+        }
+        list.add(configuration);
+        return configuration;
+    }
+}
@@ -0,0 +1,220 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.dto.BundleDTO;
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+import org.osgi.service.component.runtime.dto.ComponentConfigurationDTO;
+import org.osgi.service.component.runtime.dto.ComponentDescriptionDTO;
+
+public class ComponentStateSamplerTest {
+
+    private static final int ACTIVE = ComponentConfigurationDTO.ACTIVE;
+    private static final int SATISFIED = ComponentConfigurationDTO.SATISFIED;
+    private static final int UNSATISFIED = ComponentConfigurationDTO.UNSATISFIED_REFERENCE;
+
+    /** what scr currently answers, one description per configuration */
+    private final List<ComponentConfigurationDTO> configurations = new ArrayList<ComponentConfigurationDTO>();
+
+    private final AtomicInteger notifications = new AtomicInteger();
+
+    private ComponentStateSampler sampler;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        configuration(1, "a", ACTIVE);
+        configuration(2, "b", UNSATISFIED);
+
+        ServiceComponentRuntime scr = TestBundles.proxy(ServiceComponentRuntime.class, TestBundles.answers(
+            "getComponentDescriptionDTOs", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    List<ComponentDescriptionDTO> descriptions = new ArrayList<ComponentDescriptionDTO>();
+                    for (ComponentConfigurationDTO configuration : configurations) {
+                        descriptions.add(configuration.description);
+                    }
+                    return descriptions;
+                }
+            },
+            "getComponentConfigurationDTOs", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    for (ComponentConfigurationDTO configuration : configurations) {
+                        if (configuration.description == args[0]) {
+                            return Collections.singletonList(configuration);
+                        }
+                    }
+                    return Collections.emptyList();
+                }
+            }));
+        // samples right away in the background, then not again during the test
+        sampler = new ComponentStateSampler(scr, 3600, new ComponentStateSampler.Listener() {
+            @Override
+            public void componentsChanged() {
+                notifications.incrementAndGet();
+            }
+        });
+        final long end = System.currentTimeMillis() + 5000;
+        while (sampler.getFirstSample() < 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        sampler.stop();
+    }
+
+    @Test
+    public void testFirstSample() {
+        assertTrue(sampler.getFirstSample() > 0);
+        // only finds what was there before
+        assertEquals(0, notifications.get());
+        assertTrue(sampler.getChangedComponents(10).isEmpty());
+    }
+
+    @Test
+    public void testUnchanged() {
+        final long changes = sampler.getChanges();
+        sampler.sample();
+        assertEquals(changes, sampler.getChanges());
+        assertEquals(0, notifications.get());
+    }
+
+    @Test
+    public void testTransitions() {
+        final long changes = sampler.getChanges();
+        configurations.get(1).state = SATISFIED;
+        sampler.sample();
+        configurations.get(1).state = ACTIVE;
+        sampler.sample();
+        assertEquals(changes + 2, sampler.getChanges());
+        assertEquals(2, notifications.get());
+
+        List<ComponentHistory> changed = sampler.getChangedComponents(10);
+        assertEquals(1, changed.size());
+        ComponentHistory history = changed.get(0);
+        assertEquals("b", history.getName());
+        assertEquals(2, history.getId());
+        assertEquals(20, history.getBundleId());
+        assertEquals(ACTIVE, history.getState());
+        assertEquals(2, history.size());
+        assertEquals(UNSATISFIED, history.getFromState(0));
+        assertEquals(SATISFIED, history.getToState(0));
+        assertEquals(SATISFIED, history.getFromState(1));
+        assertEquals(ACTIVE, history.getToState(1));
+        // unsatisfied since before sampling started
+        assertEquals(-1, history.getTimeInFromState(0));
+        assertTrue(history.getTimeInFromState(1) >= 0);
+        assertEquals(history.getTime(1), history.getSince());
+    }
+
+    @Test
+    public void testCopies() {
+        configurations.get(0).state = SATISFIED;
+        sampler.sample();
+        ComponentHistory copy = sampler.getChangedComponents(10).get(0);
+
+        configurations.get(0).state = ACTIVE;
+        sampler.sample();
+        assertEquals(1, copy.getTransitionCount());
+        assertEquals(SATISFIED, copy.getState());
+    }
+
+    @Test
+    public void testAddedAndRemoved() {
+        configuration(3, "c", UNSATISFIED);
+        sampler.sample();
+        assertEquals(1, notifications.get());
+
+        configurations.get(2).state = ACTIVE;
+        sampler.sample();
+        ComponentHistory history = sampler.getChangedComponents(10).get(0);
+        assertEquals("c", history.getName());
+        // appeared after sampling started, so its time in the initial state is known
+        assertTrue(history.getTimeInFromState(0) >= 0);
+
+        configurations.remove(2);
+        sampler.sample();
+        assertEquals(3, notifications.get());
+        assertTrue(sampler.getChangedComponents(10).isEmpty());
+    }
+
+    @Test
+    public void testMostTransitionsFirst() {
+        for (int i = 0; i < 3; i++) {
+            configurations.get(1).state = i % 2 == 0 ? SATISFIED : UNSATISFIED;
+            if (i == 0) {
+                configurations.get(0).state = SATISFIED;
+            }
+            sampler.sample();
+        }
+        List<ComponentHistory> changed = sampler.getChangedComponents(10);
+        assertEquals(2, changed.size());
+        assertEquals("b", changed.get(0).getName());
+        assertEquals(3, changed.get(0).getTransitionCount());
+        assertEquals("a", changed.get(1).getName());
+
+        assertEquals(1, sampler.getChangedComponents(1).size());
+    }
+
+    @Test
+    public void testOnlyLastTransitionsKept() {
+        ComponentHistory history = new ComponentHistory("a", 1, 10, UNSATISFIED, 100);
+        final int transitions = ComponentHistory.MAX_TRANSITIONS + 4;
+        for (int i = 1; i <= transitions; i++) {
+            history.transition(i % 2 == 0 ? UNSATISFIED : ACTIVE, 100 + i * 10);
+        }
+        assertEquals(transitions, history.getTransitionCount());
+        assertEquals(ComponentHistory.MAX_TRANSITIONS, history.size());
+        // oldest kept is the fifth
+        assertEquals(150, history.getTime(0));
+        assertEquals(ACTIVE, history.getToState(0));
+        assertEquals(-1, history.getTimeInFromState(0));
+        assertEquals(10, history.getTimeInFromState(1));
+        assertEquals(100 + transitions * 10, history.getSince());
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private void configuration(long id, String name, int state) {
+        ComponentDescriptionDTO description = new ComponentDescriptionDTO();
+        description.name = name;
+        description.bundle = new BundleDTO();
+        description.bundle.id = id * 10;
+        ComponentConfigurationDTO configuration = new ComponentConfigurationDTO();
+        configuration.id = id;
+        configuration.description = description;
+        configuration.state = state;
+        configurations.add(configuration);
+    }
+}
@@ -0,0 +1,174 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.runtime.ServiceComponentRuntime;
+
+public class DiagnosisEngineTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private final Bundle bundle = TestBundles.bundle(1, Bundle.ACTIVE);
+
+    /** number of diagnoses computed, each captures the bundles once */
+    private final AtomicInteger captures = new AtomicInteger();
+
+    private final BundleContext context = TestBundles.proxy(BundleContext.class, TestBundles.answers(
+        "getBundles", new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                captures.incrementAndGet();
+                return new Bundle[] { bundle };
+            }
+        }));
+
+    private final AnalysisExecutor executor = new AnalysisExecutor(1);
+
+    private DiagnosisEngine engine;
+
+    @After
+    public void stop() {
+        if (engine != null) {
+            engine.stop(context);
+        }
+        executor.stop();
+    }
+
+    @Test
+    public void testInitialDiagnosisInBackground() throws InterruptedException {
+        engine = engine(10);
+        Diagnosis diagnosis = engine.awaitNewer(-1, TIMEOUT);
+        assertNotNull(diagnosis);
+        assertEquals(engine.getGeneration(), diagnosis.getGeneration());
+        assertEquals(1, diagnosis.getSnapshot().size());
+        assertSame(diagnosis, engine.getDiagnosis());
+    }
+
+    @Test
+    public void testBurstDebounced() throws InterruptedException {
+        engine = engine(200);
+        Diagnosis first = engine.awaitNewer(-1, TIMEOUT);
+        final int computed = captures.get();
+
+        for (int i = 0; i < 5; i++) {
+            engine.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        }
+        assertEquals(first.getGeneration() + 5, engine.getGeneration());
+
+        Diagnosis next = engine.awaitNewer(first.getGeneration(), TIMEOUT);
+        assertEquals(first.getGeneration() + 5, next.getGeneration());
+        assertEquals(computed + 1, captures.get());
+    }
+
+    @Test
+    public void testContinuousBurstRecomputedAtTheLatest() throws InterruptedException {
+        engine = engine(20);
+        Diagnosis first = engine.awaitNewer(-1, TIMEOUT);
+
+        // never quiet for the debounce time, recomputed after ten times the debounce time anyway
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (engine.getDiagnosis() == first && System.currentTimeMillis() < end) {
+            engine.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+            Thread.sleep(2);
+        }
+        assertTrue(engine.getDiagnosis() != first);
+    }
+
+    @Test
+    public void testRelevantEvents() throws InterruptedException {
+        engine = engine(10);
+        engine.awaitNewer(-1, TIMEOUT);
+        final long generation = engine.getGeneration();
+        ServiceReference<?> reference = TestBundles.proxy(ServiceReference.class, TestBundles.answers());
+
+        engine.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, reference));
+        engine.frameworkEvent(new FrameworkEvent(FrameworkEvent.INFO, bundle, null));
+        assertEquals(generation, engine.getGeneration());
+
+        engine.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+        engine.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        engine.frameworkEvent(new FrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, bundle, null));
+        engine.componentsChanged();
+        assertEquals(generation + 4, engine.getGeneration());
+    }
+
+    @Test
+    public void testAwaitNewerTimesOut() throws InterruptedException {
+        engine = engine(10);
+        Diagnosis diagnosis = engine.awaitNewer(-1, TIMEOUT);
+        assertSame(diagnosis, engine.awaitNewer(diagnosis.getGeneration(), 50));
+    }
+
+    @Test
+    public void testStopped() throws InterruptedException {
+        engine = engine(10);
+        final Diagnosis diagnosis = engine.awaitNewer(-1, TIMEOUT);
+        final int computed = captures.get();
+
+        final Diagnosis[] awaited = { diagnosis };
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    awaited[0] = engine.awaitNewer(diagnosis.getGeneration(), TIMEOUT);
+                } catch (InterruptedException e) {
+                    // fails below
+                }
+            }
+        };
+        waiting.start();
+        engine.stop(context);
+        waiting.join(TIMEOUT);
+        assertNull(awaited[0]);
+
+        // the last diagnosis stays, without recomputing
+        engine.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        assertSame(diagnosis, engine.getDiagnosis());
+        assertNull(engine.awaitNewer(diagnosis.getGeneration(), 50));
+        assertEquals(computed, captures.get());
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private DiagnosisEngine engine(long debounceMillis) {
+        ServiceComponentRuntime scr = TestBundles.proxy(ServiceComponentRuntime.class, TestBundles.answers(
+            "getComponentDescriptionDTOs", Collections.emptyList()));
+        BundleAnalyzer bundleAnalyzer = new BundleAnalyzer(new CapabilityIndex(context), new BundlePackageCache(context, 10), executor);
+        return new DiagnosisEngine(context, bundleAnalyzer, new ComponentAnalyzer(scr, executor), debounceMillis);
+    }
+}
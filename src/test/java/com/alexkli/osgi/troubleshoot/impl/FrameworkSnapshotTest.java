@@ -0,0 +1,135 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class FrameworkSnapshotTest {
+
+    @Test
+    public void testOrderedById() {
+        Bundle b5 = TestBundles.bundle(5, Bundle.ACTIVE);
+        Bundle b0 = TestBundles.bundle(0, Bundle.ACTIVE);
+        Bundle b2 = TestBundles.bundle(2, Bundle.RESOLVED);
+        Bundle[] bundles = { b5, b0, b2 };
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(bundles);
+
+        assertEquals(3, snapshot.size());
+        assertSame(b0, snapshot.getBundle(0));
+        assertSame(b2, snapshot.getBundle(1));
+        assertSame(b5, snapshot.getBundle(2));
+        assertEquals(2, snapshot.indexOf(5));
+        assertEquals(-1, snapshot.indexOf(3));
+        assertEquals("bundle-2", snapshot.getSymbolicName(1));
+        assertEquals(Version.emptyVersion, snapshot.getVersion(1));
+        // the array of the caller is left alone
+        assertSame(b5, bundles[0]);
+    }
+
+    @Test
+    public void testCounts() {
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(new Bundle[] {
+            TestBundles.bundle(0, Bundle.ACTIVE),
+            TestBundles.bundle(1, Bundle.ACTIVE),
+            TestBundles.bundle(2, Bundle.INSTALLED),
+            TestBundles.bundle(3, Bundle.RESOLVED),
+            fragment(4, Bundle.RESOLVED, true),
+            fragment(5, Bundle.RESOLVED, false),
+            TestBundles.bundle(6, Bundle.STARTING)
+        });
+        assertEquals(2, snapshot.getActiveCount());
+        assertEquals(1, snapshot.getInstalledCount());
+        assertEquals(1, snapshot.getResolvedCount());
+        assertEquals(2, snapshot.getFragmentCount());
+    }
+
+    @Test
+    public void testFragments() {
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(new Bundle[] {
+            TestBundles.bundle(0, Bundle.RESOLVED),
+            fragment(1, Bundle.RESOLVED, true),
+            fragment(2, Bundle.INSTALLED, false)
+        });
+        assertFalse(snapshot.isFragment(0));
+        assertTrue(snapshot.isInactive(0));
+        assertEquals("Resolved", snapshot.getStatusString(0));
+
+        // from the revision
+        assertTrue(snapshot.isFragment(1));
+        assertFalse(snapshot.isInactive(1));
+        assertEquals("Fragment", snapshot.getStatusString(1));
+
+        // uninstalled, from the Fragment-Host header
+        assertTrue(snapshot.isFragment(2));
+        assertNull(snapshot.getRevision(2));
+        assertTrue(snapshot.isInactive(2));
+        assertEquals("Installed", snapshot.getStatusString(2));
+    }
+
+    @Test
+    public void testStateCapturedOnce() {
+        final int[] state = { Bundle.STARTING };
+        Bundle bundle = TestBundles.proxy(Bundle.class, TestBundles.answers(
+            "getBundleId", 1L,
+            "getState", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return state[0];
+                }
+            },
+            "getHeaders", new Hashtable<String, String>()));
+
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(new Bundle[] { bundle });
+        state[0] = Bundle.ACTIVE;
+        assertEquals(Bundle.STARTING, snapshot.getState(0));
+        assertTrue(snapshot.isInactive(0));
+        assertEquals(0, snapshot.getActiveCount());
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    /** A fragment, known from its revision or, without one, from its headers */
+    private static Bundle fragment(long id, int state, boolean withRevision) {
+        Hashtable<String, String> headers = new Hashtable<String, String>();
+        headers.put(Constants.FRAGMENT_HOST, "host");
+        BundleRevision revision = withRevision
+            ? TestBundles.proxy(BundleRevision.class, TestBundles.answers("getTypes", BundleRevision.TYPE_FRAGMENT))
+            : null;
+        return TestBundles.proxy(Bundle.class, TestBundles.answers(
+            "getBundleId", id,
+            "getSymbolicName", "fragment-" + id,
+            "getState", state,
+            "getHeaders", withRevision ? new Hashtable<String, String>() : headers,
+            "adapt", revision));
+    }
+}
@@ -0,0 +1,102 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.alexkli.osgi.troubleshoot.impl.utils.JsonWriter;
+
+public class LivePageTest {
+
+    @Test
+    public void testEverythingAfterReconnect() {
+        LivePage page = page("1 bundle", "a", "<p>a</p>", "b", "<p>b</p>");
+        page.addContainer("blockers");
+
+        // all rows with their order, "</" escaped for script blocks
+        assertEquals("{\"generation\":3,\"age\":\"now\",\"texts\":{\"status\":\"1 bundle\"},"
+            + "\"rows\":{\"bundles\":{\"set\":{\"a\":\"<p>a<\\/p>\",\"b\":\"<p>b<\\/p>\"},\"order\":[\"a\",\"b\"]},"
+            + "\"blockers\":{\"order\":[]}}}",
+            delta(LivePage.EMPTY, page));
+    }
+
+    @Test
+    public void testUnchanged() {
+        LivePage previous = page("1 bundle", "a", "<p>a</p>");
+        LivePage page = page("1 bundle", "a", "<p>a</p>");
+
+        StringWriter buffer = new StringWriter();
+        assertFalse(page.writeDelta(previous, new JsonWriter(new PrintWriter(buffer)), 3, "now"));
+        assertEquals("", buffer.toString());
+    }
+
+    @Test
+    public void testChangedText() {
+        assertEquals("{\"generation\":3,\"age\":\"now\",\"texts\":{\"status\":\"2 bundles\"},\"rows\":{}}",
+            delta(page("1 bundle", "a", "<p>a</p>"), page("2 bundles", "a", "<p>a</p>")));
+    }
+
+    @Test
+    public void testChangedRow() {
+        assertEquals("{\"generation\":3,\"age\":\"now\",\"texts\":{},\"rows\":{\"bundles\":{\"set\":{\"b\":\"<p>b2<\\/p>\"}}}}",
+            delta(page("s", "a", "<p>a</p>", "b", "<p>b</p>"), page("s", "a", "<p>a</p>", "b", "<p>b2</p>")));
+    }
+
+    @Test
+    public void testAddedRow() {
+        assertEquals("{\"generation\":3,\"age\":\"now\",\"texts\":{},"
+            + "\"rows\":{\"bundles\":{\"set\":{\"c\":\"<p>c<\\/p>\"},\"order\":[\"a\",\"c\"]}}}",
+            delta(page("s", "a", "<p>a</p>"), page("s", "a", "<p>a</p>", "c", "<p>c</p>")));
+    }
+
+    @Test
+    public void testRemovedAndMovedRows() {
+        // only the new order, the rows themselves are unchanged
+        assertEquals("{\"generation\":3,\"age\":\"now\",\"texts\":{},\"rows\":{\"bundles\":{\"order\":[\"c\",\"a\"]}}}",
+            delta(page("s", "a", "<p>a</p>", "b", "<p>b</p>", "c", "<p>c</p>"), page("s", "c", "<p>c</p>", "a", "<p>a</p>")));
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    /** A page with a status text and bundle rows given as key, html pairs */
+    private static LivePage page(String status, String... rows) {
+        LivePage page = new LivePage();
+        page.setText("status", status);
+        page.addContainer("bundles");
+        for (int i = 0; i < rows.length; i += 2) {
+            page.addRow("bundles", rows[i], rows[i + 1]);
+        }
+        return page;
+    }
+
+    private static String delta(LivePage previous, LivePage page) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter out = new PrintWriter(buffer);
+        assertTrue(page.writeDelta(previous, new JsonWriter(out), 3, "now"));
+        out.flush();
+        return buffer.toString();
+    }
+}
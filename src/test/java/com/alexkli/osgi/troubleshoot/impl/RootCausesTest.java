@@ -0,0 +1,136 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+public class RootCausesTest {
+
+    private static final int[] NONE = new int[0];
+
+    private final List<Bundle> bundles = new ArrayList<Bundle>();
+
+    private final List<BundleDiagnosis> diagnoses = new ArrayList<BundleDiagnosis>();
+
+    @Test
+    public void testChainBlockedByOwnProblem() {
+        // 0 misses a package, 1 imports from 0, 2 imports from 1
+        problematic(1, missing());
+        problematic(2, notActive(1));
+        problematic(3, notActive(2));
+
+        RootCauses rootCauses = analyze();
+        assertArrayEquals(new int[] {0}, rootCauses.getRoots());
+        assertTrue(rootCauses.isRoot(0));
+        assertFalse(rootCauses.isRoot(1));
+        assertArrayEquals(new int[] {1, 2}, rootCauses.getVictims(0));
+        assertArrayEquals(NONE, rootCauses.getVictims(1));
+        assertArrayEquals(new int[] {0}, rootCauses.getBlockedBy(2));
+        assertArrayEquals(NONE, rootCauses.getBlockedBy(0));
+    }
+
+    @Test
+    public void testCycleIsOneRoot() {
+        // 0 and 1 import from each other, 2 imports from 1
+        problematic(1, notActive(2));
+        problematic(2, notActive(1));
+        problematic(3, notActive(2));
+
+        RootCauses rootCauses = analyze();
+        assertArrayEquals(new int[] {0, 1}, rootCauses.getRoots());
+        assertArrayEquals(new int[] {2}, rootCauses.getVictims(0));
+        assertArrayEquals(new int[] {2}, rootCauses.getVictims(1));
+        assertArrayEquals(new int[] {0, 1}, rootCauses.getBlockedBy(2));
+    }
+
+    @Test
+    public void testOwnProblemInChainIsRoot() {
+        // 1 imports from 0 but also misses a package itself
+        problematic(1, missing());
+        problematic(2, notActive(1), missing());
+        problematic(3, notActive(2));
+
+        RootCauses rootCauses = analyze();
+        assertArrayEquals(new int[] {0, 1}, rootCauses.getRoots());
+        // roots are not victims of other roots, but what they block is blocked by both
+        assertArrayEquals(new int[] {2}, rootCauses.getVictims(0));
+        assertArrayEquals(new int[] {2}, rootCauses.getVictims(1));
+        assertTrue(rootCauses.isRoot(1));
+        assertArrayEquals(new int[] {0, 1}, rootCauses.getBlockedBy(2));
+    }
+
+    @Test
+    public void testMostBlockingRootFirst() {
+        problematic(1, missing());
+        problematic(2, missing());
+        problematic(3, notActive(2));
+        problematic(4, notActive(2));
+        problematic(5, notActive(1));
+
+        RootCauses rootCauses = analyze();
+        assertArrayEquals(new int[] {1, 0}, rootCauses.getRoots());
+        assertArrayEquals(new int[] {2, 3}, rootCauses.getVictims(1));
+        assertArrayEquals(new int[] {4}, rootCauses.getVictims(0));
+    }
+
+    @Test
+    public void testExporterNotProblematic() {
+        // the exporter is not in the diagnosis, e.g. it became active meanwhile
+        bundles.add(TestBundles.bundle(1, Bundle.RESOLVED));
+        problematic(2, notActive(1));
+
+        RootCauses rootCauses = analyze();
+        assertArrayEquals(new int[] {0}, rootCauses.getRoots());
+        assertArrayEquals(NONE, rootCauses.getVictims(0));
+    }
+
+    @Test
+    public void testNoProblems() {
+        assertArrayEquals(NONE, analyze().getRoots());
+    }
+
+    private void problematic(long id, ImportProblem... problems) {
+        diagnoses.add(new BundleDiagnosis(bundles.size(), Arrays.asList(problems)));
+        bundles.add(TestBundles.bundle(id, Bundle.INSTALLED));
+    }
+
+    private static ImportProblem missing() {
+        return new ImportProblem(ImportProblem.Type.NOT_EXPORTED, "osgi.wiring.package", "org.example",
+            null, -1, null, null, null, false, false);
+    }
+
+    private static ImportProblem notActive(long exporterId) {
+        return new ImportProblem(ImportProblem.Type.DEPENDENCY_NOT_ACTIVE, "osgi.wiring.package", "org.example",
+            null, exporterId, "bundle-" + exporterId, "Installed", null, false, false);
+    }
+
+    private RootCauses analyze() {
+        FrameworkSnapshot snapshot = FrameworkSnapshot.capture(bundles.toArray(new Bundle[bundles.size()]));
+        return RootCauses.analyze(snapshot, diagnoses);
+    }
+}
@@ -0,0 +1,146 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+public class ServiceChurnRecorderTest {
+
+    private final BundleContext context = TestBundles.proxy(BundleContext.class, TestBundles.answers());
+
+    @Test
+    public void testFlapping() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 100);
+        ServiceReference<?> flapping = reference(1, "org.example.Flapping");
+        ServiceReference<?> stable = reference(2, "org.example.Stable");
+
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, stable));
+        // one cycle only
+        cycle(recorder, stable, 1);
+        cycle(recorder, flapping, 3);
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, flapping));
+
+        List<ServiceChurn> churns = recorder.getFlappingServices(10);
+        assertEquals(1, churns.size());
+        ServiceChurn churn = churns.get(0);
+        assertEquals("org.example.Flapping", churn.getServiceInterface());
+        assertEquals(3, churn.getCycles());
+        assertEquals(3, churn.getRegistrations());
+        assertEquals(3, churn.getUnregistrations());
+        // all recent, in every window
+        for (int w = 0; w < ServiceChurnRecorder.WINDOWS.length; w++) {
+            assertEquals(7, churn.getEvents(w));
+        }
+        assertEquals(10, recorder.getRecorded());
+    }
+
+    @Test
+    public void testMostCyclesFirst() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 100);
+        cycle(recorder, reference(1, "b"), 2);
+        cycle(recorder, reference(1, "c"), 4);
+        cycle(recorder, reference(1, "a"), 2);
+
+        List<ServiceChurn> churns = recorder.getFlappingServices(10);
+        assertEquals(3, churns.size());
+        assertEquals("c", churns.get(0).getServiceInterface());
+        // same counts, by name
+        assertEquals("a", churns.get(1).getServiceInterface());
+        assertEquals("b", churns.get(2).getServiceInterface());
+
+        assertEquals(1, recorder.getFlappingServices(1).size());
+    }
+
+    @Test
+    public void testEveryInterfaceOfTheService() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 100);
+        cycle(recorder, reference(1, "a", "b"), 2);
+        assertEquals(2, recorder.getFlappingServices(10).size());
+        assertEquals(8, recorder.getRecorded());
+    }
+
+    @Test
+    public void testLastBundleFromRegistrations() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 100);
+        cycle(recorder, reference(1, "a"), 1);
+        cycle(recorder, reference(2, "a"), 1);
+        // modified and unregistered by another bundle afterwards
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.MODIFIED, reference(3, "a")));
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference(3, "a")));
+
+        assertEquals(2, recorder.getFlappingServices(10).get(0).getLastBundleId());
+    }
+
+    @Test
+    public void testNoisyInterfaceEvictsOthers() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 10);
+        cycle(recorder, reference(1, "quiet"), 2);
+        cycle(recorder, reference(1, "noisy"), 5);
+
+        List<ServiceChurn> churns = recorder.getFlappingServices(10);
+        assertEquals(1, churns.size());
+        assertEquals("noisy", churns.get(0).getServiceInterface());
+        assertEquals(10, churns.get(0).getEvents(0));
+        assertEquals(14, recorder.getRecorded());
+    }
+
+    @Test
+    public void testNextExpiry() {
+        ServiceChurnRecorder recorder = new ServiceChurnRecorder(context, 10);
+        assertEquals(Long.MAX_VALUE, recorder.getNextExpiry());
+
+        final long before = System.currentTimeMillis();
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference(1, "a")));
+        final long after = System.currentTimeMillis();
+
+        // leaves the smallest window first
+        long expiry = recorder.getNextExpiry();
+        assertTrue(expiry >= before + ServiceChurnRecorder.WINDOWS[0]);
+        assertTrue(expiry <= after + ServiceChurnRecorder.WINDOWS[0]);
+
+        // later events leave it later
+        recorder.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference(1, "a")));
+        assertEquals(expiry, recorder.getNextExpiry());
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private static void cycle(ServiceChurnRecorder recorder, ServiceReference<?> reference, int times) {
+        for (int i = 0; i < times; i++) {
+            recorder.serviceChanged(new ServiceEvent(ServiceEvent.REGISTERED, reference));
+            recorder.serviceChanged(new ServiceEvent(ServiceEvent.UNREGISTERING, reference));
+        }
+    }
+
+    private static ServiceReference<?> reference(long bundleId, String... interfaces) {
+        Bundle bundle = TestBundles.bundle(bundleId, Bundle.ACTIVE);
+        return TestBundles.proxy(ServiceReference.class, TestBundles.answers(
+            "getProperty", interfaces,
+            "getBundle", bundle));
+    }
+}
@@ -0,0 +1,135 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+
+public class StuckBundleWatchdogTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private final BundleContext context = TestBundles.proxy(BundleContext.class, TestBundles.answers());
+
+    private final Bundle bundle = TestBundles.bundle(7, Bundle.STARTING);
+
+    /** threshold of one second, checked every second */
+    private final StuckBundleWatchdog watchdog = new StuckBundleWatchdog(context, 1);
+
+    @After
+    public void stop() {
+        watchdog.stop(context);
+    }
+
+    @Test
+    public void testShortTransitions() {
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.STARTING, bundle));
+        // below the threshold
+        assertNull(watchdog.getStuckBundle(7));
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.STOPPED, bundle));
+        assertNull(watchdog.getStuckBundle(7));
+        assertEquals(0, watchdog.getCaptures());
+    }
+
+    @Test
+    public void testActivatorBlockedOnLock() throws InterruptedException {
+        final Object lock = new Object();
+        final CountDownLatch transitioning = new CountDownLatch(1);
+        Thread activator = new Thread("test-activator") {
+            @Override
+            public void run() {
+                watchdog.bundleChanged(new BundleEvent(BundleEvent.STARTING, bundle));
+                transitioning.countDown();
+                synchronized (lock) {
+                    // waits for the test thread
+                }
+            }
+        };
+        synchronized (lock) {
+            activator.start();
+            assertTrue(transitioning.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            awaitCapture();
+
+            StuckBundle stuckBundle = watchdog.getStuckBundle(7);
+            assertNotNull(stuckBundle);
+            assertTrue(stuckBundle.isStarting());
+            assertEquals("bundle-7", stuckBundle.getSymbolicName());
+            assertEquals("test-activator", stuckBundle.getThreadName());
+            assertFalse(stuckBundle.isThreadGone());
+
+            // the activator thread, then the test thread holding the lock
+            List<StuckBundle.ThreadCapture> threads = stuckBundle.getThreads();
+            assertEquals(2, threads.size());
+            assertEquals("test-activator", threads.get(0).getName());
+            assertEquals(Thread.State.BLOCKED, threads.get(0).getState());
+            assertEquals(Thread.currentThread().getName(), threads.get(0).getLockOwnerName());
+            assertEquals(Thread.currentThread().getId(), threads.get(1).getId());
+            assertFalse(threads.get(0).isDeadlocked());
+            assertTrue(threads.get(0).getStackTrace().length > 0);
+        }
+        activator.join(TIMEOUT);
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundle));
+        assertNull(watchdog.getStuckBundle(7));
+    }
+
+    @Test
+    public void testThreadGone() throws InterruptedException {
+        Thread activator = new Thread("test-activator") {
+            @Override
+            public void run() {
+                watchdog.bundleChanged(new BundleEvent(BundleEvent.STOPPING, bundle));
+            }
+        };
+        activator.start();
+        activator.join(TIMEOUT);
+        awaitCapture();
+
+        StuckBundle stuckBundle = watchdog.getStuckBundle(7);
+        assertFalse(stuckBundle.isStarting());
+        assertTrue(stuckBundle.isThreadGone());
+
+        watchdog.bundleChanged(new BundleEvent(BundleEvent.UNINSTALLED, bundle));
+        assertNull(watchdog.getStuckBundle(7));
+    }
+
+    // ----------------------------------------------< helpers >---------------------------------
+
+    private void awaitCapture() throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (watchdog.getCaptures() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertTrue("not captured", watchdog.getCaptures() > 0);
+    }
+}
@@ -0,0 +1,129 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Framework objects for tests, as proxies answering each method by name from a map.
+ */
+final class TestBundles {
+
+    private TestBundles() {
+    }
+
+    /**
+     * Returns a proxy answering each method with the value for its name, or with the result of the
+     * value if it is an {@link InvocationHandler}. Unknown methods answer null, equality is identity.
+     */
+    static <T> T proxy(Class<T> type, final Map<String, Object> answers) {
+        return type.cast(Proxy.newProxyInstance(TestBundles.class.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("toString")) {
+                    return String.valueOf(answers.get("getSymbolicName"));
+                }
+                Object answer = answers.get(method.getName());
+                if (answer instanceof InvocationHandler) {
+                    return ((InvocationHandler) answer).invoke(proxy, method, args);
+                }
+                return answer;
+            }
+        }));
+    }
+
+    static Map<String, Object> answers(Object... namesAndValues) {
+        Map<String, Object> answers = new HashMap<String, Object>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            answers.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return answers;
+    }
+
+    /** A bundle named "bundle-id" without revision, like an uninstalled one */
+    static Bundle bundle(long id, int state) {
+        return proxy(Bundle.class, answers(
+            "getBundleId", id,
+            "getSymbolicName", "bundle-" + id,
+            "getVersion", Version.emptyVersion,
+            "getState", state,
+            "getHeaders", new Hashtable<String, String>()));
+    }
+
+    /** A capability in one of the wiring namespaces, with its name, version and further attributes */
+    static BundleCapability capability(BundleRevision revision, String namespace, String name, String version,
+                                       Object... attributes) {
+        Map<String, Object> map = answers(attributes);
+        map.put(namespace, name);
+        map.put(CapabilityIndex.getVersionAttribute(namespace), new Version(version));
+        return proxy(BundleCapability.class, answers(
+            "getNamespace", namespace,
+            "getAttributes", map,
+            "getRevision", revision,
+            "getSymbolicName", name + " " + version));
+    }
+
+    /** A requirement matching the capabilities of its namespace with the filter, like the framework does */
+    static BundleRequirement requirement(final String namespace, String filter, String resolution) {
+        Map<String, String> directives = new HashMap<String, String>();
+        if (filter != null) {
+            directives.put(PackageNamespace.REQUIREMENT_FILTER_DIRECTIVE, filter);
+        }
+        if (resolution != null) {
+            directives.put(PackageNamespace.REQUIREMENT_RESOLUTION_DIRECTIVE, resolution);
+        }
+        final Filter parsed;
+        try {
+            parsed = filter == null ? null : FrameworkUtil.createFilter(filter);
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return proxy(BundleRequirement.class, answers(
+            "getNamespace", namespace,
+            "getDirectives", directives,
+            "getSymbolicName", filter,
+            "matches", new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    BundleCapability capability = (BundleCapability) args[0];
+                    return namespace.equals(capability.getNamespace())
+                        && (parsed == null || parsed.matches(capability.getAttributes()));
+                }
+            }));
+    }
+}
@@ -0,0 +1,141 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GraphsTest {
+
+    @Test
+    public void testNoEdges() {
+        int[] component = Graphs.stronglyConnectedComponents(3, new int[] {0, 0, 0, 0}, new int[0]);
+        assertEquals(3, distinct(component));
+    }
+
+    @Test
+    public void testChainInReverseTopologicalOrder() {
+        // 0 -> 1 -> 2
+        int[] component = Graphs.stronglyConnectedComponents(3, new int[] {0, 1, 2, 2}, new int[] {1, 2});
+        assertEquals(3, distinct(component));
+        assertTrue(component[2] < component[1]);
+        assertTrue(component[1] < component[0]);
+    }
+
+    @Test
+    public void testCycles() {
+        // 0 -> 1 -> 2 -> 0, 2 -> 3, 3 -> 4 -> 3, 5 -> 5
+        int[] edgeStart = {0, 1, 2, 4, 5, 6, 7};
+        int[] edges = {1, 2, 0, 3, 4, 3, 5};
+        int[] component = Graphs.stronglyConnectedComponents(6, edgeStart, edges);
+
+        assertEquals(component[0], component[1]);
+        assertEquals(component[0], component[2]);
+        assertEquals(component[3], component[4]);
+        assertNotEquals(component[0], component[3]);
+        assertNotEquals(component[5], component[0]);
+        assertNotEquals(component[5], component[3]);
+        // successors have lower numbers
+        assertTrue(component[3] < component[0]);
+    }
+
+    @Test
+    public void testLongChainWithoutRecursion() {
+        // deeper than the default thread stack would allow recursively
+        final int n = 200000;
+        int[] edgeStart = new int[n + 1];
+        int[] edges = new int[n];
+        for (int v = 0; v < n; v++) {
+            edgeStart[v] = v;
+            // a chain closed into one big cycle
+            edges[v] = (v + 1) % n;
+        }
+        edgeStart[n] = n;
+        int[] component = Graphs.stronglyConnectedComponents(n, edgeStart, edges);
+        assertEquals(1, distinct(component));
+    }
+
+    @Test
+    public void testComponentCount() {
+        assertEquals(0, Graphs.componentCount(new int[0]));
+        assertEquals(3, Graphs.componentCount(new int[] {2, 0, 1, 0}));
+    }
+
+    @Test
+    public void testReachableMarks() {
+        // 0 -> 1 <-> 2 -> 3, 4 -> 3; marks on 3 (bit 0) and on the cycle 1, 2 (bit 1)
+        int[] edgeStart = {0, 1, 3, 4, 4, 5};
+        int[] edges = {1, 2, 3, 1, 3};
+        int[] component = Graphs.stronglyConnectedComponents(5, edgeStart, edges);
+        long[][] marks = new long[Graphs.componentCount(component)][1];
+        marks[component[3]][0] = 1L;
+        marks[component[1]][0] |= 2L;
+
+        Graphs.reachableMarks(5, edgeStart, edges, component, marks);
+        assertEquals(3L, marks[component[0]][0]);
+        assertEquals(3L, marks[component[1]][0]);
+        assertEquals(1L, marks[component[3]][0]);
+        assertEquals(1L, marks[component[4]][0]);
+    }
+
+    @Test
+    public void testReachableMarksBeyondOneWord() {
+        // a chain 0 -> 1 -> ... -> 99, each node marked with its own bit
+        final int n = 100;
+        int[] edgeStart = new int[n + 1];
+        int[] edges = new int[n - 1];
+        for (int v = 0; v < n; v++) {
+            edgeStart[v] = v;
+            if (v < n - 1) {
+                edges[v] = v + 1;
+            }
+        }
+        edgeStart[n] = n - 1;
+        int[] component = Graphs.stronglyConnectedComponents(n, edgeStart, edges);
+        long[][] marks = new long[n][2];
+        for (int v = 0; v < n; v++) {
+            marks[component[v]][v >>> 6] |= 1L << v;
+        }
+
+        Graphs.reachableMarks(n, edgeStart, edges, component, marks);
+        assertArrayEquals(new long[] {-1L, (1L << 36) - 1}, marks[component[0]]);
+        assertArrayEquals(new long[] {0L, 1L << 35}, marks[component[99]]);
+        assertArrayEquals(new long[] {0L, ((1L << 36) - 1) & ~((1L << 6) - 1)}, marks[component[70]]);
+    }
+
+    private static int distinct(int[] component) {
+        int max = -1;
+        for (int c : component) {
+            max = Math.max(max, c);
+        }
+        boolean[] seen = new boolean[max + 1];
+        int count = 0;
+        for (int c : component) {
+            if (!seen[c]) {
+                seen[c] = true;
+                count++;
+            }
+        }
+        return count;
+    }
+}
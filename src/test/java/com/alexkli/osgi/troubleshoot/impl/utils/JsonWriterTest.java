@@ -0,0 +1,93 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+    private final StringWriter buffer = new StringWriter();
+
+    private final JsonWriter json = new JsonWriter(new PrintWriter(buffer));
+
+    @Test
+    public void testEmptyContainers() {
+        json.object().key("a").array().endArray().key("b").object().endObject().endObject();
+        assertEquals("{\"a\":[],\"b\":{}}", buffer.toString());
+    }
+
+    @Test
+    public void testSeparators() {
+        json.object()
+            .key("name").value("x")
+            .key("count").value(3)
+            .key("active").value(true)
+            .key("missing").value((String) null)
+            .key("list").array().value(1).value(2).object().key("c").value(false).endObject().endArray()
+            .endObject();
+        assertEquals("{\"name\":\"x\",\"count\":3,\"active\":true,\"missing\":null,\"list\":[1,2,{\"c\":false}]}",
+            buffer.toString());
+    }
+
+    @Test
+    public void testTopLevelValues() {
+        json.array().endArray();
+        json.array().value("a").endArray();
+        // values at the top level are separated like array items
+        assertEquals("[],[\"a\"]", buffer.toString());
+    }
+
+    @Test
+    public void testEscaping() {
+        json.array()
+            .value("quote \" backslash \\")
+            .value("tab\tnewline\n")
+            .value("\u2028")
+            .value("</script>")
+            .value("a/b")
+            .endArray();
+        assertEquals("[\"quote \\\" backslash \\\\\",\"tab\\u0009newline\\u000a\",\"\\u2028\",\"<\\/script>\",\"a/b\"]",
+            buffer.toString());
+    }
+
+    @Test
+    public void testEscapedKeys() {
+        json.object().key("a\"b").value(1).endObject();
+        assertEquals("{\"a\\\"b\":1}", buffer.toString());
+    }
+
+    @Test
+    public void testDeepNesting() {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            json.array().value(i);
+            expected.append(i == 0 ? "[" : ",[").append(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            json.endArray().value("x");
+            expected.append("],\"x\"");
+        }
+        assertEquals(expected.toString(), buffer.toString());
+    }
+}
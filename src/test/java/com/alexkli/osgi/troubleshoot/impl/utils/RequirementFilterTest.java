@@ -0,0 +1,130 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *************************************************************************/
+
+package com.alexkli.osgi.troubleshoot.impl.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.osgi.framework.VersionRange;
+
+public class RequirementFilterTest {
+
+    private static final String PACKAGE = "osgi.wiring.package";
+    private static final String VERSION = "version";
+    private static final String BUNDLE = "osgi.wiring.bundle";
+    private static final String BUNDLE_VERSION = "bundle-version";
+
+    @Test
+    public void testImportPackageRange() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=org.example)(version>=1.0.0)(!(version>=2.0.0)))");
+        assertEquals("org.example", filter.getName());
+        assertEquals(new VersionRange("[1.0.0,2.0.0)"), filter.getVersionRange());
+    }
+
+    @Test
+    public void testWithoutVersion() {
+        RequirementFilter filter = parsePackage("(osgi.wiring.package=org.example)");
+        assertEquals("org.example", filter.getName());
+        assertSame(RequirementFilter.ANY, filter.getVersionRange());
+    }
+
+    @Test
+    public void testRequireBundleMinimum() {
+        RequirementFilter filter = RequirementFilter.parse("(&(osgi.wiring.bundle=org.example.api)(bundle-version>=1.2.0))",
+            BUNDLE, BUNDLE_VERSION);
+        assertEquals("org.example.api", filter.getName());
+        assertEquals(new VersionRange("1.2.0"), filter.getVersionRange());
+    }
+
+    @Test
+    public void testOpenLeftClosedRight() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=a)(version<=3.0.0)(!(version<=1.0.0)))");
+        assertEquals(new VersionRange("(1.0.0,3.0.0]"), filter.getVersionRange());
+    }
+
+    @Test
+    public void testExactVersion() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=a)(version=1.5.0))");
+        assertEquals(new VersionRange("[1.5.0,1.5.0]"), filter.getVersionRange());
+    }
+
+    @Test
+    public void testEmptyRange() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=a)(version>=2.0.0)(!(version>=1.0.0)))");
+        assertEquals("a", filter.getName());
+        assertEquals(true, filter.getVersionRange().isEmpty());
+    }
+
+    @Test
+    public void testOtherAttributesIgnored() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=a)(bundle-symbolic-name=b)(version>=1.0.0))");
+        assertEquals("a", filter.getName());
+        assertEquals(new VersionRange("1.0.0"), filter.getVersionRange());
+    }
+
+    @Test
+    public void testEscapedName() {
+        assertEquals("a(b)", parsePackage("(osgi.wiring.package=a\\(b\\))").getName());
+    }
+
+    @Test
+    public void testAlternatives() {
+        RequirementFilter filter = parsePackage("(|(osgi.wiring.package=a)(osgi.wiring.package=b))");
+        assertNull(filter.getName());
+        assertNull(filter.getVersionRange());
+    }
+
+    @Test
+    public void testNegatedName() {
+        assertNull(parsePackage("(!(osgi.wiring.package=a))").getName());
+    }
+
+    @Test
+    public void testInvalidVersion() {
+        RequirementFilter filter = parsePackage("(&(osgi.wiring.package=a)(version>=x.y))");
+        assertEquals("a", filter.getName());
+        assertNull(filter.getVersionRange());
+    }
+
+    @Test
+    public void testApproximateVersion() {
+        assertNull(parsePackage("(&(osgi.wiring.package=a)(version~=1.0))").getVersionRange());
+    }
+
+    @Test
+    public void testWithoutFilter() {
+        RequirementFilter filter = RequirementFilter.get(null, PACKAGE, VERSION);
+        assertNull(filter.getName());
+        assertNull(filter.getVersionRange());
+    }
+
+    @Test
+    public void testInterned() {
+        String filter = "(&(osgi.wiring.package=org.example.interned)(version>=1.0.0))";
+        RequirementFilter first = RequirementFilter.get(filter, PACKAGE, VERSION);
+        assertSame(first, RequirementFilter.get(new String(filter), PACKAGE, VERSION));
+        assertEquals("org.example.interned", first.getName());
+    }
+
+    private static RequirementFilter parsePackage(String filter) {
+        return RequirementFilter.parse(filter, PACKAGE, VERSION);
+    }
+}